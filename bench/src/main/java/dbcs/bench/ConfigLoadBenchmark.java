@@ -0,0 +1,50 @@
+package dbcs.bench;
+
+import dbcs.*;
+import org.apache.commons.configuration2.*;
+import org.apache.commons.configuration2.tree.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Cost of turning the config document into compiled plans, as done once at the start of every run.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ConfigLoadBenchmark {
+    @Param({"50", "500"})
+    int testcases;
+
+    @Param({"100"})
+    int operations;
+
+    private String xml;
+    private XMLConfiguration parsed;
+
+    @Setup
+    public void setUp() throws Exception {
+        xml = SyntheticSuite.xml(testcases, operations);
+        parsed = SyntheticSuite.parse(xml);
+    }
+
+    @Benchmark
+    public XMLConfiguration parse() throws Exception {
+        return SyntheticSuite.parse(xml);
+    }
+
+    @Benchmark
+    public List<TestPlan> compile() {
+        List<TestPlan> plans = new ArrayList<>();
+        for (HierarchicalConfiguration<ImmutableNode> testcase :
+                parsed.configurationAt("testcases").childConfigurationsAt("")) {
+            plans.add(PlanCompiler.compile(testcase));
+        }
+        return plans;
+    }
+}
@@ -0,0 +1,44 @@
+package dbcs.bench;
+
+import dbcs.*;
+import org.apache.commons.configuration2.*;
+import org.apache.commons.configuration2.tree.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.*;
+
+/**
+ * Engine overhead of a single Click against a driver with no latency: compiled dispatch through
+ * {@link AutoDriver#executeStep(Step)} versus reading the operation node each time through
+ * {@link AutoDriver#executeOperation(HierarchicalConfiguration)}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class DispatchBenchmark {
+    private AutoDriver driver;
+    private HierarchicalConfiguration<ImmutableNode> operation;
+    private Step step;
+
+    @Setup
+    public void setUp() throws Exception {
+        driver = new AutoDriver(new StubWebDriver(0));
+        XMLConfiguration config = SyntheticSuite.parse(SyntheticSuite.xml(1, 1));
+        HierarchicalConfiguration<ImmutableNode> testcase = config.configurationAt("testcases.testcase");
+        operation = testcase.configurationAt("operations.operation");
+        step = PlanCompiler.compile(testcase).getSteps().get(0);
+    }
+
+    @Benchmark
+    public void executeStep() {
+        driver.executeStep(step);
+    }
+
+    @Benchmark
+    public void executeOperation() {
+        driver.executeOperation(operation);
+    }
+}
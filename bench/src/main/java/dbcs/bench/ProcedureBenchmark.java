@@ -0,0 +1,61 @@
+package dbcs.bench;
+
+import dbcs.*;
+import org.apache.commons.configuration2.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.*;
+
+/**
+ * A whole testcase procedure, run the way VmTest.runTest runs it, against a stub driver with a configurable
+ * command latency. The commands and procedures counters report the wire protocol commands issued and the procedures
+ * run per iteration, their ratio is the number of commands per procedure.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class ProcedureBenchmark {
+    @Param({"0", "200"})
+    long latencyMicros;
+
+    @Param({"false", "true"})
+    boolean batchFormSteps;
+
+    @Param({"100"})
+    int operations;
+
+    private StubWebDriver stub;
+    private AutoDriver driver;
+    private TestPlan plan;
+
+    /**
+     * Extra result columns reported by JMH.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Counters {
+        public long commands;
+        public long procedures;
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        stub = new StubWebDriver(latencyMicros);
+        driver = new AutoDriver(stub);
+        XMLConfiguration config = SyntheticSuite.parse(SyntheticSuite.xml(1, operations));
+        plan = PlanCompiler.compile(config.configurationAt("testcases.testcase"), batchFormSteps);
+    }
+
+    @Benchmark
+    public void runTest(Counters counters) {
+        long before = stub.getCommandCount();
+        for (Step step : plan.getSteps()) {
+            driver.executeStep(step);
+        }
+        counters.commands += stub.getCommandCount() - before;
+        counters.procedures++;
+    }
+}
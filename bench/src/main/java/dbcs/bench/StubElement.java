@@ -0,0 +1,136 @@
+package dbcs.bench;
+
+import org.openqa.selenium.*;
+
+import java.util.*;
+
+/**
+ * Element of the {@link StubWebDriver}, always displayed and enabled.
+ */
+class StubElement implements WebElement {
+    private final StubWebDriver driver;
+    private final String xpath;
+    private final String tagName;
+    private final int index;
+    private boolean selected;
+    private List<WebElement> options;
+
+    StubElement(StubWebDriver driver, String xpath, String tagName) {
+        this(driver, xpath, tagName, 0);
+    }
+
+    private StubElement(StubWebDriver driver, String xpath, String tagName, int index) {
+        this.driver = driver;
+        this.xpath = xpath;
+        this.tagName = tagName;
+        this.index = index;
+    }
+
+    @Override
+    public void click() {
+        driver.command();
+        selected = !selected;
+    }
+
+    @Override
+    public void submit() {
+        driver.command();
+    }
+
+    @Override
+    public void sendKeys(CharSequence... keysToSend) {
+        driver.command();
+    }
+
+    @Override
+    public void clear() {
+        driver.command();
+    }
+
+    @Override
+    public String getTagName() {
+        driver.command();
+        return tagName;
+    }
+
+    @Override
+    public String getAttribute(String name) {
+        driver.command();
+        return "index".equals(name) ? String.valueOf(index) : null;
+    }
+
+    @Override
+    public boolean isSelected() {
+        driver.command();
+        return selected;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        driver.command();
+        return true;
+    }
+
+    @Override
+    public String getText() {
+        driver.command();
+        return "option " + index;
+    }
+
+    @Override
+    public List<WebElement> findElements(By by) {
+        driver.command();
+        if (options == null) {
+            options = new ArrayList<>();
+            for (int i = 0; i < StubWebDriver.OPTIONS; i++) {
+                options.add(new StubElement(driver, xpath + "/option[" + (i + 1) + "]", "option", i));
+            }
+        }
+        return options;
+    }
+
+    @Override
+    public WebElement findElement(By by) {
+        return findElements(by).get(0);
+    }
+
+    @Override
+    public boolean isDisplayed() {
+        driver.command();
+        return true;
+    }
+
+    @Override
+    public Point getLocation() {
+        driver.command();
+        return new Point(0, 0);
+    }
+
+    @Override
+    public Dimension getSize() {
+        driver.command();
+        return new Dimension(100, 20);
+    }
+
+    @Override
+    public Rectangle getRect() {
+        driver.command();
+        return new Rectangle(0, 0, 20, 100);
+    }
+
+    @Override
+    public String getCssValue(String propertyName) {
+        driver.command();
+        return "";
+    }
+
+    @Override
+    public <X> X getScreenshotAs(OutputType<X> target) {
+        throw new UnsupportedOperationException("getScreenshotAs");
+    }
+
+    @Override
+    public String toString() {
+        return "StubElement " + xpath;
+    }
+}
@@ -0,0 +1,183 @@
+package dbcs.bench;
+
+import org.openqa.selenium.*;
+
+import java.lang.reflect.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+/**
+ * In-process WebDriver standing in for a browser, so the operation engine can be measured without one.<br>
+ * <p>
+ * Every element any xpath asks for exists, is displayed and enabled. Selects have {@link #OPTIONS} options.
+ * The scripts AutoDriver sends are recognised by their leading marker comment and answered the way a browser would
+ * answer them on a page where every element is ready. Each call that would be a wire protocol command in a real
+ * session is counted and delayed by a configurable latency, to model a local or a remote grid browser.
+ * </p>
+ */
+public class StubWebDriver implements WebDriver, JavascriptExecutor {
+    static final int OPTIONS = 5;
+
+    private final long latencyNanos;
+    private final AtomicLong commands = new AtomicLong();
+    private final Map<String, StubElement> elements = new HashMap<>();
+
+    /**
+     * @param latencyMicros simulated round trip time of each command
+     */
+    public StubWebDriver(long latencyMicros) {
+        this.latencyNanos = latencyMicros * 1000;
+    }
+
+    /**
+     * @return number of commands issued so far
+     */
+    public long getCommandCount() {
+        return commands.get();
+    }
+
+    void command() {
+        commands.incrementAndGet();
+        if (latencyNanos > 0) {
+            LockSupport.parkNanos(latencyNanos);
+        }
+    }
+
+    StubElement element(String xpath) {
+        StubElement element = elements.get(xpath);
+        if (element == null) {
+            element = new StubElement(this, xpath, xpath.contains("select") ? "select" : "input");
+            elements.put(xpath, element);
+        }
+        return element;
+    }
+
+    private static String xpathOf(By by) {
+        String s = by.toString();
+        return s.substring(s.indexOf(':') + 1).trim();
+    }
+
+    @Override
+    public void get(String url) {
+        command();
+    }
+
+    @Override
+    public String getCurrentUrl() {
+        command();
+        return "about:blank";
+    }
+
+    @Override
+    public String getTitle() {
+        command();
+        return "stub";
+    }
+
+    @Override
+    public List<WebElement> findElements(By by) {
+        command();
+        return Collections.<WebElement>singletonList(element(xpathOf(by)));
+    }
+
+    @Override
+    public WebElement findElement(By by) {
+        command();
+        return element(xpathOf(by));
+    }
+
+    @Override
+    public String getPageSource() {
+        command();
+        return "<html/>";
+    }
+
+    @Override
+    public void close() {
+        command();
+    }
+
+    @Override
+    public void quit() {
+        command();
+    }
+
+    @Override
+    public Set<String> getWindowHandles() {
+        command();
+        return Collections.singleton("main");
+    }
+
+    @Override
+    public String getWindowHandle() {
+        command();
+        return "main";
+    }
+
+    @Override
+    public TargetLocator switchTo() {
+        return stub(TargetLocator.class);
+    }
+
+    @Override
+    public Navigation navigate() {
+        return stub(Navigation.class);
+    }
+
+    @Override
+    public Options manage() {
+        return stub(Options.class);
+    }
+
+    /**
+     * @return a proxy counting each call as a command and returning itself or the driver where an object is expected
+     */
+    private <T> T stub(final Class<T> type) {
+        return type.cast(java.lang.reflect.Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        Class<?> returnType = method.getReturnType();
+                        if (returnType == WebDriver.class) {
+                            command();
+                            return StubWebDriver.this;
+                        }
+                        if (returnType.isInterface() && returnType.getName().startsWith("org.openqa.selenium")) {
+                            return stub(returnType);
+                        }
+                        command();
+                        if (returnType == boolean.class) {
+                            return false;
+                        }
+                        return null;
+                    }
+                }));
+    }
+
+    @Override
+    public Object executeScript(String script, Object... args) {
+        command();
+        if (script.startsWith("/*actionable*/")) {
+            return args[0] instanceof WebElement ? args[0] : element((String) args[0]);
+        }
+        if (script.startsWith("/*fill-form*/")) {
+            List<Object> results = new ArrayList<>();
+            for (Object field : (List<?>) args[0]) {
+                results.add("ok");
+            }
+            return results;
+        }
+        return null;
+    }
+
+    @Override
+    public Object executeAsyncScript(String script, Object... args) {
+        command();
+        if (script.startsWith("/*quiescent*/")) {
+            // quiet at once, and always the same document
+            return Collections.singletonMap("quiet", true);
+        }
+        return Boolean.TRUE;
+    }
+}
@@ -0,0 +1,61 @@
+package dbcs.bench;
+
+import org.apache.commons.configuration2.*;
+import org.apache.commons.configuration2.ex.*;
+import org.apache.commons.configuration2.io.*;
+
+import java.io.*;
+
+/**
+ * Generates &lt;config&gt; documents shaped like the APEX suites stored in db_auto_testcase.
+ */
+final class SyntheticSuite {
+
+    private SyntheticSuite() {
+    }
+
+    /**
+     * @param testcases  number of &lt;testcase&gt; elements
+     * @param operations number of operations per testcase
+     * @return the document as xml text
+     */
+    static String xml(int testcases, int operations) {
+        StringBuilder sb = new StringBuilder("<config>\n<test-to-run>\n");
+        for (int t = 0; t < testcases; t++) {
+            sb.append("<test>test").append(t).append("</test>\n");
+        }
+        sb.append("</test-to-run>\n<testcases>\n");
+        for (int t = 0; t < testcases; t++) {
+            sb.append("<testcase name=\"test").append(t).append("\" require-vm-state=\"1-0-0-").append(t % 10)
+                    .append("\">\n<operations>\n");
+            for (int o = 0; o < operations; o++) {
+                sb.append(operation(t, o)).append('\n');
+            }
+            sb.append("</operations>\n</testcase>\n");
+        }
+        return sb.append("</testcases>\n</config>\n").toString();
+    }
+
+    private static String operation(int t, int o) {
+        String id = "P" + t + "_ITEM" + o;
+        switch (o % 5) {
+            case 0:
+                return "<operation name=\"Click\" xpath=\"//button[@id='" + id + "']\"/>";
+            case 1:
+                return "<operation name=\"KeyboardInput\" xpath=\"//input[@id='" + id + "']\" value=\"value " + o
+                        + "\"/>";
+            case 2:
+                return "<operation name=\"SelectDropDown\" xpath=\"//select[@id='" + id + "']\" select-index=\"2\"/>";
+            case 3:
+                return "<operation name=\"SelectCheckBox\" xpath=\"//input[@id='" + id + "']\" select=\"true\"/>";
+            default:
+                return "<operation name=\"WaitforAppear\" xpath=\"//div[contains(@class,'" + id + "')]\"/>";
+        }
+    }
+
+    static XMLConfiguration parse(String xml) throws ConfigurationException {
+        XMLConfiguration config = new XMLConfiguration();
+        new FileHandler(config).load(new StringReader(xml));
+        return config;
+    }
+}
@@ -0,0 +1,132 @@
+package dbcs;
+
+import org.apache.commons.configuration2.*;
+import org.openqa.selenium.*;
+import org.openqa.selenium.firefox.*;
+import org.testng.annotations.*;
+
+import java.net.*;
+import java.util.*;
+
+import static org.testng.Assert.*;
+
+/**
+ * Places sessions with {@link HubAllocator} on two {@link StandInServer}s and a hub that is down.
+ */
+public class HubAllocatorTest {
+    private StandInServer first;
+    private StandInServer second;
+    private HubAllocator.Hub down;
+    private HubAllocator.Hub firstHub;
+    private HubAllocator.Hub secondHub;
+
+    @BeforeMethod
+    public void startHubs() throws Exception {
+        first = new StandInServer(new FakePage(new BaseHierarchicalConfiguration(), 2), 0,
+                Collections.<String, Long>emptyMap(), 2);
+        second = new StandInServer(new FakePage(new BaseHierarchicalConfiguration(), 2), 0,
+                Collections.<String, Long>emptyMap(), 2);
+        int closedPort;
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            closedPort = socket.getLocalPort();
+        }
+        down = HubAllocator.newHub("http://localhost:" + closedPort + "/wd/hub", 2);
+        firstHub = HubAllocator.newHub("http://localhost:" + first.start(0) + "/wd/hub", 2);
+        secondHub = HubAllocator.newHub("http://localhost:" + second.start(0) + "/wd/hub", 2);
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void stopHubs() {
+        first.stop();
+        second.stop();
+    }
+
+    @Test
+    public void placesSessionsOnTheLeastLoadedHealthyHub() {
+        HubAllocator allocator = new HubAllocator(Arrays.asList(down, firstHub, secondHub), 30000, 0);
+        long start = System.currentTimeMillis();
+
+        // the hub that is down is tried first, backed off, and the session placed on the next one
+        WebDriver one = allocator.newSession(new FirefoxOptions());
+        assertEquals(down.failures, 1);
+        assertEquals(down.active, 0);
+        assertTrue(down.backoffUntilMillis > start);
+        assertEquals(firstHub.active, 1);
+        assertEquals(first.getSessionCount(), 1);
+
+        WebDriver two = allocator.newSession(new FirefoxOptions());
+        assertEquals(secondHub.active, 1);
+        assertEquals(second.getSessionCount(), 1);
+
+        // quitting gives the slot back, the next session goes there again
+        one.quit();
+        assertEquals(firstHub.active, 0);
+        assertEquals(first.getSessionCount(), 0);
+        WebDriver three = allocator.newSession(new FirefoxOptions());
+        assertEquals(firstHub.active, 1);
+        assertEquals(down.failures, 1, "still backed off");
+
+        two.quit();
+        three.quit();
+        assertEquals(firstHub.active + secondHub.active, 0);
+        assertEquals(firstHub.sessionsCreated, 2);
+        assertEquals(secondHub.sessionsCreated, 1);
+    }
+
+    @Test
+    public void backsOffAHubRefusingSessions() throws Exception {
+        // room for two sessions according to the configuration, but the grid behind it only takes one
+        StandInServer small = new StandInServer(new FakePage(new BaseHierarchicalConfiguration(), 2), 0,
+                Collections.<String, Long>emptyMap(), 1);
+        try {
+            HubAllocator.Hub hub = HubAllocator.newHub("http://localhost:" + small.start(0) + "/wd/hub", 2);
+            HubAllocator allocator = new HubAllocator(Collections.singletonList(hub), 2000, 0);
+            WebDriver one = allocator.newSession(new FirefoxOptions());
+            try {
+                allocator.newSession(new FirefoxOptions());
+                fail("created a session on a full hub");
+            } catch (WebDriverException e) {
+                assertTrue(e.getMessage().startsWith("No selenium hub created a session within 2000 ms"));
+            }
+            assertEquals(hub.failures, 1, "backed off after the first refusal");
+            assertTrue(hub.backoffUntilMillis > System.currentTimeMillis());
+            assertEquals(hub.active, 1);
+            one.quit();
+            assertEquals(hub.active, 0);
+        } finally {
+            small.stop();
+        }
+    }
+
+    @Test(timeOut = 10000)
+    public void failsAtOnceOnRefusedCapabilities() {
+        HubAllocator allocator = new HubAllocator(Arrays.asList(firstHub, secondHub), 30000, 0);
+        FirefoxOptions invalid = new FirefoxOptions();
+        invalid.setCapability("pageLoadStrategy", "fast");
+        try {
+            allocator.newSession(invalid);
+            fail("created a session with an invalid page load strategy");
+        } catch (InvalidArgumentException e) {
+            // expected
+        }
+        MutableCapabilities chrome = new MutableCapabilities();
+        chrome.setCapability("browserName", "chrome");
+        try {
+            allocator.newSession(chrome);
+            fail("created a chrome session on firefox hubs");
+        } catch (SessionNotCreatedException e) {
+            assertTrue(HubAllocator.isCapabilityError(e));
+        }
+        assertEquals(firstHub.failures + secondHub.failures, 0);
+        assertEquals(firstHub.active + secondHub.active, 0);
+        assertEquals(firstHub.backoffUntilMillis + secondHub.backoffUntilMillis, 0);
+    }
+
+    @Test
+    public void fullHubIsNoCapabilityError() {
+        assertFalse(HubAllocator.isCapabilityError(new SessionNotCreatedException("All 2 sessions are in use")));
+        assertFalse(HubAllocator.isCapabilityError(new WebDriverException("Connection refused")));
+        assertTrue(HubAllocator.isCapabilityError(new SessionNotCreatedException(
+                "Error forwarding the new session cannot find : Capabilities {browserName: chrome}")));
+    }
+}
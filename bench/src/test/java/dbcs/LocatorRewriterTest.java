@@ -0,0 +1,91 @@
+package dbcs;
+
+import org.testng.annotations.*;
+
+import static org.testng.Assert.*;
+
+/**
+ * Rewrites of {@link LocatorRewriter}, and the xpaths it keeps.
+ */
+public class LocatorRewriterTest {
+
+    @DataProvider
+    public Object[][] rewritten() {
+        return new Object[][]{
+                {"//div[@id='R1']//input[@name='P1_NAME']", "div#R1 input[name=\"P1_NAME\"]"},
+                {"/html/body/div/span", "html > body > div > span"},
+                {"//a[@href and @title='x']", "a[href][title=\"x\"]"},
+                {"//a[starts-with(@href, 'http')]", "a[href^=\"http\"]"},
+                {"//a[contains(@title, 'Edit')]", "a[title*=\"Edit\"]"},
+                // positions, as the first predicate only
+                {"/html/body/div[2]/span", "html > body > div:nth-of-type(2) > span"},
+                {"//li[ 2 ]", "li:nth-of-type(2)"},
+                {"//div[2][@id='a']", "div:nth-of-type(2)#a"},
+                // *, a position of any element is nth-child
+                {"//*", "*"},
+                {"//*[@id='P1_X']", "#P1_X"},
+                {"//*[3]", ":nth-child(3)"},
+                {"//*[1][@id='a']", ":nth-child(1)#a"},
+                // the class token idiom
+                {"//div[contains(concat(' ', normalize-space(@class), ' '), ' t-Region ')]", "div.t-Region"},
+                // values CSS would compare ignoring case are flagged case-sensitive
+                {"//input[@type='text']", "input[type=\"text\" s]"},
+                {"//input[@type='TEXT']", "input[type=\"TEXT\" s]"},
+                {"//a[contains(@rel, 'no')]", "a[rel*=\"no\" s]"},
+                // quoting
+                {"//a[@title=\"it's\"]", "a[title=\"it's\"]"},
+                {"//a[@title='say \"hi\"']", "a[title=\"say \\\"hi\\\"\"]"},
+                {"//a[@title='back\\slash']", "a[title=\"back\\\\slash\"]"},
+                // escaped ids
+                {"//div[@id='1abc']", "div#\\31 abc"},
+                {"//div[@id='-1a']", "div#-\\31 a"},
+                {"//div[@id='a.b:c']", "div#a\\.b\\:c"},
+                {"//div[@id='-']", "div#\\-"},
+                {"//div[@id='']", "div[id=\"\"]"},
+        };
+    }
+
+    @Test(dataProvider = "rewritten")
+    public void rewritesToCss(String xpath, String css) {
+        assertEquals(LocatorRewriter.toCss(xpath), css);
+        assertNull(LocatorRewriter.whyNotRewritten(xpath));
+    }
+
+    @DataProvider
+    public Object[][] keptAsXpath() {
+        return new Object[][]{
+                // positions after a predicate count the filtered elements only
+                {"//div[@id='a'][2]", "position after another predicate"},
+                {"//*[@id='a'][1]", "position after another predicate"},
+                {"//a[last()]", "unsupported predicate 'last()]'"},
+                {"//a[position()=1]", "unsupported predicate 'position()=1]'"},
+                // variants of the class token idiom
+                {"//div[contains(concat(' ', normalize-space(@class), ' '), ' a b ')]",
+                        "unsupported class token ' a b '"},
+                {"//div[contains(concat(' ', normalize-space(@class), ' '), 'a')]", "unsupported class token 'a'"},
+                {"//div[contains(concat(' ', normalize-space(@title), ' '), ' a ')]", "unsupported concat"},
+                {"//div[contains(concat(' ', @class, ' '), ' a ')]", "unsupported concat"},
+                // quoting
+                {"//a[@title='unterminated]", "unterminated string"},
+                {"//a[@data-x=5]", "unsupported value '5]'"},
+                {"//a[contains(@href, '')]", "empty *= value"},
+                // steps and paths
+                {"div[@id='a']", "relative path"},
+                {"/body/div", "absolute path not starting at /html"},
+                {"//a/..", "unsupported element name .."},
+                {"//svg:rect", "unsupported step ':rect'"},
+                {"//following-sibling::a", "unsupported step '::a'"},
+                {"//a | //b", "unsupported '| //b'"},
+                {"//a[text()='x']", "unsupported predicate 'text()='x']'"},
+                {"//a[@id!='x']", "unsupported comparison '!='x']'"},
+                {"//a[@xlink:href]", "unsupported attribute name xlink"},
+                {"//a[@id='x' or @id='y']", "expected ] at 'or @id='y']'"},
+        };
+    }
+
+    @Test(dataProvider = "keptAsXpath")
+    public void keepsXpath(String xpath, String reason) {
+        assertNull(LocatorRewriter.toCss(xpath));
+        assertEquals(LocatorRewriter.whyNotRewritten(xpath), reason);
+    }
+}
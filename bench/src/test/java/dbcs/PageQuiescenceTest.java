@@ -0,0 +1,68 @@
+package dbcs;
+
+import org.apache.commons.configuration2.*;
+import org.openqa.selenium.*;
+import org.openqa.selenium.firefox.*;
+import org.openqa.selenium.remote.*;
+import org.testng.annotations.*;
+
+import java.net.*;
+import java.util.*;
+
+import static org.testng.Assert.*;
+
+/**
+ * Keeping and dropping {@link LocatorCache} handles while waiting on a {@link StandInServer} page.
+ */
+public class PageQuiescenceTest {
+    private StandInServer server;
+    private WebDriver driver;
+
+    @BeforeMethod
+    public void startSession() throws Exception {
+        server = new StandInServer(new FakePage(new BaseHierarchicalConfiguration(), 2), 0,
+                Collections.<String, Long>emptyMap(), 1);
+        driver = new RemoteWebDriver(new URL("http://localhost:" + server.start(0) + "/wd/hub"),
+                new FirefoxOptions());
+        driver.get("http://localhost/app");
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void stopSession() {
+        driver.quit();
+        server.stop();
+    }
+
+    @Test
+    public void dropsHandlesOnlyOnANewDocument() {
+        PageQuiescence quiescence = new PageQuiescence(5000);
+        LocatorCache cache = new LocatorCache();
+
+        // the first check does not know the page yet
+        cache.put("//a", new RemoteWebElement());
+        assertTrue(quiescence.await(driver, cache));
+        assertNull(cache.get("//a"));
+
+        // a step that updated the page in place
+        cache.put("//a", new RemoteWebElement());
+        assertTrue(quiescence.await(driver, cache));
+        assertNotNull(cache.get("//a"));
+
+        driver.navigate().refresh();
+        assertTrue(quiescence.await(driver, cache));
+        assertNull(cache.get("//a"));
+    }
+
+    @Test
+    public void checksTheDocumentWithoutWaiting() {
+        LocatorCache cache = new LocatorCache();
+        PageQuiescence.checkDocument(driver, cache);
+        cache.put("//a", new RemoteWebElement());
+        PageQuiescence.checkDocument(driver, cache);
+        assertNotNull(cache.get("//a"));
+
+        driver.get("http://localhost/app?page=2");
+        PageQuiescence.checkDocument(driver, cache);
+        assertNull(cache.get("//a"));
+    }
+}
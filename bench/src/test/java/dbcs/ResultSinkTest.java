@@ -0,0 +1,89 @@
+package dbcs;
+
+import org.testng.annotations.*;
+
+import java.sql.*;
+import java.util.*;
+
+import static org.testng.Assert.*;
+
+/**
+ * Writes results through {@link ResultSink} into an H2 copy of the tables of result_tables.sql.
+ */
+public class ResultSinkTest {
+    private static int databases;
+
+    private String url;
+    private Connection conn;
+    private ConnectionPool pool;
+
+    @BeforeMethod
+    public void createTables() throws Exception {
+        url = "jdbc:h2:mem:results" + databases++ + ";MODE=Oracle";
+        conn = DriverManager.getConnection(url);
+        try (Statement stmt = conn.createStatement()) {
+            // testname shorter than in result_tables.sql, to have rows the database rejects
+            stmt.execute("create table db_auto_testcase_result (run_id varchar2(64) not null,"
+                    + " testname varchar2(8) not null, status varchar2(10) not null, started_at timestamp not null,"
+                    + " duration_ms number(12) not null, message varchar2(4000))");
+            stmt.execute("create table db_auto_operation_result (run_id varchar2(64) not null,"
+                    + " testname varchar2(8) not null, test_started_at timestamp not null,"
+                    + " step_index number(6) not null, operation varchar2(64) not null, xpath varchar2(4000),"
+                    + " status varchar2(10) not null, started_at timestamp not null, duration_ms number(12) not null,"
+                    + " message varchar2(4000))");
+        }
+        pool = new ConnectionPool(url, new Properties(), 2, 5000);
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void dropTables() throws Exception {
+        pool.close();
+        conn.close();
+    }
+
+    private List<String> writtenNames() throws SQLException {
+        List<String> names = new ArrayList<>();
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("select testname from db_auto_testcase_result order by testname")) {
+            while (rs.next()) {
+                names.add(rs.getString(1));
+            }
+        }
+        return names;
+    }
+
+    @Test(timeOut = 10000)
+    public void writesWithoutAFlushInterval() throws Exception {
+        ResultSink sink = new ResultSink(pool, 100, 0);
+        sink.testEnded("vm1", System.currentTimeMillis(), 10, ResultSink.Status.PASSED, null);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (writtenNames().isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals(writtenNames(), Collections.singletonList("vm1"));
+        sink.shutdown();
+    }
+
+    @Test
+    public void rejectedRowDoesNotLoseTheBatch() throws Exception {
+        ResultSink sink = new ResultSink(pool, 100, 60000);
+        long now = System.currentTimeMillis();
+        sink.testEnded("vm1", now, 10, ResultSink.Status.PASSED, null);
+        sink.testEnded("much too long", now, 10, ResultSink.Status.PASSED, null);
+        sink.testEnded("vm2", now, 10, ResultSink.Status.FAILED, "failed");
+        sink.shutdown();
+        assertEquals(writtenNames(), Arrays.asList("vm1", "vm2"));
+    }
+
+    @Test
+    public void truncatesByUtf8Bytes() {
+        assertNull(ResultSink.truncate(null, 4));
+        assertEquals(ResultSink.truncate("abcdef", 4), "abcd");
+        assertEquals(ResultSink.truncate("abéé", 4), "abé");
+        assertEquals(ResultSink.truncate("a中中", 6), "a中");
+        // a surrogate pair is 4 bytes and never cut in half
+        assertEquals(ResultSink.truncate("ab😀c", 5), "ab");
+        assertEquals(ResultSink.truncate("ab😀c", 6), "ab😀");
+        assertEquals(ResultSink.truncate("abc", 4), "abc");
+    }
+}
@@ -0,0 +1,180 @@
+package dbcs;
+
+import org.apache.commons.configuration2.*;
+import org.testng.annotations.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.sql.*;
+import java.util.*;
+
+import static org.testng.Assert.*;
+
+/**
+ * Loads an H2 copy of db_auto_testcase through {@link TestcaseLoader} and {@link SnapshotCache}.
+ */
+public class TestcaseLoaderTest {
+    private static int databases;
+
+    private Connection conn;
+    private File dir;
+
+    @BeforeMethod
+    public void createTable() throws Exception {
+        conn = DriverManager.getConnection("jdbc:h2:mem:testcases" + databases++ + ";MODE=Oracle");
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("create table db_auto_testcase (id number primary key, product varchar2(20),"
+                    + " version varchar2(20), testname varchar2(200), step clob)");
+        }
+        insert(1, "head", "<config><webdriver><name>firefox</name></webdriver>");
+        insert(2, "test_to_run", selection("vm1"));
+        insert(3, null, "<login><url>http://host/login</url></login>");
+        insert(4, "test", "<testcases>"); // named after the markup of the selection
+        insert(10, "vm1", testcase("vm1", 1));
+        insert(11, "vm10", testcase("vm10", 1));
+        insert(12, "vm", testcase("vm", 1));
+        insert(999999, "tail", "</testcases></config>");
+        dir = Files.createTempDirectory("snapshot").toFile();
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void dropTable() throws Exception {
+        conn.close();
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    private void insert(long id, String testname, String step) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("insert into db_auto_testcase"
+                + " (id, product, version, testname, step) values (?, 'apex', '5.2', ?, ?)")) {
+            stmt.setLong(1, id);
+            stmt.setString(2, testname);
+            stmt.setString(3, step);
+            stmt.executeUpdate();
+        }
+    }
+
+    private void update(long id, String step) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("update db_auto_testcase set step=? where id=?")) {
+            stmt.setString(1, step);
+            stmt.setLong(2, id);
+            stmt.executeUpdate();
+        }
+    }
+
+    private static String selection(String... names) {
+        StringBuilder sb = new StringBuilder("<test-to-run>");
+        for (String name : names) {
+            sb.append("<test>").append(name).append("</test>");
+        }
+        return sb.append("</test-to-run>").toString();
+    }
+
+    private static String testcase(String name, int selectIndex) {
+        return "<testcase name=\"" + name + "\"><operations><operation name=\"SelectDropDown\""
+                + " xpath=\"//select[@id='s']\" select-index=\"" + selectIndex + "\"/></operations></testcase>";
+    }
+
+    private static List<Object> testcaseNames(XMLConfiguration config) {
+        return config.getList("testcases.testcase[@name]");
+    }
+
+    @Test
+    public void loadsOnlyTheSelectedTestcases() throws Exception {
+        TestcaseLoader loader = new TestcaseLoader(conn);
+        XMLConfiguration config = loader.load(loader.fetchSelection(), null);
+        // not vm, which the selection contains as part of vm1
+        assertEquals(testcaseNames(config), Collections.<Object>singletonList("vm1"));
+        assertEquals(config.getString("webdriver.name"), "firefox");
+        assertEquals(config.getString("login.url"), "http://host/login");
+    }
+
+    @Test
+    public void selectsExactNamesAndMarkupRows() {
+        List<String> rows = Arrays.asList("vm", "vm1", "vm10", "test", "run", "other");
+        assertEquals(TestcaseLoader.selectedNames(selection("vm1"), rows),
+                Arrays.asList("test_to_run", "vm1", "test", "run"));
+        assertEquals(TestcaseLoader.selectedNames(null, rows), Collections.singletonList("test_to_run"));
+    }
+
+    @Test
+    public void splitsLongNameLists() throws Exception {
+        String[] names = new String[2500];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = "missing" + i;
+        }
+        names[1200] = "vm10";
+        names[2400] = "vm1";
+        update(2, selection(names));
+        TestcaseLoader loader = new TestcaseLoader(conn);
+        String selection = loader.fetchSelection();
+        assertNotNull(loader.fingerprint(selection));
+        assertEquals(testcaseNames(loader.load(selection, null)), Arrays.<Object>asList("vm1", "vm10"));
+    }
+
+    @Test
+    public void snapshotKeepsTheLoadedDocument() throws Exception {
+        TestcaseLoader loader = new TestcaseLoader(conn);
+        String selection = loader.fetchSelection();
+        String fingerprint = loader.fingerprint(selection);
+        SnapshotCache snapshot = new SnapshotCache(new File(dir, "snapshot.gz"));
+        assertNull(snapshot.readFingerprint());
+
+        XMLConfiguration loaded;
+        try (SnapshotCache.SnapshotWriter copy = snapshot.openWriter(fingerprint)) {
+            loaded = loader.load(selection, copy);
+            copy.commit();
+        }
+        assertEquals(snapshot.readFingerprint(), fingerprint);
+        assertTrue(snapshot.isFresh(60000));
+        XMLConfiguration cached = snapshot.load();
+        assertEquals(testcaseNames(cached), testcaseNames(loaded));
+        assertEquals(cached.getString("testcases.testcase.operations.operation[@select-index]"), "1");
+    }
+
+    @Test
+    public void uncommittedSnapshotIsDiscarded() throws Exception {
+        TestcaseLoader loader = new TestcaseLoader(conn);
+        String selection = loader.fetchSelection();
+        SnapshotCache snapshot = new SnapshotCache(new File(dir, "snapshot.gz"));
+        try (SnapshotCache.SnapshotWriter copy = snapshot.openWriter(loader.fingerprint(selection))) {
+            loader.load(selection, copy);
+        }
+        assertNull(snapshot.readFingerprint());
+    }
+
+    @Test
+    public void fingerprintChangesWithAnEditOfTheSameLength() throws Exception {
+        TestcaseLoader loader = new TestcaseLoader(conn);
+        String selection = loader.fetchSelection();
+        String before = loader.fingerprint(selection);
+        assertNotNull(before);
+        assertEquals(loader.fingerprint(selection), before);
+
+        update(10, testcase("vm1", 2));
+        assertNotEquals(loader.fingerprint(selection), before);
+    }
+
+    @Test
+    public void fingerprintIgnoresRowsNotSelected() throws Exception {
+        TestcaseLoader loader = new TestcaseLoader(conn);
+        String selection = loader.fetchSelection();
+        String before = loader.fingerprint(selection);
+
+        update(11, testcase("vm10", 2));
+        assertEquals(loader.fingerprint(selection), before);
+    }
+
+    @Test
+    public void fingerprintChangesWithTheSelection() throws Exception {
+        TestcaseLoader loader = new TestcaseLoader(conn);
+        String before = loader.fingerprint(loader.fetchSelection());
+
+        update(2, selection("vm1", "vm10"));
+        String selection = loader.fetchSelection();
+        assertNotEquals(loader.fingerprint(selection), before);
+        assertEquals(testcaseNames(loader.load(selection, null)), Arrays.<Object>asList("vm1", "vm10"));
+    }
+}
@@ -0,0 +1,111 @@
+package dbcs;
+
+import org.openqa.selenium.*;
+import org.openqa.selenium.support.ui.*;
+
+import java.time.Duration;
+
+/**
+ * Waits until an element can receive user input, checking all conditions in a single script per poll.<br>
+ * <p>
+ * The selenium ExpectedConditions each cost at least one round trip per poll (findElement, isDisplayed, isEnabled)
+ * and presence, visibility and clickability used to be awaited one after another. Here the browser checks that the
+ * element is present, rendered, enabled and not covered by another element (e.g. a modal overlay) in one
+ * executeScript call and hands back the element itself, ready to act on.
+ * </p>
+ */
+public final class Actionability {
+    private static final long POLL_MILLIS = 200;
+
+    // arguments are a cached element or the xpath, and the CSS rewrite of the xpath or null
+    // returns the element when actionable, otherwise a short reason string
+    private static final String ACTIONABLE_SCRIPT =
+            "/*actionable*/"
+            + "var el = typeof arguments[0] !== 'string' ? arguments[0]"
+            + "    : arguments[1] ? document.querySelector(arguments[1])"
+            + "    : document.evaluate(arguments[0], document, null, XPathResult.FIRST_ORDERED_NODE_TYPE, null)"
+            + "        .singleNodeValue;"
+            + "if (!el) return 'absent';"
+            + "var style = window.getComputedStyle(el);"
+            + "if (!el.getClientRects().length || style.visibility === 'hidden' || style.display === 'none'"
+            + "    || style.opacity === '0') return 'hidden';"
+            + "if (el.disabled || el.getAttribute('aria-disabled') === 'true') return 'disabled';"
+            + "var r = el.getBoundingClientRect();"
+            + "if (r.top < 0 || r.left < 0 || r.bottom > window.innerHeight || r.right > window.innerWidth) {"
+            + "  el.scrollIntoView({block: 'center', inline: 'center'});"
+            + "  r = el.getBoundingClientRect();"
+            + "}"
+            + "var hit = document.elementFromPoint(r.left + r.width / 2, r.top + r.height / 2);"
+            + "if (hit && hit !== el && !el.contains(hit)) return 'obscured by ' + hit.tagName"
+            + "    + (hit.id ? '#' + hit.id : '') + (hit.className ? '.' + hit.className : '');"
+            + "return el;";
+
+    private Actionability() {
+    }
+
+    /**
+     * Block until the element specified by xpath is present, visible, enabled and unobscured.
+     *
+     * @param driver         the driver to poll
+     * @param xpath          the element to wait for
+     * @param timeoutSeconds give up after this long
+     * @return the element, ready to be clicked or typed into
+     * @throws TimeoutException with the last reason the element was not actionable
+     */
+    public static WebElement waitFor(WebDriver driver, String xpath, long timeoutSeconds) {
+        return waitFor(driver, xpath, timeoutSeconds, new LocatorCache());
+    }
+
+    /**
+     * Block until the element specified by xpath is present, visible, enabled and unobscured.<br>
+     * A handle found in the cache is checked directly without evaluating the xpath again. A stale handle is dropped
+     * and the element looked up again. The actionable element is put into the cache.
+     *
+     * @param driver         the driver to poll
+     * @param xpath          the element to wait for
+     * @param timeoutSeconds give up after this long
+     * @param cache          element handles of the current page
+     * @return the element, ready to be clicked or typed into
+     * @throws TimeoutException with the last reason the element was not actionable
+     */
+    public static WebElement waitFor(WebDriver driver, final String xpath, long timeoutSeconds,
+            final LocatorCache cache) {
+        final String[] reason = {"absent"};
+        final String css = LocatorRewriter.cssFor(xpath);
+        long waitStart = RunMetrics.waitStarted();
+        try {
+            WebElement element = new WebDriverWait(driver, timeoutSeconds)
+                    .pollingEvery(Duration.ofMillis(POLL_MILLIS))
+                    .until(new ExpectedCondition<WebElement>() {
+                        @Override
+                        public WebElement apply(WebDriver d) {
+                            WebElement cached = cache.get(xpath);
+                            Object result;
+                            try {
+                                result = ((JavascriptExecutor) d).executeScript(ACTIONABLE_SCRIPT,
+                                        cached != null ? cached : xpath, css);
+                            } catch (StaleElementReferenceException e) {
+                                cache.invalidate(xpath);
+                                reason[0] = "stale";
+                                return null;
+                            }
+                            if (result instanceof WebElement) {
+                                return (WebElement) result;
+                            }
+                            reason[0] = String.valueOf(result);
+                            if (cached != null) {
+                                // the cached node may have been detached and replaced, look it up again next time
+                                cache.invalidate(xpath);
+                            }
+                            return null;
+                        }
+                    });
+            cache.put(xpath, element);
+            return element;
+        } catch (TimeoutException e) {
+            throw new TimeoutException("Element not actionable (" + reason[0] + "): " + xpath, e);
+        } finally {
+            RunMetrics.waitEnded(waitStart);
+        }
+    }
+}
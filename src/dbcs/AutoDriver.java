@@ -7,14 +7,16 @@ import org.apache.commons.configuration2.tree.*;
 import org.apache.commons.exec.*;
 import org.openqa.selenium.*;
 import org.openqa.selenium.firefox.*;
+import org.openqa.selenium.json.*;
 import org.openqa.selenium.remote.*;
 import org.openqa.selenium.support.ui.*;
 
-import java.lang.reflect.*;
 import java.net.*;
 import java.text.*;
+import java.time.Duration;
 import java.util.*;
 import java.util.Date;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.*;
 
 /**
@@ -30,8 +32,34 @@ public class AutoDriver {
      */
     private static final int WAIT_TIME = 20;
 
+    /**
+     * Default deadline of WaitforAppear in seconds, used when &lt;wait-appear-timeout&gt; is not configured
+     */
+    private static final int DEFAULT_WAIT_APPEAR_TIMEOUT = WAIT_TIME * 3;
+    private static final long APPEAR_POLL_MILLIS = 200;
+
+    /**
+     * Script timeout set once per session. Async scripts wait in the browser for at most {@link #MAX_SCRIPT_MILLIS}
+     * per call, so they never need to change it, which would cost another round trip.
+     */
+    private static final long SCRIPT_TIMEOUT_MILLIS = 30000;
+    static final long MAX_SCRIPT_MILLIS = SCRIPT_TIMEOUT_MILLIS - 5000;
+
     private WebDriver driver;
     private String WindowHandler; 
+    /**
+     * Page to resume at from the last passed Checkpoint, null if none was passed
+     */
+    private String checkpointUrl;
+    /**
+     * Element handles resolved on the current page, cleared whenever the document or the frame changes
+     */
+    private final LocatorCache locatorCache = new LocatorCache();
+    /**
+     * Waits for the page to settle after page changing steps, null when disabled by &lt;wait-for-quiet-page&gt;
+     */
+    private PageQuiescence quiescence = new PageQuiescence(WAIT_TIME * 1000L);
+    private int waitAppearTimeout = DEFAULT_WAIT_APPEAR_TIMEOUT;
 
     /**
      * Provide access to other classes if they want to perform any actions which are not defined in AutoDriver
@@ -42,6 +70,82 @@ public class AutoDriver {
         return driver;
     }
 
+    /**
+     * @return element handles resolved on the current page
+     */
+    public LocatorCache getLocatorCache() {
+        return locatorCache;
+    }
+
+    /**
+     * Open a url in the browser, use instead of getDriver().get() so that cached element handles are dropped.
+     *
+     * @param url the url to open
+     */
+    public void open(String url) {
+        locatorCache.clear();
+        this.driver.get(url);
+        awaitQuietPage();
+    }
+
+    /**
+     * Wait until the current page has finished loading and its AJAX requests are done, see {@link PageQuiescence}.
+     * The cached element handles are dropped if the page is a new document.
+     *
+     * @return false if the page did not settle in time, or waiting is disabled
+     */
+    public boolean awaitQuietPage() {
+        if (quiescence == null) {
+            PageQuiescence.checkDocument(driver, locatorCache);
+            return false;
+        }
+        return quiescence.await(driver, locatorCache);
+    }
+
+    /**
+     * Return the browser to a clean state for the next testcase: close popup windows, clear the web storage of the
+     * current origin and all cookies, then navigate to about:blank.
+     */
+    public void reset() {
+        Set<String> handles = driver.getWindowHandles();
+        if (handles.size() > 1) {
+            String main = WindowHandler != null && handles.contains(WindowHandler) ? WindowHandler
+                    : handles.iterator().next();
+            for (String handle : handles) {
+                if (!handle.equals(main)) {
+                    driver.switchTo().window(handle);
+                    driver.close();
+                }
+            }
+            driver.switchTo().window(main);
+        }
+        driver.switchTo().defaultContent();
+        ((JavascriptExecutor) driver).executeScript("/*reset-storage*/"
+                + "try { window.localStorage.clear(); window.sessionStorage.clear(); } catch (e) {}");
+        driver.manage().deleteAllCookies();
+        WindowHandler = null;
+        checkpointUrl = null;
+        open("about:blank");
+    }
+
+    /**
+     * End the browser session and its driver process.
+     */
+    public void quit() {
+        locatorCache.clear();
+        driver.quit();
+    }
+
+    /**
+     * Constructor, wraps an already created WebDriver, e.g. a stub driver in benchmarks.
+     *
+     * @param driver the driver to perform operations on
+     */
+    public AutoDriver(WebDriver driver) {
+        this.driver = driver;
+        this.driver.manage().timeouts().setScriptTimeout(SCRIPT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
     /**
      * Constructor, creates a new Remote/Local WebDriver instance based on param.
      *
@@ -66,48 +170,110 @@ public class AutoDriver {
 		        }
                 dc.setCapability(specNames.get(i), value);
             }
-
-            try {
-                driver = new RemoteWebDriver(new URL("http://slc04lwc.us.oracle.com:4444/wd/hub"), dc);
-                } catch (MalformedURLException e) {
-                e.printStackTrace();
+            Capabilities capabilities = dc;
+            ResourceBlocker blocker = ResourceBlocker.get();
+            if (blocker != null) {
+                Object specOptions = dc.getCapability(FirefoxOptions.FIREFOX_OPTIONS);
+                if (specOptions instanceof String) {
+                    // a spec value is a string, Firefox options are given as a JSON object
+                    Map<String, Object> options = new Json().toType((String) specOptions, Json.MAP_TYPE);
+                    dc.setCapability(FirefoxOptions.FIREFOX_OPTIONS, options);
+                }
+                // adds the preferences and proxy to the Firefox options of the specs rather than replacing them
+                capabilities = blocker.configure(new FirefoxOptions(dc));
             }
+
+            driver = HubAllocator.get().newSession(capabilities);
         } else {
-            this.driver = new FirefoxDriver();
+            FirefoxOptions options = new FirefoxOptions().setHeadless(Boolean.getBoolean("dbcs.headless"));
+            ResourceBlocker blocker = ResourceBlocker.get();
+            this.driver = new LocalFirefoxDriver(blocker == null ? options : blocker.configure(options));
             this.driver.manage().window().maximize();
         }
+        this.driver.manage().timeouts().setScriptTimeout(SCRIPT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        quiescence = ConfigManager.getBoolean("wait-for-quiet-page", true)
+                ? new PageQuiescence(ConfigManager.getInt("quiet-page-timeout", WAIT_TIME) * 1000L) : null;
+        waitAppearTimeout = ConfigManager.getInt("wait-appear-timeout", DEFAULT_WAIT_APPEAR_TIMEOUT);
 
 //        Might need global wait for element in the future
 //        this.driver.manage().timeouts().implicitlyWait(500, TimeUnit.MILLISECONDS);
     }
 
     /**
-     * Dispatch the operation execution to more specific methods using reflection.
-     * The method names are in the form executeXXX, where "XXX" is the operation name specified in config file.
+     * A local Firefox tracing its commands if enabled.
+     */
+    private static class LocalFirefoxDriver extends FirefoxDriver {
+        LocalFirefoxDriver(FirefoxOptions options) {
+            super(options);
+            setCommandExecutor(TracingCommandExecutor.wrap(getCommandExecutor()));
+        }
+    }
+
+    /**
+     * @return whether workers should run on remote hubs, see {@link HubAllocator}, rather than a local Firefox
+     */
+    static boolean isRemote() {
+        return System.getProperty("dbcs.hub") != null
+                || !ConfigManager.getConfigsByName("webdriver").configurationsAt("hubs.hub").isEmpty()
+                || ConfigManager.getConfigsByName("webdriver").getBoolean("remote", false);
+    }
+
+    /**
+     * Compile a single operation node and execute it.<br>
+     * Prefer compiling the whole testcase with {@link PlanCompiler} up front and calling {@link #executeStep(Step)},
+     * which avoids re-reading the config tree on every step.
      *
      * @param operation The xml node describing an operation
      *                  This node must has attribute "name"
      */
-    public void executeOperation(HierarchicalConfiguration<ImmutableNode> operation) throws InvocationTargetException{
+    public void executeOperation(HierarchicalConfiguration<ImmutableNode> operation) {
+        Step step;
         try {
-            Method exeOp = this.getClass().getDeclaredMethod("execute" + operation.getString("[@name]"),
-                    HierarchicalConfiguration.class);
-            exeOp.setAccessible(true);
-            exeOp.invoke(this, operation);
-        } catch (NoSuchMethodException nme) {
-            System.out.println("[Error] Invalid operation type: \"" + operation.getString(
-                    "[@name]") + "\" specified in config xml");
-            System.out.println(nme.getMessage());
-            System.exit(0);
-        } catch (IllegalAccessException e) {
-            System.err.println("[Fatal] This exception branch should never be reached!");
-            e.printStackTrace();
+            step = PlanCompiler.compileStep("operation", operation, 0, 0);
+        } catch (IllegalArgumentException e) {
+            System.out.println("[Error] " + e.getMessage());
             System.exit(0);
-        } catch (InvocationTargetException e) {
-            System.err.println("[Fatal] In executing operation " + operation.getString("[@name]"));
-            e.printStackTrace();
-            throw e;
+            return;
         }
+        executeStep(step);
+    }
+
+    /**
+     * Dispatch a compiled step to the handler bound to its operation type.
+     *
+     * @param step the compiled step
+     */
+    public void executeStep(Step step) {
+        EventLog.setStep(step.index);
+        RunMetrics.stepStarted();
+        CommandTrace.stepStarted(step);
+        long start = System.nanoTime();
+        try {
+            step.type.execute(this, step);
+            if (step.type.changesPage()) {
+                awaitQuietPage();
+            }
+        } finally {
+            RunMetrics.stepEnded(step, System.nanoTime() - start);
+            CommandTrace.stepEnded(step);
+        }
+    }
+
+    /**
+     * Remember the page a testcase can restart from, the url attribute of the step or else the current page.
+     *
+     * @param step a Checkpoint step
+     */
+    void executeCheckpoint(Step step) {
+        checkpointUrl = step.value != null ? step.value : driver.getCurrentUrl();
+        EventLog.info("Checkpoint", checkpointUrl);
+    }
+
+    /**
+     * @return the page to resume at from the last passed Checkpoint, null if none was passed since the last reset
+     */
+    public String getCheckpointUrl() {
+        return checkpointUrl;
     }
 
 
@@ -115,27 +281,25 @@ public class AutoDriver {
      * Simulate a keyboard action to an input box
      * The VM name is handled separately since it need to be generated based on current time info
      *
-     * @param operation the same object passed from executeOperation
-     *                  must have attribute "value"
+     * @param step must have attribute "value"
      */
-    private void executeKeyboardInput(HierarchicalConfiguration<ImmutableNode> operation) {
-        String inputString = operation.getString("[@value]");
-        assert inputString != null;
-        System.out.println("KeyboardInput:"+inputString);
-        if (operation.getString("[@dynamic-time-stamp]") != null) {
+    void executeKeyboardInput(Step step) {
+        String inputString = step.value;
+        EventLog.info("KeyboardInput", inputString);
+        if (step.dynamicTimeStamp) {
             inputString = inputString + new SimpleDateFormat("MM-dd-yyyy-HH-mm-ss").format(new Date());
         }
-	if (operation.getString("[@relative-path]") != null) {
-	    inputString = ConfigManager.getBasePath() + inputString;
-	}
-
-        WebDriverWait wait = new WebDriverWait(this.driver, WAIT_TIME);
-        WebElement inputBox = wait.until(
-                ExpectedConditions.elementToBeClickable(By.xpath(operation.getString("[@xpath]"))));
-        inputBox.click() ;
+
+        WebElement inputBox = Actionability.waitFor(this.driver, step.xpath, WAIT_TIME, locatorCache);
+        try {
+            inputBox.click() ;
+        } catch (StaleElementReferenceException e) {
+            locatorCache.invalidate(step.xpath);
+            inputBox = Actionability.waitFor(this.driver, step.xpath, WAIT_TIME, locatorCache);
+            inputBox.click() ;
+        }
         inputBox.clear();
         inputBox.sendKeys(inputString);
-        System.out.println("Double Check:"+inputBox.getAttribute("class")) ;
         //while (!inputBox.getText().equals(inputString)) {
             //System.out.println(inputBox.getText()) ;
         	//inputBox.click();
@@ -148,92 +312,96 @@ public class AutoDriver {
     /**
      * Simulate a click action on an element specified in the xpath attribute of xml node
      *
-     * @param operation the same object passed from executeOperation
-     *                  must have attribute "xpath"
+     * @param step must have attribute "xpath"
      */
-    private void executeClick(HierarchicalConfiguration<ImmutableNode> operation) {
-        executeClick(operation.getString("[@xpath]"));
+    void executeClick(Step step) {
+        executeClick(step.xpath);
     }
 
     private void executeClick(String xpath) {
-    	System.out.println("Click:"+xpath);
-        assert xpath != null;
-        WebDriverWait wait = new WebDriverWait(this.driver, WAIT_TIME);
-        By byXpath = By.xpath(xpath);
-        wait.until(ExpectedConditions.presenceOfElementLocated(byXpath));
-        wait.until(ExpectedConditions.visibilityOfElementLocated(byXpath));
-        wait.until(ExpectedConditions.elementToBeClickable(byXpath));
-        for(int i=1; i<4; i++){
-             try {
-                this.driver.findElement(byXpath).click();
-                break ;
-            }catch (Exception e) {
-            	System.out.println(e.getMessage());
-        	    wait.until(ExpectedConditions.elementToBeClickable(byXpath));
-            }
+        EventLog.info("Click", xpath);
+        WebElement element = Actionability.waitFor(this.driver, xpath, WAIT_TIME, locatorCache);
+        try {
+            element.click();
+        } catch (WebDriverException e) {
+            // retried by StepRecovery, which looks the element up again
+            locatorCache.invalidate(xpath);
+            throw e;
         }
     }
 
     /**
      * Simulate a dropdown select action on an element specified in the xpath attribute of xml node.
      *
-     * @param operation the same object passed from executeOperation
-     *                  must have attribute "xpath" and "select-index"
+     * @param step must have attribute "xpath" and "select-index" or "select-text"
      */
-    private void executeSelectDropDown(HierarchicalConfiguration<ImmutableNode> operation) {
-    	System.out.println("SelectDropDown:"+operation.getString("[@xpath]"));
-        WebElement selectElement = new WebDriverWait(this.driver, WAIT_TIME).until(
-                ExpectedConditions.visibilityOfElementLocated(By.xpath(operation.getString("[@xpath]"))));
+    void executeSelectDropDown(Step step) {
+        EventLog.info("SelectDropDown", step.xpath);
+        WebElement selectElement = locatorCache.get(step.xpath);
+        try {
+            if (selectElement == null || !selectElement.isDisplayed()) {
+                selectElement = null;
+            }
+        } catch (StaleElementReferenceException e) {
+            selectElement = null;
+        }
+        if (selectElement == null) {
+            long waitStart = RunMetrics.waitStarted();
+            selectElement = new WebDriverWait(this.driver, WAIT_TIME).until(
+                    ExpectedConditions.visibilityOfElementLocated(step.locator));
+            RunMetrics.waitEnded(waitStart);
+            locatorCache.put(step.xpath, selectElement);
+        }
         Select dropdown = new Select(selectElement);
         
-        if (operation.containsKey("[@select-index]")) {    
-            dropdown.selectByIndex(operation.getInt("[@select-index]"));
+        if (step.selectIndex != null) {
+            dropdown.selectByIndex(step.selectIndex);
         }
-        else if (operation.containsKey("[@select-text]")) {
-            dropdown.selectByVisibleText(operation.getString("[@select-text]"));
+        else if (step.selectText != null) {
+            dropdown.selectByVisibleText(step.selectText);
         }
         else
-        	System.out.println("Nothing found");
+            EventLog.warn("SelectDropDown", "nothing to select", null);
     }
 
-    /* handle pop-up window */
-    private void executeSelectPopupWindow(HierarchicalConfiguration<ImmutableNode> operation) {
+    /* handle pop-up window, the xpath attribute holds the title of the window to switch to */
+    void executeSelectPopupWindow(Step step) {
+        locatorCache.clear();
     	this.WindowHandler = this.driver.getWindowHandle(); // Store your parent window
-    	System.out.println("WindowHandler:"+this.WindowHandler) ;
+        EventLog.debug("WindowHandler", this.WindowHandler);
     	String subWindowHandler = null;
 
-    	WebDriverWait wait = new WebDriverWait(this.driver, WAIT_TIME);
     	Set<String> handles = this.driver.getWindowHandles(); // get all window handles
     	
-    	//System.out.println("total windows:"+handles.size());
     	Iterator<String> iterator = handles.iterator();
     	while (iterator.hasNext()){
     		subWindowHandler = iterator.next();
     		this.driver.switchTo().window(subWindowHandler);
-    		//System.out.println("sub window:"+subWindowHandler);
-    		//System.out.println("sub window title:"+this.driver.getTitle());
-    		//System.out.println("title from xml:"+operation.getString("[@xpath]"));
-    	    if (this.driver.getTitle() == operation.getString("[@xpath]")) {
-    	    	this.driver.switchTo().window(subWindowHandler);
-        	    System.out.println("swith to subwindow:"+subWindowHandler) ;
+    	    if (step.xpath.equals(this.driver.getTitle())) {
+                EventLog.info("SelectPopupWindow", subWindowHandler);
         	   	break ;
-    	    };
+    	    }
     	}
     }
 
-    private void executeBacktoParentWindow(HierarchicalConfiguration<ImmutableNode> operation) {
-    	Set<String> handles = this.driver.getWindowHandles(); // get all window handles
-    	//System.out.println("total window:"+handles.size());
+    void executeBacktoParentWindow(Step step) {
+        locatorCache.clear();
         this.driver.switchTo().window(this.WindowHandler);
-    	System.out.println("Now we back to pararen window"+this.WindowHandler+"  "+this.driver.getWindowHandle());
+        if (EventLog.isDebugEnabled()) {
+            // costs a round trip, only when asked for
+            EventLog.debug("BacktoParentWindow", this.WindowHandler + " now " + this.driver.getWindowHandle());
+        } else {
+            EventLog.info("BacktoParentWindow", this.WindowHandler);
+        }
     }
     
-    /* handle frame */
-    private void executeSelectFrame(HierarchicalConfiguration<ImmutableNode> operation) {
-    	String new_frame = operation.getString("[@xpath]");
-    	System.out.println("switch to new frame:"+ new_frame);
+    /* handle frame, the xpath attribute holds the frame name or id, an empty value selects the first frame */
+    void executeSelectFrame(Step step) {
+    	String new_frame = step.xpath;
+        locatorCache.clear();
+        EventLog.info("SelectFrame", new_frame);
     	this.WindowHandler = this.driver.getWindowHandle();
-    	if (new_frame == "")
+    	if (new_frame == null || new_frame.isEmpty())
     	    this.driver.switchTo().frame(0);
     	else
     		this.driver.switchTo().frame(new_frame);
@@ -243,15 +411,18 @@ public class AutoDriver {
     /**
      * Simulate a checkbox select.
      *
-     * @param operation the same object passed from executeOperation
-     *                  must have attribute "xpath" and "select"
+     * @param step must have attribute "xpath" and "select"
      */
-    private void executeSelectCheckBox(HierarchicalConfiguration<ImmutableNode> operation) {
-        boolean boxState = this.driver.findElement(
-                By.xpath(operation.getString("[@xpath]"))).isSelected();
-        boolean expectedState = operation.getBoolean("[@select]");
-        if (boxState != expectedState) {
-            executeClick(operation);
+    void executeSelectCheckBox(Step step) {
+        boolean boxState;
+        try {
+            boxState = locatorCache.find(this.driver, step.xpath).isSelected();
+        } catch (StaleElementReferenceException e) {
+            locatorCache.invalidate(step.xpath);
+            boxState = locatorCache.find(this.driver, step.xpath).isSelected();
+        }
+        if (boxState != step.select) {
+            executeClick(step);
         }
     }
 
@@ -259,109 +430,120 @@ public class AutoDriver {
      * Sometimes there is modal closing time delay for some ui element to be overlapped by the modal element. <br>
      * This function will make the browser wait until the modal element disappear.
      *
-     * @param operation the same object passed from executeOperation
-     *                  must have attribute "xpath"
+     * @param step must have attribute "xpath"
      */
-    private void executeWaitInvisible(HierarchicalConfiguration<ImmutableNode> operation) {
+    void executeWaitInvisible(Step step) {
+        long waitStart = RunMetrics.waitStarted();
         new WebDriverWait(this.driver, WAIT_TIME)
-                .until(ExpectedConditions.invisibilityOfElementLocated(By.xpath(operation.getString("[@xpath]"))));
-
+                .until(ExpectedConditions.invisibilityOfElementLocated(step.locator));
+        RunMetrics.waitEnded(waitStart);
     }
 
     public enum WaitCondition {APPEAR, DISAPPAER}
 
-    public void executeWaitConditionRepeatedly(String xpath, String refreshXpath, WaitCondition waitCondition) {
-        while (true) {
-            // refresh
-            System.out.println("Refreshing...");
-            if (refreshXpath != null) {
-                executeClick(refreshXpath); // if specified, click certain element on page to refresh
-            } else {
-                this.driver.navigate().refresh();
-            }
-
-            System.out.println("Wait repeatedly");
-            try {
-                Thread.sleep(
-                        ConfigManager.getConfigsByName("wait-refresh-interval")
-                                .getInt("") * 1000); // Sleep 2 min, can not wait too long. If too long the browser will ask to login again
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
+    /**
+     * Default deadline of repeated waits in seconds, used when &lt;wait-repeatedly-timeout&gt; is not configured
+     */
+    private static final int DEFAULT_WAIT_REPEATEDLY_TIMEOUT = 7200;
 
-            List<WebElement> elements = this.driver.findElements(By.xpath(xpath));
-            System.out.println("Finding " + elements.size() + " element(s): " + xpath);
+    public void executeWaitConditionRepeatedly(String xpath, String refreshXpath, WaitCondition waitCondition) {
+        executeWaitConditionRepeatedly(xpath, refreshXpath, waitCondition, null, false);
+    }
 
-            if (waitCondition == WaitCondition.APPEAR && elements.size() > 0) break;
-            else if (waitCondition == WaitCondition.DISAPPAER && elements.size() == 0) break;
+    /**
+     * Refresh the page until the element specified by xpath appears or disappears.
+     *
+     * @param xpath          the element to wait for
+     * @param refreshXpath   if not null, an element to click instead of reloading the whole page
+     * @param waitCondition  whether to wait for appearing or disappearing
+     * @param timeout        deadline in seconds, null to use the configured default
+     * @param watchMutations whether to watch the DOM in the browser between refreshes instead of polling
+     */
+    public void executeWaitConditionRepeatedly(final String xpath, final String refreshXpath,
+            WaitCondition waitCondition, Integer timeout, boolean watchMutations) {
+        // Refresh at most every wait-refresh-interval, can not wait too long. If too long the browser will ask to
+        // login again
+        long maxRefreshMillis = ConfigManager.getConfigsByName("wait-refresh-interval").getInt("") * 1000L;
+        if (timeout == null) {
+            timeout = ConfigManager.getInt("wait-repeatedly-timeout", DEFAULT_WAIT_REPEATEDLY_TIMEOUT);
         }
+
+        EventLog.info("WaitRepeatedly", xpath);
+        new ConditionPoller(this.driver, new Runnable() {
+            @Override
+            public void run() {
+                locatorCache.clear();
+                if (refreshXpath != null) {
+                    executeClick(refreshXpath); // if specified, click certain element on page to refresh
+                } else {
+                    driver.navigate().refresh();
+                }
+            }
+        }, xpath, waitCondition == WaitCondition.APPEAR).await(maxRefreshMillis, timeout * 1000L, watchMutations);
     }
 
     /**
      * There is need to wait for all other tests to finish until we can start the next test case
      * So there is need to wait until a certain no test running message appear
      *
-     * @param operation the same object passed from executeOperation
+     * @param step must have attribute "xpath"
      */
-    private void executeWaitAppearRepeatedly(HierarchicalConfiguration<ImmutableNode> operation) {
-        String refreshXpath = operation.getString("[@customize-refresh-xpath]");
-        String xpath = operation.getString("[@xpath]");
-        executeWaitConditionRepeatedly(xpath, refreshXpath, WaitCondition.APPEAR);
+    void executeWaitAppearRepeatedly(Step step) {
+        executeWaitConditionRepeatedly(step.xpath, step.refreshXpath, WaitCondition.APPEAR, step.waitTimeout,
+                step.watchMutations);
     }
 
-    private void executeWaitforAppear(HierarchicalConfiguration<ImmutableNode> operation) {
-    	
-          String xpath = operation.getString("[@xpath]");
-          System.out.println("Wait for "+xpath+" appearing.") ;
-                    
-          assert xpath != null;
-          WebDriverWait wait = new WebDriverWait(this.driver, WAIT_TIME*3);
-          By byXpath = By.xpath(xpath);
-          wait.until(ExpectedConditions.presenceOfElementLocated(byXpath));
-          wait.until(ExpectedConditions.visibilityOfElementLocated(byXpath));
-         // wait.until(ExpectedConditions.elementToBeClickable(byXpath));  
-          System.out.println(xpath+" appears!") ;
+    /**
+     * Wait for an element to become visible, for up to &lt;wait-appear-timeout&gt; seconds.
+     *
+     * @param step must have attribute "xpath"
+     */
+    void executeWaitforAppear(Step step) {
+        EventLog.info("WaitforAppear", step.xpath);
+        long waitStart = RunMetrics.waitStarted();
+        try {
+            // visibility implies presence, one wait polled often returns as soon as the element shows
+            new WebDriverWait(this.driver, waitAppearTimeout)
+                    .pollingEvery(Duration.ofMillis(APPEAR_POLL_MILLIS))
+                    .until(ExpectedConditions.visibilityOfElementLocated(step.locator));
+        } finally {
+            RunMetrics.waitEnded(waitStart);
+        }
+        EventLog.debug("Appeared", step.xpath);
     }
 
     /**
      * There are some operations that will affect the state of VMs, but will experience a intermediate state.
      * This method provide a way to wait until those effects take place.
      *
-     * @param operation the same object passed from executeOperation
+     * @param step must have attribute "xpath"
      */
-    private void executeWaitDisappearRepeatedly(HierarchicalConfiguration<ImmutableNode> operation) {
-        String refreshXpath = operation.getString("[@customize-refresh-xpath]");
-        String xpath = operation.getString("[@xpath]");
-        executeWaitConditionRepeatedly(xpath, refreshXpath, WaitCondition.DISAPPAER);
+    void executeWaitDisappearRepeatedly(Step step) {
+        executeWaitConditionRepeatedly(step.xpath, step.refreshXpath, WaitCondition.DISAPPAER, step.waitTimeout,
+                step.watchMutations);
     }
 
     /**
      * There is need to locate an element when another element exist in the same row in a table
      * The row index relationship could be found on @id pattern
      *
-     * @param operation the same object passed from executeOperation
+     * @param step must have an "element" child with "xpath", "extract-attribute" and "attribute-regex"
      * @deprecated This method is no longer used in the xml config, and will no longer be supported in future version
      */
     @Deprecated
-    private void executeClickIfAnotherElementExist(HierarchicalConfiguration<ImmutableNode> operation) {
-        HierarchicalConfiguration<ImmutableNode> elementConfig = operation.configurationAt("element");
+    void executeClickIfAnotherElementExist(Step step) {
         // get the element attr string to extract row index
-        String elementAttr = this.driver.findElement(By.xpath(elementConfig.getString("[@xpath]")))
-                .getAttribute(elementConfig.getString("[@extract-attribute]"));
-        Pattern pattern = Pattern.compile(elementConfig.getString("[@attribute-regex]"));
-        Matcher matcher = pattern.matcher(elementAttr);
+        String elementAttr = this.driver.findElement(LocatorRewriter.by(step.elementXpath))
+                .getAttribute(step.extractAttribute);
+        Matcher matcher = step.attributePattern.matcher(elementAttr);
         if (matcher.find()) {
-            System.out.println(matcher.group(1));
             String filler = matcher.group(1); // row index extracted
-            String xpath = operation.getString("[@xpath]")
+            String xpath = step.xpath
                     .replace("?", filler); // dynamically generate xpath to match certain element in that row
             executeClick(xpath);
         } else {
             // TODO error handling
-            System.err.println("[Error] No matching found!");
+            EventLog.error("ClickIfAnotherElementExist", "no matching found", null);
         }
     }
 }
-
-
-
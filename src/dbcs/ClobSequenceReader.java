@@ -0,0 +1,69 @@
+package dbcs;
+
+import java.io.*;
+import java.sql.*;
+
+/**
+ * A Reader presenting the CLOB column of every remaining row of a ResultSet as one continuous character stream.<br>
+ * Each CLOB's character stream is opened only when the previous one is exhausted and is read straight into the
+ * caller's buffer, so no more than one testcase is held in memory at a time and no intermediate String is built.
+ */
+class ClobSequenceReader extends Reader {
+    private final ResultSet resultSet;
+    private final String column;
+    private Reader current;
+    private boolean exhausted;
+
+    /**
+     * @param resultSet rows to read, positioned before the first row
+     * @param column    name of the CLOB column
+     */
+    ClobSequenceReader(ResultSet resultSet, String column) {
+        this.resultSet = resultSet;
+        this.column = column;
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (!exhausted) {
+            if (current == null && !nextClob()) {
+                break;
+            }
+            int n = current.read(cbuf, off, len);
+            if (n >= 0) {
+                return n;
+            }
+            current.close();
+            current = null;
+        }
+        return -1;
+    }
+
+    private boolean nextClob() throws IOException {
+        try {
+            while (resultSet.next()) {
+                Clob clob = resultSet.getClob(column);
+                if (clob != null) {
+                    current = clob.getCharacterStream();
+                    return true;
+                }
+            }
+            exhausted = true;
+            return false;
+        } catch (SQLException e) {
+            throw new IOException("Failed to read column " + column, e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (current != null) {
+            current.close();
+            current = null;
+        }
+        exhausted = true;
+    }
+}
@@ -0,0 +1,372 @@
+package dbcs;
+
+import org.openqa.selenium.json.*;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Timeline of the WebDriver commands a run sends, each attributed to the step and testcase that caused it.<br>
+ * <p>
+ * Sessions created while tracing is enabled send their commands through a {@link TracingCommandExecutor}, which
+ * reports each one here with its timing. Steps and testcases are recorded as spans enclosing their commands, so the
+ * trace shows per worker thread which operation produced which round trips. {@link #writeReport(File)} exports the
+ * timeline as trace_events.json in the Chrome trace event format, to be opened in Perfetto (ui.perfetto.dev) or
+ * chrome://tracing, and a summary of commands per operation type as command_summary.json and command_summary.csv.
+ * </p>
+ * The following system properties are honoured:
+ * <ul>
+ * <li>dbcs.trace - whether to trace the commands, defaults to false</li>
+ * <li>dbcs.trace.max-events - events kept for the timeline, later ones are only counted in the summary, defaults to
+ * 1000000</li>
+ * </ul>
+ */
+public final class CommandTrace {
+    private static final boolean ENABLED = Boolean.getBoolean("dbcs.trace");
+    private static final int MAX_EVENTS = Integer.getInteger("dbcs.trace.max-events", 1000000);
+    private static final int CHATTIEST_STEPS = 20;
+    private static final Json JSON = new Json();
+    /**
+     * Operation the commands sent outside of any step are summarised under, e.g. opening the url or resetting a session
+     */
+    private static final String OUTSIDE_STEPS = "(outside steps)";
+
+    private static final String FORWARDING_THREAD_NAME = "Forwarding ";
+
+    private static final long ORIGIN_NANOS = System.nanoTime();
+
+    /**
+     * A command, step or testcase on the timeline
+     */
+    private static final class Span {
+        final String category;
+        final String name;
+        final long startNanos;
+        final long durationNanos;
+        final long threadId;
+        final String testcase;
+        final int step;
+        final String operation;
+        final String detail;
+        /**
+         * Commands sent by a step, or the error state of a failed command
+         */
+        final Object result;
+
+        Span(String category, String name, long startNanos, long durationNanos, String testcase, int step,
+                String operation, String detail, Object result) {
+            this.category = category;
+            this.name = name;
+            this.startNanos = startNanos;
+            this.durationNanos = durationNanos;
+            this.threadId = Thread.currentThread().getId();
+            this.testcase = testcase;
+            this.step = step;
+            this.operation = operation;
+            this.detail = detail;
+            this.result = result;
+        }
+    }
+
+    /**
+     * Testcase and step the current worker is on, and the commands its step sent so far
+     */
+    private static final class Context {
+        String testcase;
+        long testStartNanos;
+        Step step;
+        long stepStartNanos;
+        int stepCommands;
+    }
+
+    /**
+     * Commands sent by the steps of one operation type
+     */
+    private static final class OperationStats {
+        long steps;
+        long commands;
+        long maxCommands;
+        long commandNanos;
+        final Map<String, Long> byCommand = new TreeMap<>();
+    }
+
+    private static final ThreadLocal<Context> context = new ThreadLocal<Context>() {
+        @Override
+        protected Context initialValue() {
+            String name = Thread.currentThread().getName();
+            // RemoteWebDriver renames the thread while it forwards a command, the first use may be inside one
+            if (!name.startsWith(FORWARDING_THREAD_NAME)) {
+                threadNames.put(Thread.currentThread().getId(), name);
+            }
+            return new Context();
+        }
+    };
+
+    private static final ConcurrentMap<Long, String> threadNames = new ConcurrentHashMap<>();
+    private static final Queue<Span> spans = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger spanCount = new AtomicInteger();
+    private static final AtomicLong droppedSpans = new AtomicLong();
+    private static final Map<String, OperationStats> operations = new TreeMap<>();
+    // steps with the most commands, the fewest first
+    private static final PriorityQueue<Span> chattiest = new PriorityQueue<>(CHATTIEST_STEPS + 1,
+            new Comparator<Span>() {
+                @Override
+                public int compare(Span a, Span b) {
+                    return Integer.compare((Integer) a.result, (Integer) b.result);
+                }
+            });
+
+    private CommandTrace() {
+    }
+
+    /**
+     * @return whether new sessions trace their commands
+     */
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * Mark the start of a testcase on the current worker.
+     */
+    public static void testStarted(String testName) {
+        if (!ENABLED) {
+            return;
+        }
+        Context c = context.get();
+        threadNames.put(Thread.currentThread().getId(), Thread.currentThread().getName());
+        c.testcase = testName;
+        c.testStartNanos = System.nanoTime();
+    }
+
+    /**
+     * Mark the end of the testcase of the current worker.
+     */
+    public static void testEnded(boolean passed) {
+        if (!ENABLED) {
+            return;
+        }
+        Context c = context.get();
+        if (c.testcase != null) {
+            add(new Span("testcase", c.testcase, c.testStartNanos, System.nanoTime() - c.testStartNanos, c.testcase,
+                    -1, null, null, passed ? "passed" : "failed"));
+        }
+        c.testcase = null;
+    }
+
+    static void stepStarted(Step step) {
+        if (!ENABLED) {
+            return;
+        }
+        Context c = context.get();
+        c.step = step;
+        c.stepStartNanos = System.nanoTime();
+        c.stepCommands = 0;
+    }
+
+    static void stepEnded(Step step) {
+        if (!ENABLED) {
+            return;
+        }
+        Context c = context.get();
+        if (c.step != step) {
+            return;
+        }
+        c.step = null;
+        String operation = step.type.name();
+        Span span = new Span("step", operation + " #" + step.index, c.stepStartNanos,
+                System.nanoTime() - c.stepStartNanos, c.testcase, step.index, operation, step.xpath, c.stepCommands);
+        add(span);
+        synchronized (operations) {
+            OperationStats stats = stats(operation);
+            stats.steps++;
+            stats.maxCommands = Math.max(stats.maxCommands, c.stepCommands);
+            chattiest.add(span);
+            if (chattiest.size() > CHATTIEST_STEPS) {
+                chattiest.poll();
+            }
+        }
+    }
+
+    /**
+     * Record a command sent by the current thread.
+     *
+     * @param name       the command name, e.g. findElement
+     * @param detail     the locator or script marker of the command, may be null
+     * @param startNanos System.nanoTime() the command was sent at
+     * @param error      the error state the command answered with, null if it succeeded
+     */
+    static void command(String name, String detail, long startNanos, long durationNanos, String error) {
+        Context c = context.get();
+        Step step = c.step;
+        String operation = step == null ? OUTSIDE_STEPS : step.type.name();
+        if (step != null) {
+            c.stepCommands++;
+        }
+        add(new Span("command", name, startNanos, durationNanos, c.testcase, step == null ? -1 : step.index,
+                operation, detail, error));
+        synchronized (operations) {
+            OperationStats stats = stats(operation);
+            stats.commands++;
+            stats.commandNanos += durationNanos;
+            Long count = stats.byCommand.get(name);
+            stats.byCommand.put(name, count == null ? 1 : count + 1);
+        }
+    }
+
+    private static OperationStats stats(String operation) {
+        OperationStats stats = operations.get(operation);
+        if (stats == null) {
+            stats = new OperationStats();
+            operations.put(operation, stats);
+        }
+        return stats;
+    }
+
+    private static void add(Span span) {
+        if (spanCount.incrementAndGet() > MAX_EVENTS) {
+            spanCount.decrementAndGet();
+            droppedSpans.incrementAndGet();
+            return;
+        }
+        spans.add(span);
+    }
+
+    /**
+     * Write trace_events.json, command_summary.json and command_summary.csv, nothing if tracing is disabled.
+     *
+     * @param dir the directory to write to
+     */
+    public static void writeReport(File dir) throws IOException {
+        if (!ENABLED) {
+            return;
+        }
+        writeTimeline(new File(dir, "trace_events.json"));
+        writeSummary(dir);
+        System.out.println("[CommandTrace] Timeline written to " + new File(dir, "trace_events.json")
+                + (droppedSpans.get() > 0 ? ", " + droppedSpans.get() + " events beyond dbcs.trace.max-events left out"
+                : ""));
+    }
+
+    private static void writeTimeline(File file) throws IOException {
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file),
+                StandardCharsets.UTF_8), 1 << 16)) {
+            out.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[\n");
+            boolean first = true;
+            StringBuilder line = new StringBuilder(256);
+            for (Map.Entry<Long, String> thread : new TreeMap<>(threadNames).entrySet()) {
+                Map<String, Object> event = new LinkedHashMap<>();
+                event.put("name", "thread_name");
+                event.put("ph", "M");
+                event.put("pid", 1);
+                event.put("tid", thread.getKey());
+                event.put("args", Collections.singletonMap("name", thread.getValue()));
+                first = writeEvent(out, event, line, first);
+            }
+            for (Span span : spans) {
+                Map<String, Object> event = new LinkedHashMap<>();
+                event.put("name", span.name);
+                event.put("cat", span.category);
+                event.put("ph", "X");
+                event.put("ts", micros(span.startNanos - ORIGIN_NANOS));
+                event.put("dur", micros(span.durationNanos));
+                event.put("pid", 1);
+                event.put("tid", span.threadId);
+                Map<String, Object> args = new LinkedHashMap<>();
+                if (span.testcase != null) {
+                    args.put("testcase", span.testcase);
+                }
+                if (span.step >= 0) {
+                    args.put("step", span.step);
+                }
+                if (span.operation != null) {
+                    args.put("operation", span.operation);
+                }
+                if (span.detail != null) {
+                    args.put("detail", span.detail);
+                }
+                if (span.result != null) {
+                    args.put("step".equals(span.category) ? "commands"
+                            : "testcase".equals(span.category) ? "result" : "error", span.result);
+                }
+                event.put("args", args);
+                first = writeEvent(out, event, line, first);
+            }
+            out.write("\n]}\n");
+        }
+    }
+
+    private static boolean writeEvent(Writer out, Map<String, Object> event, StringBuilder line, boolean first)
+            throws IOException {
+        if (!first) {
+            out.write(",\n");
+        }
+        // one event per line, the timeline of a long run is too large to be pretty printed
+        line.setLength(0);
+        try (JsonOutput json = JSON.newOutput(line)) {
+            json.setPrettyPrint(false).write(event);
+        }
+        out.append(line);
+        return false;
+    }
+
+    private static double micros(long nanos) {
+        return nanos / 1000.0;
+    }
+
+    private static void writeSummary(File dir) throws IOException {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        Map<String, Object> ops = new LinkedHashMap<>();
+        List<Span> steps;
+        synchronized (operations) {
+            for (Map.Entry<String, OperationStats> entry : operations.entrySet()) {
+                OperationStats stats = entry.getValue();
+                Map<String, Object> op = new LinkedHashMap<>();
+                op.put("steps", stats.steps);
+                op.put("commands", stats.commands);
+                op.put("commands_per_step", stats.steps == 0 ? null : (double) stats.commands / stats.steps);
+                op.put("max_commands", stats.maxCommands);
+                op.put("command_ms", stats.commandNanos / 1e6);
+                op.put("by_command", new LinkedHashMap<>(stats.byCommand));
+                ops.put(entry.getKey(), op);
+            }
+            steps = new ArrayList<>(chattiest);
+        }
+        Collections.sort(steps, Collections.reverseOrder(chattiest.comparator()));
+        List<Object> chattiestSteps = new ArrayList<>();
+        for (Span span : steps) {
+            Map<String, Object> step = new LinkedHashMap<>();
+            step.put("testcase", span.testcase);
+            step.put("step", span.step);
+            step.put("operation", span.operation);
+            step.put("xpath", span.detail);
+            step.put("commands", span.result);
+            step.put("duration_ms", span.durationNanos / 1e6);
+            chattiestSteps.add(step);
+        }
+        summary.put("operations", ops);
+        summary.put("chattiest-steps", chattiestSteps);
+
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(new File(dir, "command_summary.json")),
+                StandardCharsets.UTF_8)) {
+            out.write(JSON.toJson(summary));
+        }
+
+        try (PrintWriter out = new PrintWriter(new OutputStreamWriter(
+                new FileOutputStream(new File(dir, "command_summary.csv")), StandardCharsets.UTF_8))) {
+            out.println("operation,steps,commands,commands_per_step,max_commands,command_ms");
+            for (Map.Entry<String, Object> entry : ops.entrySet()) {
+                @SuppressWarnings("unchecked")
+                Map<String, Object> op = (Map<String, Object>) entry.getValue();
+                long stepCount = (Long) op.get("steps");
+                long commands = (Long) op.get("commands");
+                out.println(String.format(Locale.ROOT, "\"%s\",%d,%d,%s,%d,%.3f", entry.getKey(), stepCount, commands,
+                        stepCount == 0 ? "" : String.format(Locale.ROOT, "%.2f", (double) commands / stepCount),
+                        (Long) op.get("max_commands"), (Double) op.get("command_ms")));
+            }
+        }
+    }
+}
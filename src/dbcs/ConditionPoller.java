@@ -0,0 +1,181 @@
+package dbcs;
+
+import org.openqa.selenium.*;
+
+/**
+ * Waits for an element to appear on or disappear from a page that only reflects server side state changes
+ * (e.g. a VM state) after it is refreshed.<br>
+ * <p>
+ * Full refreshes are expensive, so they are spaced with exponential backoff from {@link #INITIAL_REFRESH_MILLIS}
+ * up to the configured refresh interval. Between refreshes the condition is re-checked cheaply against the live DOM,
+ * which catches partial page refreshes. Optionally a MutationObserver installed in the browser watches the condition
+ * and reports back as soon as it holds, instead of polling. The whole wait is bounded by a deadline.
+ * </p>
+ */
+public class ConditionPoller {
+    /**
+     * Delay before the second full refresh, doubled after each refresh until it reaches the configured interval
+     */
+    static final long INITIAL_REFRESH_MILLIS = 5000;
+    /**
+     * Delay between the first cheap DOM checks after a refresh, grows by half after each check
+     */
+    private static final long INITIAL_CHECK_MILLIS = 500;
+    private static final long MAX_CHECK_MILLIS = 5000;
+
+    // resolves true as soon as the xpath, or its CSS rewrite if given, matches (appear) or stops matching
+    // (disappear), or false after the timeout
+    private static final String WATCH_SCRIPT =
+            "/*watch-condition*/"
+            + "var xpath = arguments[0], appear = arguments[1], timeout = arguments[2], css = arguments[3];"
+            + "var done = arguments[arguments.length - 1];"
+            + "function met() {"
+            + "  var node = css ? document.querySelector(css)"
+            + "      : document.evaluate(xpath, document, null, XPathResult.FIRST_ORDERED_NODE_TYPE, null)"
+            + "          .singleNodeValue;"
+            + "  return appear ? node !== null : node === null;"
+            + "}"
+            + "if (met()) { done(true); return; }"
+            + "var pending = false, timer;"
+            + "var observer = new MutationObserver(function() {"
+            + "  if (pending) return;"
+            + "  pending = true;"
+            + "  setTimeout(function() {"
+            + "    pending = false;"
+            + "    if (met()) { observer.disconnect(); clearTimeout(timer); done(true); }"
+            + "  }, 50);"
+            + "});"
+            + "observer.observe(document, {childList: true, subtree: true, attributes: true, characterData: true});"
+            + "timer = setTimeout(function() { observer.disconnect(); done(false); }, timeout);";
+
+    private final WebDriver driver;
+    private final Runnable refresh;
+    private final By locator;
+    private final String xpath;
+    /**
+     * CSS rewrite of the xpath, null to evaluate the xpath
+     */
+    private final String css;
+    private final boolean appear;
+
+    /**
+     * @param driver  driver of the page to watch
+     * @param refresh action that reloads the state shown on the page
+     * @param xpath   the element to wait for
+     * @param appear  true to wait for the element to appear, false to wait for it to disappear
+     */
+    public ConditionPoller(WebDriver driver, Runnable refresh, String xpath, boolean appear) {
+        this.driver = driver;
+        this.refresh = refresh;
+        this.xpath = xpath;
+        this.css = LocatorRewriter.cssFor(xpath);
+        this.locator = css != null ? By.cssSelector(css) : By.xpath(xpath);
+        this.appear = appear;
+    }
+
+    /**
+     * Block until the condition holds.
+     *
+     * @param maxRefreshMillis longest delay between two full refreshes
+     * @param timeoutMillis    give up after this long
+     * @param watchMutations   whether to watch the DOM in the browser instead of polling between refreshes
+     * @throws TimeoutException if the condition does not hold before the deadline
+     */
+    public void await(long maxRefreshMillis, long timeoutMillis, boolean watchMutations) {
+        long waitStart = RunMetrics.waitStarted();
+        try {
+            poll(maxRefreshMillis, timeoutMillis, watchMutations);
+        } finally {
+            RunMetrics.waitEnded(waitStart);
+        }
+    }
+
+    private void poll(long maxRefreshMillis, long timeoutMillis, boolean watchMutations) {
+        long start = System.currentTimeMillis();
+        long deadline = start + timeoutMillis;
+        long refreshDelay = Math.min(INITIAL_REFRESH_MILLIS, maxRefreshMillis);
+        long nextRefresh = start;
+        long checkDelay = INITIAL_CHECK_MILLIS;
+
+        while (true) {
+            long now = System.currentTimeMillis();
+            if (now >= nextRefresh) {
+                EventLog.debug("Refresh", xpath);
+                refresh.run();
+                nextRefresh = System.currentTimeMillis() + refreshDelay;
+                refreshDelay = Math.min(refreshDelay * 2, maxRefreshMillis);
+                checkDelay = INITIAL_CHECK_MILLIS;
+            }
+
+            if (isMet()) {
+                logMet(start);
+                return;
+            }
+
+            now = System.currentTimeMillis();
+            if (now >= deadline) {
+                throw new TimeoutException("Waited " + timeoutMillis + " ms for " + xpath + " to "
+                        + (appear ? "appear" : "disappear"));
+            }
+
+            long untilNext = Math.min(nextRefresh, deadline) - now;
+            if (watchMutations) {
+                if (watch(untilNext)) {
+                    logMet(start);
+                    return;
+                }
+            } else {
+                sleep(Math.min(checkDelay, untilNext));
+                checkDelay = Math.min(checkDelay + checkDelay / 2, MAX_CHECK_MILLIS);
+            }
+        }
+    }
+
+    private void logMet(long start) {
+        if (EventLog.isEnabled(EventLog.Level.INFO)) {
+            EventLog.info("ConditionMet", (System.currentTimeMillis() - start) + " ms: " + xpath);
+        }
+    }
+
+    private boolean isMet() {
+        int count = driver.findElements(locator).size();
+        return appear ? count > 0 : count == 0;
+    }
+
+    /**
+     * Let the browser watch the condition for up to millis.
+     *
+     * @return true if the condition was met
+     */
+    private boolean watch(long millis) {
+        if (millis <= 0) {
+            return false;
+        }
+        long deadline = System.currentTimeMillis() + millis;
+        // in slices, so the session's script timeout set by AutoDriver always covers the call
+        for (long slice = millis; slice > 0; slice = deadline - System.currentTimeMillis()) {
+            try {
+                Object result = ((JavascriptExecutor) driver).executeAsyncScript(WATCH_SCRIPT, xpath, appear,
+                        Math.min(slice, AutoDriver.MAX_SCRIPT_MILLIS), css);
+                if (Boolean.TRUE.equals(result)) {
+                    return true;
+                }
+            } catch (ScriptTimeoutException e) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new WebDriverException("Interrupted while waiting", e);
+        }
+    }
+}
@@ -1,8 +1,9 @@
-package seleniumtest;
+package dbcs;
 
 import org.apache.commons.configuration2.*;
 import org.apache.commons.configuration2.builder.fluent.*;
 import org.apache.commons.configuration2.ex.*;
+import org.apache.commons.configuration2.io.*;
 import org.apache.commons.configuration2.tree.*;
 import org.xml.sax.*;
 
@@ -13,6 +14,7 @@ import java.io.*;
 import java.nio.file.*;
 import java.sql.*;
 import java.util.List;
+import java.util.Properties;
 
 /**
  * This class manages the configuration file access.
@@ -53,68 +55,113 @@ public class ConfigManager {
     public static HierarchicalConfiguration<ImmutableNode> getConfigsByName(String configFieldName) {	
         return instance.config.configurationAt(configFieldName);
     }
+
+    /**
+     * Read an optional numeric setting under the root "&lt;config&gt;" tag.
+     *
+     * @param key          the name of the setting e.g. wait-refresh-interval
+     * @param defaultValue value returned if the setting is absent
+     * @return int value of the setting
+     */
+    public static int getInt(String key, int defaultValue) {
+        return instance.config.getInt(key, defaultValue);
+    }
+
+    /**
+     * Read an optional boolean setting under the root "&lt;config&gt;" tag.
+     *
+     * @param key          the name of the setting e.g. use-simple-wait
+     * @param defaultValue value returned if the setting is absent
+     * @return boolean value of the setting
+     */
+    public static boolean getBoolean(String key, boolean defaultValue) {
+        return instance.config.getBoolean(key, defaultValue);
+    }
   
-    // Change CLOB to String
-    private static String ClobToString(Clob p_Clob) throws SQLException, IOException { 
-
-        String  reString; 
-        Reader  is = p_Clob.getCharacterStream();
-        BufferedReader br = new BufferedReader(is); 
-        String s = br.readLine(); 
-        StringBuilder sb = new StringBuilder(); 
-        while (s != null) 
-        {
-            sb.append(s); 
-            s = br.readLine(); 
-        } 
-        reString = sb.toString(); 
-        return reString; 
+    /**
+     * Characters of each CLOB sent inline with its row, so small testcases need no extra LOB round trip
+     */
+    private static final String LOB_PREFETCH_SIZE = "32768";
+    private static final int BORROW_TIMEOUT_MILLIS = 30000;
+
+    /**
+     * Fingerprint of a snapshot whose rows the database could not hash, never equal to a computed one
+     */
+    private static final String UNVERIFIED_SNAPSHOT = "unverified";
+
+    /**
+     * Pool of connections to the testcase database, null when running offline
+     */
+    private ConnectionPool connectionPool = null;
+
+    /**
+     * @return the pool of connections to the testcase database, or null when running offline or loading from the
+     * database failed
+     */
+    public static ConnectionPool getConnectionPool() {
+        return instance.connectionPool;
     }
-    
+
+    /**
+     * Load the configuration from the database, or from the local snapshot when the database content has not
+     * changed since the snapshot was taken.<br>
+     * The following system properties are honoured:
+     * <ul>
+     * <li>dbcs.db.url, dbcs.db.user, dbcs.db.password - the database holding db_auto_testcase</li>
+     * <li>dbcs.db.pool-size - maximum number of pooled connections to that database, defaults to 4</li>
+     * <li>dbcs.snapshot - location of the snapshot file, defaults to test_list.snapshot.gz under the base path</li>
+     * <li>dbcs.snapshot.max-age-hours - snapshots older than this are always refreshed, defaults to 24</li>
+     * <li>dbcs.offline - if true, never connect to the database and run purely from the snapshot</li>
+     * </ul>
+     */
     private ConfigManager() {
     	System.out.println("..........configManager constructor..........");
         this.configs = new Configurations();
 
-        InputStream configFile = null;
-        InputStream schemaFile = null;
+        SnapshotCache snapshot = new SnapshotCache(
+                new File(System.getProperty("dbcs.snapshot", basePath + "test_list.snapshot.gz")));
+        long maxAgeMillis = Long.getLong("dbcs.snapshot.max-age-hours", 24L) * 3600 * 1000;
 
         try {
-     	 String m_szDBURL = "jdbc:oracle:thin:@bej301445.cn.oracle.com:1521/pdbrobotjulie.sgtdbcluster.cn";
-         String m_szDBUser = "yshu";
-         String m_szDBPass = "syw1029";
-
-         
-             DriverManager.registerDriver(new oracle.jdbc.driver.OracleDriver());
-             Connection m_conn = DriverManager.getConnection (m_szDBURL,m_szDBUser, m_szDBPass);
-             m_conn.setAutoCommit(false);
-
-             File temp = File.createTempFile("_temp", ".xml");
-             temp.deleteOnExit();
-             OutputStreamWriter m_OutputWriter = new OutputStreamWriter(new FileOutputStream(temp),"UTF-8");
-             
-         
-             Statement m_Stmt = m_conn.createStatement();
-             ResultSet m_preRs = m_Stmt.executeQuery("select step from db_auto_testcase where testname='test_to_run'") ;
-             m_preRs.next();
-             String tests = "Select id,testname,step from db_auto_testcase where product='apex' and version='5.2' and (id=1 or id=2 or id=999999 or '"+m_preRs.getString("step")+"' like '%'||testname||'%')  order by id  ";
-
-             ResultSet m_Rs = m_Stmt.executeQuery(tests);
-             String      m_XMLContent  = "";
-             
-             while (m_Rs.next()) 
-             {  
-                 java.sql.Clob m_Clob = m_Rs.getClob("step") ;
-                 m_XMLContent = m_XMLContent+ClobToString(m_Clob);
+            if (Boolean.getBoolean("dbcs.offline")) {
+                System.out.println("[Offline] Loading tests from snapshot " + snapshot.getFile());
+                this.config = snapshot.load();
+                return;
+            }
+
+     	 String m_szDBURL = System.getProperty("dbcs.db.url",
+     	         "jdbc:oracle:thin:@bej301445.cn.oracle.com:1521/pdbrobotjulie.sgtdbcluster.cn");
+         String m_szDBUser = System.getProperty("dbcs.db.user", "yshu");
+         String m_szDBPass = System.getProperty("dbcs.db.password", "syw1029");
+
+             if (m_szDBURL.startsWith("jdbc:oracle:")) {
+                 DriverManager.registerDriver(new oracle.jdbc.driver.OracleDriver());
+             }
+             Properties m_props = new Properties();
+             m_props.setProperty("user", m_szDBUser);
+             m_props.setProperty("password", m_szDBPass);
+             m_props.setProperty("oracle.jdbc.defaultLobPrefetchSize", LOB_PREFETCH_SIZE);
+             this.connectionPool = new ConnectionPool(m_szDBURL, m_props, Integer.getInteger("dbcs.db.pool-size", 4),
+                     BORROW_TIMEOUT_MILLIS);
+             try (Connection m_conn = connectionPool.getConnection()) {
+                 m_conn.setAutoCommit(false);
+                 TestcaseLoader loader = new TestcaseLoader(m_conn);
+                 String selection = loader.fetchSelection();
+                 String fingerprint = loader.fingerprint(selection);
+
+                 if (fingerprint != null && fingerprint.equals(snapshot.readFingerprint())
+                         && snapshot.isFresh(maxAgeMillis)) {
+                     System.out.println("Tests unchanged, loading from snapshot " + snapshot.getFile());
+                     this.config = snapshot.load();
+                 } else {
+                     // a snapshot without a fingerprint is only used when the database is unreachable
+                     try (SnapshotCache.SnapshotWriter copy = snapshot.openWriter(
+                             fingerprint == null ? UNVERIFIED_SNAPSHOT : fingerprint)) {
+                         this.config = loader.load(selection, copy);
+                         copy.commit();
+                     }
+                 }
              }
-             m_Rs.close();
-             m_Stmt.close();
-         
-             m_OutputWriter.write(m_XMLContent);
-             m_OutputWriter.close();
-             
-             //System.out.println(temp);
-         
-             this.config = configs.xml(temp);
         } catch (ConfigurationException ce) {
             System.out.println("[Error] Something wrong reading configuration file");
             System.out.println("Try to find file " + ce.toString());
@@ -125,10 +172,27 @@ public class ConfigManager {
         }
         catch(SQLException se) {
         	System.out.println("[Error] SQL error:"+se.toString());
+        	loadSnapshotAfterFailure(snapshot);
         }
         catch (IOException ie) {
-        	System.out.println("[Error] IO error");
+        	System.out.println("[Error] IO error:"+ie.toString());
+        	loadSnapshotAfterFailure(snapshot);
         }
     }
-}
 
+    private void loadSnapshotAfterFailure(SnapshotCache snapshot) {
+        if (connectionPool != null) {
+            connectionPool.close(); // the database is not usable, nothing else should write to it
+            connectionPool = null;
+        }
+        if (this.config != null || snapshot.readFingerprint() == null) {
+            return;
+        }
+        System.out.println("[Warning] Falling back to snapshot " + snapshot.getFile());
+        try {
+            this.config = snapshot.load();
+        } catch (ConfigurationException | IOException e) {
+            System.out.println("[Error] Snapshot is not readable:" + e.toString());
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package dbcs;
+
+import java.lang.reflect.*;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Small JDBC connection pool.<br>
+ * <p>
+ * Connections are opened on demand up to maxSize and handed out wrapped, so that close() gives them back to the pool
+ * instead of closing them. A connection is checked with isValid() before it is handed out again and replaced if it
+ * went stale, and rolled back when given back so no transaction leaks to the next user.
+ * </p>
+ */
+public class ConnectionPool implements AutoCloseable {
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+    private final String url;
+    private final Properties properties;
+    private final int maxSize;
+    private final long borrowTimeoutMillis;
+    private final BlockingQueue<Connection> idle = new LinkedBlockingQueue<>();
+    private final Semaphore permits;
+    private volatile boolean closed;
+
+    /**
+     * @param url                 JDBC url
+     * @param properties          connection properties, including user and password
+     * @param maxSize             maximum number of open connections
+     * @param borrowTimeoutMillis how long {@link #getConnection()} waits for a free connection
+     */
+    public ConnectionPool(String url, Properties properties, int maxSize, long borrowTimeoutMillis) {
+        this.url = url;
+        this.properties = properties;
+        this.maxSize = maxSize;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.permits = new Semaphore(maxSize, true);
+    }
+
+    /**
+     * Borrow a connection, close it to give it back.
+     *
+     * @throws SQLException if no connection could be opened or none was free within the borrow timeout
+     */
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+        try {
+            if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new SQLException("No free connection within " + borrowTimeoutMillis + " ms, all " + maxSize
+                        + " in use");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted waiting for a connection", e);
+        }
+        try {
+            Connection connection;
+            while ((connection = idle.poll()) != null) {
+                if (isUsable(connection)) {
+                    return wrap(connection);
+                }
+                closeQuietly(connection);
+            }
+            return wrap(DriverManager.getConnection(url, properties));
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private static boolean isUsable(Connection connection) {
+        try {
+            return connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void giveBack(Connection connection) {
+        try {
+            if (!closed && !connection.isClosed()) {
+                if (!connection.getAutoCommit()) {
+                    connection.rollback();
+                }
+                idle.add(connection);
+            } else {
+                closeQuietly(connection);
+            }
+        } catch (SQLException e) {
+            closeQuietly(connection);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private Connection wrap(final Connection connection) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                new InvocationHandler() {
+                    private boolean returned;
+
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        String name = method.getName();
+                        if ("close".equals(name)) {
+                            if (!returned) {
+                                returned = true;
+                                giveBack(connection);
+                            }
+                            return null;
+                        }
+                        if ("isClosed".equals(name) && returned) {
+                            return true;
+                        }
+                        if (returned) {
+                            throw new SQLException("Connection was returned to the pool");
+                        }
+                        try {
+                            return method.invoke(connection, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    }
+                });
+    }
+
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            // already broken, nothing more to do
+        }
+    }
+
+    /**
+     * Close all idle connections, borrowed ones are closed when given back.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        Connection connection;
+        while ((connection = idle.poll()) != null) {
+            closeQuietly(connection);
+        }
+    }
+}
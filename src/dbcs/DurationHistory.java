@@ -0,0 +1,140 @@
+package dbcs;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.util.*;
+
+/**
+ * Local store of past testcase durations, used to start the longest testcases first.<br>
+ * <p>
+ * Each testcase keeps a moving average of the durations of its passed runs, failed runs end early and would make
+ * the testcase look shorter than it is. The store is a properties file of testcase name to milliseconds, read at the
+ * start of a run and rewritten at its end.
+ * </p>
+ */
+public class DurationHistory {
+    /**
+     * Weight of the latest run in the moving average
+     */
+    private static final double WEIGHT = 0.3;
+
+    private final File file;
+    private final Map<String, Long> durations = new HashMap<>();
+
+    /**
+     * @param file the properties file, need not exist yet
+     */
+    public DurationHistory(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Read the stored durations, a missing or unreadable file just means no history.
+     */
+    public synchronized void load() {
+        if (!file.isFile()) {
+            return;
+        }
+        Properties properties = new Properties();
+        try (Reader in = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            properties.load(in);
+        } catch (IOException e) {
+            System.out.println("[DurationHistory] Ignoring unreadable " + file + ": " + e.getMessage());
+            return;
+        }
+        for (String name : properties.stringPropertyNames()) {
+            try {
+                durations.put(name, Long.parseLong(properties.getProperty(name).trim()));
+            } catch (NumberFormatException e) {
+                // a hand edited entry, skip it
+            }
+        }
+    }
+
+    /**
+     * Write the durations, through a temporary file so an interrupted run can not corrupt the history.
+     */
+    public synchronized void save() throws IOException {
+        Properties properties = new Properties();
+        for (Map.Entry<String, Long> entry : durations.entrySet()) {
+            properties.setProperty(entry.getKey(), String.valueOf(entry.getValue()));
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8)) {
+            properties.store(out, "Moving average duration in ms of each testcase");
+        }
+        if (!temp.renameTo(file)) {
+            file.delete();
+            if (!temp.renameTo(file)) {
+                throw new IOException("Failed to replace " + file);
+            }
+        }
+    }
+
+    /**
+     * Record the duration of a passed run.
+     */
+    public synchronized void record(String testName, long millis) {
+        Long previous = durations.get(testName);
+        durations.put(testName, previous == null ? millis : Math.round(WEIGHT * millis + (1 - WEIGHT) * previous));
+    }
+
+    /**
+     * @return the expected duration in ms, or defaultMillis if the testcase never passed before
+     */
+    public synchronized long estimate(String testName, long defaultMillis) {
+        Long millis = durations.get(testName);
+        return millis != null ? millis : defaultMillis;
+    }
+
+    /**
+     * @return the mean of all known durations, 0 if there are none
+     */
+    public synchronized long meanMillis() {
+        if (durations.isEmpty()) {
+            return 0;
+        }
+        long total = 0;
+        for (long millis : durations.values()) {
+            total += millis;
+        }
+        return total / durations.size();
+    }
+
+    /**
+     * Order testcases longest first (LPT). Handed to a pool of workers in this order, each worker taking the next
+     * testcase when it is free, the makespan is at most 4/3 of the optimum. Testcases without history are estimated
+     * at the mean of the known ones.
+     *
+     * @return comparator of testcase names, longest first
+     */
+    public Comparator<String> longestFirst() {
+        final long unknown = meanMillis();
+        return new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                return Long.compare(estimate(b, unknown), estimate(a, unknown));
+            }
+        };
+    }
+
+    /**
+     * Simulate handing the testcases in this order to a pool of workers, ignoring the VM state locks.
+     *
+     * @return the estimated wall time in ms of running all testcases
+     */
+    public long estimateMakespan(List<String> testNames, int workers) {
+        long unknown = meanMillis();
+        PriorityQueue<Long> freeAt = new PriorityQueue<>();
+        for (int i = 0; i < Math.max(1, workers); i++) {
+            freeAt.add(0L);
+        }
+        long makespan = 0;
+        for (String testName : testNames) {
+            long end = freeAt.poll() + estimate(testName, unknown);
+            makespan = Math.max(makespan, end);
+            freeAt.add(end);
+        }
+        return makespan;
+    }
+}
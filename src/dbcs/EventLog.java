@@ -0,0 +1,358 @@
+package dbcs;
+
+import org.openqa.selenium.json.*;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+/**
+ * Structured event log of the step loop, written off the test threads.<br>
+ * <p>
+ * Each event carries its level, time, worker, testcase and step index as separate fields. Logging an event only
+ * claims a slot of a preallocated ring buffer and fills in its fields, no message is formatted and no stream is
+ * locked on the test thread. A background writer formats the events as JSON lines into the event file and, unless
+ * disabled, as text lines on the console. It sleeps while there is nothing to write and is woken by the next event.
+ * The event file is only created when the first event is written, so tools that never log one leave no file behind.
+ * When the writer falls a whole ring behind, new events are dropped and counted rather than blocking a worker.
+ * </p>
+ * Check {@link #isEnabled(Level)} before building an expensive detail, e.g. one needing a driver query.<br>
+ * The following system properties are honoured:
+ * <ul>
+ * <li>dbcs.log.level - lowest level logged, DEBUG, INFO, WARN or ERROR, defaults to INFO</li>
+ * <li>dbcs.log.file - the event file, defaults to run_events.jsonl in dbcs.report.dir or the working directory</li>
+ * <li>dbcs.log.console - whether events are also printed on the console, defaults to true</li>
+ * <li>dbcs.log.buffer - number of events the ring holds, rounded up to a power of two, defaults to 8192</li>
+ * </ul>
+ */
+public final class EventLog {
+    public enum Level {
+        DEBUG, INFO, WARN, ERROR
+    }
+
+    /**
+     * Pause of {@link #sync()} while waiting for the writer
+     */
+    private static final long SYNC_PARK_NANOS = 1000000;
+    private static final Json JSON = new Json();
+
+    /**
+     * A ring buffer slot, reused for every event written to it
+     */
+    private static final class Slot {
+        /**
+         * Sequence of the event in the slot, set last to publish it
+         */
+        volatile long sequence = -1;
+        Level level;
+        long timeMillis;
+        String worker;
+        String testcase;
+        int step;
+        String event;
+        Object detail;
+        Throwable error;
+    }
+
+    /**
+     * Testcase and step the current worker is on
+     */
+    private static final class Context {
+        final String worker = Thread.currentThread().getName();
+        String testcase;
+        int step = -1;
+    }
+
+    private static final ThreadLocal<Context> context = new ThreadLocal<Context>() {
+        @Override
+        protected Context initialValue() {
+            return new Context();
+        }
+    };
+
+    private static final int THRESHOLD = threshold(System.getProperty("dbcs.log.level", "INFO"));
+    private static final boolean CONSOLE = Boolean.parseBoolean(System.getProperty("dbcs.log.console", "true"));
+
+    private static final Slot[] ring;
+    private static final int mask;
+    /**
+     * Next sequence to claim
+     */
+    private static final AtomicLong claimed = new AtomicLong();
+    /**
+     * Next sequence the writer reads, every slot before it is free
+     */
+    private static final AtomicLong consumed = new AtomicLong();
+    private static final AtomicLong dropped = new AtomicLong();
+    private static final Thread writer;
+    /**
+     * Set by the writer before it sleeps, so that only then a producer has to wake it
+     */
+    private static volatile boolean parked;
+    /**
+     * Opened by the writer with the first event, null before or if it can not be written
+     */
+    private static volatile Writer file;
+    private static boolean fileOpened;
+    private static volatile boolean closed;
+
+    static {
+        int capacity = Integer.highestOneBit(Math.max(2, Integer.getInteger("dbcs.log.buffer", 8192)) * 2 - 1);
+        ring = new Slot[capacity];
+        for (int i = 0; i < capacity; i++) {
+            ring[i] = new Slot();
+        }
+        mask = capacity - 1;
+
+        writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, "event-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                close();
+            }
+        }, "event-log-close"));
+    }
+
+    private EventLog() {
+    }
+
+    private static int threshold(String level) {
+        try {
+            return Level.valueOf(level.trim().toUpperCase(Locale.ROOT)).ordinal();
+        } catch (IllegalArgumentException e) {
+            System.out.println("[EventLog] Unknown level " + level + ", using INFO");
+            return Level.INFO.ordinal();
+        }
+    }
+
+    /**
+     * @return whether events of this level are logged
+     */
+    public static boolean isEnabled(Level level) {
+        return level.ordinal() >= THRESHOLD;
+    }
+
+    public static boolean isDebugEnabled() {
+        return Level.DEBUG.ordinal() >= THRESHOLD;
+    }
+
+    /**
+     * Set the testcase of the current worker, null when it is done with it.
+     */
+    public static void setTestcase(String testName) {
+        Context c = context.get();
+        c.testcase = testName;
+        c.step = -1;
+    }
+
+    /**
+     * Set the step index of the current worker, -1 outside of steps.
+     */
+    public static void setStep(int index) {
+        context.get().step = index;
+    }
+
+    public static void debug(String event, Object detail) {
+        if (Level.DEBUG.ordinal() >= THRESHOLD) {
+            log(Level.DEBUG, event, detail, null);
+        }
+    }
+
+    public static void info(String event, Object detail) {
+        if (Level.INFO.ordinal() >= THRESHOLD) {
+            log(Level.INFO, event, detail, null);
+        }
+    }
+
+    public static void warn(String event, Object detail, Throwable error) {
+        if (Level.WARN.ordinal() >= THRESHOLD) {
+            log(Level.WARN, event, detail, error);
+        }
+    }
+
+    public static void error(String event, Object detail, Throwable error) {
+        if (Level.ERROR.ordinal() >= THRESHOLD) {
+            log(Level.ERROR, event, detail, error);
+        }
+    }
+
+    /**
+     * Put an event into the ring.
+     *
+     * @param event  short fixed name of the event, e.g. "Click"
+     * @param detail formatted by the writer with String.valueOf, may be null
+     * @param error  may be null
+     */
+    public static void log(Level level, String event, Object detail, Throwable error) {
+        long sequence;
+        do {
+            sequence = claimed.get();
+            if (sequence - consumed.get() >= ring.length || closed) {
+                dropped.incrementAndGet();
+                return;
+            }
+        } while (!claimed.compareAndSet(sequence, sequence + 1));
+
+        Context c = context.get();
+        Slot slot = ring[(int) sequence & mask];
+        slot.level = level;
+        slot.timeMillis = System.currentTimeMillis();
+        slot.worker = c.worker;
+        slot.testcase = c.testcase;
+        slot.step = c.step;
+        slot.event = event;
+        slot.detail = detail;
+        slot.error = error;
+        slot.sequence = sequence;
+        if (parked) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    private static void drain() {
+        StringBuilder line = new StringBuilder(256);
+        boolean unflushed = false;
+        while (true) {
+            long cursor = consumed.get();
+            Slot slot = ring[(int) cursor & mask];
+            if (slot.sequence != cursor) {
+                if (unflushed) {
+                    flush();
+                    unflushed = false;
+                }
+                parked = true;
+                // an event published before parked was set is seen here, any later one unparks the writer
+                if (slot.sequence != cursor) {
+                    LockSupport.park();
+                }
+                parked = false;
+                continue;
+            }
+            try {
+                write(slot, line);
+            } catch (RuntimeException e) {
+                // a detail failing to format must not stop the writer
+            }
+            slot.detail = null;
+            slot.error = null;
+            consumed.lazySet(cursor + 1);
+            unflushed = true;
+        }
+    }
+
+    /**
+     * Create the event file, called by the writer with the first event.
+     */
+    private static void openFile() {
+        fileOpened = true;
+        File path = new File(System.getProperty("dbcs.log.file",
+                new File(System.getProperty("dbcs.report.dir", "."), "run_events.jsonl").getPath()));
+        try {
+            file = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(path), StandardCharsets.UTF_8),
+                    1 << 16);
+        } catch (IOException e) {
+            System.out.println("[EventLog] Can not write " + path + ", logging to the console only: " + e);
+        }
+    }
+
+    private static void write(Slot slot, StringBuilder line) {
+        String detail = slot.detail == null ? null : String.valueOf(slot.detail);
+        if (!fileOpened) {
+            openFile();
+        }
+        Writer file = EventLog.file;
+        if (file != null) {
+            line.setLength(0);
+            Map<String, Object> fields = new LinkedHashMap<>();
+            fields.put("time", slot.timeMillis);
+            fields.put("level", slot.level.name());
+            fields.put("worker", slot.worker);
+            if (slot.testcase != null) {
+                fields.put("testcase", slot.testcase);
+            }
+            if (slot.step >= 0) {
+                fields.put("step", slot.step);
+            }
+            fields.put("event", slot.event);
+            if (detail != null) {
+                fields.put("detail", detail);
+            }
+            if (slot.error != null) {
+                fields.put("error", String.valueOf(slot.error));
+            }
+            try (JsonOutput json = JSON.newOutput(line)) {
+                json.setPrettyPrint(false).write(fields);
+            }
+            line.append('\n');
+            try {
+                file.write(line.toString());
+            } catch (IOException e) {
+                // the console still has the event
+            }
+        }
+        if (CONSOLE) {
+            line.setLength(0);
+            line.append('[').append(slot.event).append(']');
+            if (slot.testcase != null) {
+                line.append(' ').append(slot.testcase);
+                if (slot.step >= 0) {
+                    line.append(" #").append(slot.step);
+                }
+            }
+            if (detail != null) {
+                line.append(' ').append(detail);
+            }
+            if (slot.error != null) {
+                line.append(": ").append(slot.error);
+            }
+            (slot.level.ordinal() >= Level.WARN.ordinal() ? System.err : System.out).println(line);
+        }
+    }
+
+    private static void flush() {
+        Writer file = EventLog.file;
+        try {
+            if (file != null) {
+                file.flush();
+            }
+        } catch (IOException e) {
+            // nothing more can be done
+        }
+    }
+
+    /**
+     * Wait until every event logged so far is written, then flush the event file.
+     */
+    public static void sync() {
+        awaitWritten(claimed.get());
+        flush();
+    }
+
+    private static void awaitWritten(long sequence) {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (consumed.get() < sequence && System.currentTimeMillis() < deadline) {
+            LockSupport.parkNanos(SYNC_PARK_NANOS);
+        }
+    }
+
+    /**
+     * Write the remaining events and stop accepting new ones, called at shutdown.
+     */
+    static void close() {
+        closed = true;
+        awaitWritten(claimed.get());
+        flush();
+        if (dropped.get() > 0) {
+            System.out.println("[EventLog] " + dropped.get() + " events dropped, the writer could not keep up");
+        }
+    }
+}
@@ -0,0 +1,354 @@
+package dbcs;
+
+import org.openqa.selenium.*;
+import org.openqa.selenium.json.*;
+import org.openqa.selenium.logging.*;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.security.*;
+import java.text.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.zip.*;
+
+/**
+ * Keeps the evidence of failed steps: a screenshot, the page source and the browser log taken at the failure.<br>
+ * <p>
+ * Only the grabbing is done on the test thread, while the failed session is still at hand, and it is skipped when
+ * the writer is already full. Decoding, hashing, compressing and writing are done by a background writer with a
+ * bounded queue, evidence arriving at a full queue is dropped and counted rather than blocking the worker.
+ * </p>
+ * <p>
+ * Artifacts are stored gzipped under the SHA-256 of their content in objects/, so a page or screenshot seen by
+ * several failures is kept once. Each failure gets a manifest in failures/ naming its artifacts, e.g.
+ * {"screenshot.png": hash}. When the store grows beyond its cap, the oldest failures are evicted together with the
+ * artifacts no other failure refers to.
+ * </p>
+ * The store is in the directory given by the dbcs.failure.dir system property, or in failure_store in
+ * dbcs.report.dir or the base path.
+ */
+public class FailureCapture {
+    private static final String MANIFESTS = "failures";
+    private static final String OBJECTS = "objects";
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+    /**
+     * A failure kept in the store
+     */
+    private static final class Manifest {
+        final File file;
+        final Collection<String> hashes;
+
+        Manifest(File file, Collection<String> hashes) {
+            this.file = file;
+            this.hashes = hashes;
+        }
+    }
+
+    /**
+     * Cleared the first time a session answers the log command with an error, geckodriver does not implement it
+     */
+    private static volatile boolean browserLogSupported = true;
+
+    private final File manifestDir;
+    private final File objectDir;
+    private final long maxBytes;
+    private final ThreadPoolExecutor writer;
+    private final AtomicLong captured = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    // index of the store, only used on the writer thread
+    private final Deque<Manifest> manifests = new ArrayDeque<>();
+    private final Map<String, Integer> references = new HashMap<>();
+    private final Map<String, Long> objectSizes = new HashMap<>();
+    private long storeBytes;
+    private long evicted;
+
+    /**
+     * @param dir       the store directory, created if missing
+     * @param maxBytes  size the store is kept under
+     * @param queueSize failures waiting for the writer before new ones are dropped
+     */
+    public FailureCapture(File dir, long maxBytes, int queueSize) {
+        this.manifestDir = new File(dir, MANIFESTS);
+        this.objectDir = new File(dir, OBJECTS);
+        this.maxBytes = maxBytes;
+        this.writer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(Math.max(1, queueSize) + 1), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "failure-capture");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                }, new RejectedExecutionHandler() {
+                    @Override
+                    public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                        dropped.incrementAndGet();
+                    }
+                });
+        // queued first, so the store is indexed before anything is added to it
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                index();
+            }
+        });
+    }
+
+    /**
+     * Take the evidence of a failure from the session it happened in and hand it to the writer. If the session does
+     * not even answer for its url, only the error is kept.
+     *
+     * @param autoDriver the session, still on the page of the failure
+     * @param testName   the failed testcase
+     * @param step       the failed step, null if the session or the login failed
+     * @param error      the failure
+     */
+    public void capture(AutoDriver autoDriver, String testName, Step step, Throwable error) {
+        if (writer.isShutdown() || writer.getQueue().remainingCapacity() == 0) {
+            dropped.incrementAndGet(); // would be dropped anyway, spare the worker the driver calls
+            return;
+        }
+        WebDriver driver = autoDriver.getDriver();
+        final Map<String, Object> manifest = new LinkedHashMap<>();
+        manifest.put("testcase", testName);
+        manifest.put("step", step == null ? null : step.index);
+        manifest.put("operation", step == null ? null : step.type.name());
+        manifest.put("time", System.currentTimeMillis());
+        manifest.put("error", String.valueOf(error));
+        String screenshot = null;
+        String source = null;
+        List<LogEntry> log = null;
+        boolean reachable = true;
+        try {
+            manifest.put("url", driver.getCurrentUrl());
+        } catch (WebDriverException e) {
+            // e.g. the session is gone, the other calls would fail the same way, each after its own timeout
+            manifest.put("url", null);
+            reachable = false;
+            EventLog.debug("FailureCapture", "browser unreachable, only the error is kept: " + e.getMessage());
+        }
+        if (reachable) {
+            try {
+                screenshot = ((TakesScreenshot) driver).getScreenshotAs(OutputType.BASE64);
+            } catch (WebDriverException | ClassCastException e) {
+                EventLog.debug("FailureCapture", "no screenshot: " + e.getMessage());
+            }
+            try {
+                source = driver.getPageSource();
+            } catch (WebDriverException e) {
+                EventLog.debug("FailureCapture", "no page source: " + e.getMessage());
+            }
+        }
+        if (reachable && browserLogSupported) {
+            try {
+                log = driver.manage().logs().get(LogType.BROWSER).getAll();
+            } catch (WebDriverException e) {
+                browserLogSupported = false;
+            }
+        }
+
+        final String screenshotBase64 = screenshot;
+        final String pageSource = source;
+        final List<LogEntry> browserLog = log;
+        final Throwable failure = error;
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                Map<String, byte[]> artifacts = new LinkedHashMap<>();
+                if (screenshotBase64 != null) {
+                    artifacts.put("screenshot.png", Base64.getMimeDecoder().decode(screenshotBase64));
+                }
+                if (pageSource != null) {
+                    artifacts.put("page.html", pageSource.getBytes(StandardCharsets.UTF_8));
+                }
+                if (browserLog != null && !browserLog.isEmpty()) {
+                    StringBuilder sb = new StringBuilder();
+                    for (LogEntry entry : browserLog) {
+                        sb.append(entry.toString()).append('\n');
+                    }
+                    artifacts.put("browser.log", sb.toString().getBytes(StandardCharsets.UTF_8));
+                }
+                StringWriter trace = new StringWriter();
+                failure.printStackTrace(new PrintWriter(trace));
+                artifacts.put("error.txt", trace.toString().getBytes(StandardCharsets.UTF_8));
+                try {
+                    store(manifest, artifacts);
+                    captured.incrementAndGet();
+                } catch (IOException | RuntimeException e) {
+                    dropped.incrementAndGet();
+                    EventLog.warn("FailureCapture", "failed to store evidence", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Let the writer finish the queued failures and report what was kept.
+     */
+    public void shutdown() {
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                writer.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        System.out.println(String.format(Locale.ROOT,
+                "[FailureCapture] %d failures captured, %d dropped, %d evicted, store %.1f MB in %s",
+                captured.get(), dropped.get(), evicted, storeBytes / 1048576.0, manifestDir.getParent()));
+    }
+
+    private void store(Map<String, Object> manifest, Map<String, byte[]> artifacts) throws IOException {
+        Map<String, Object> names = new LinkedHashMap<>();
+        for (Map.Entry<String, byte[]> artifact : artifacts.entrySet()) {
+            String hash = sha256(artifact.getValue());
+            if (!objectSizes.containsKey(hash)) {
+                File file = objectFile(hash);
+                file.getParentFile().mkdirs();
+                File tmp = new File(file.getParentFile(), hash + ".tmp");
+                try (OutputStream out = new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                    out.write(artifact.getValue());
+                }
+                if (!tmp.renameTo(file)) {
+                    tmp.delete();
+                    throw new IOException("Failed to move " + tmp + " to " + file);
+                }
+                objectSizes.put(hash, file.length());
+                storeBytes += file.length();
+            }
+            names.put(artifact.getKey(), hash);
+        }
+        manifest.put("artifacts", names);
+
+        manifestDir.mkdirs();
+        Object step = manifest.get("step");
+        String name = new SimpleDateFormat("yyyyMMdd-HHmmss-SSS", Locale.ROOT)
+                .format(new Date((Long) manifest.get("time")))
+                + "_" + String.valueOf(manifest.get("testcase")).replaceAll("[^A-Za-z0-9_.-]", "_")
+                + (step == null ? "" : "_step" + step) + ".json";
+        File file = new File(manifestDir, name);
+        for (int i = 1; file.exists(); i++) {
+            file = new File(manifestDir, name.replace(".json", "-" + i + ".json"));
+        }
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            out.write(new Json().toJson(manifest));
+        }
+        add(new Manifest(file, toStrings(names.values())));
+        evict();
+        EventLog.info("FailureCapture", file.getName());
+    }
+
+    private void add(Manifest manifest) {
+        manifests.addLast(manifest);
+        storeBytes += manifest.file.length();
+        for (String hash : manifest.hashes) {
+            Integer count = references.get(hash);
+            references.put(hash, count == null ? 1 : count + 1);
+        }
+    }
+
+    /**
+     * Remove the oldest failures and their unshared artifacts until the store is under its cap, always keeping the
+     * newest failure.
+     */
+    private void evict() {
+        while (storeBytes > maxBytes && manifests.size() > 1) {
+            Manifest oldest = manifests.removeFirst();
+            storeBytes -= oldest.file.length();
+            oldest.file.delete();
+            for (String hash : oldest.hashes) {
+                Integer count = references.get(hash);
+                if (count == null || count <= 1) {
+                    references.remove(hash);
+                    Long size = objectSizes.remove(hash);
+                    if (size != null) {
+                        storeBytes -= size;
+                        objectFile(hash).delete();
+                    }
+                } else {
+                    references.put(hash, count - 1);
+                }
+            }
+            evicted++;
+        }
+    }
+
+    /**
+     * Read the failures and artifacts a previous run left in the store, oldest first by their names. Artifacts no
+     * failure refers to, e.g. left by an interrupted run, are removed.
+     */
+    private void index() {
+        File[] files = manifestDir.listFiles();
+        if (files != null) {
+            Arrays.sort(files);
+            for (File file : files) {
+                if (!file.getName().endsWith(".json")) {
+                    continue;
+                }
+                try (Reader in = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+                    StringBuilder sb = new StringBuilder();
+                    char[] buf = new char[4096];
+                    for (int n; (n = in.read(buf)) > 0; ) {
+                        sb.append(buf, 0, n);
+                    }
+                    Map<String, Object> manifest = new Json().toType(sb.toString(), Json.MAP_TYPE);
+                    Object artifacts = manifest.get("artifacts");
+                    add(new Manifest(file, artifacts instanceof Map ? toStrings(((Map<?, ?>) artifacts).values())
+                            : Collections.<String>emptyList()));
+                } catch (IOException | RuntimeException e) {
+                    EventLog.warn("FailureCapture", "dropping unreadable manifest " + file.getName(), e);
+                    file.delete();
+                }
+            }
+        }
+        File[] prefixes = objectDir.listFiles();
+        if (prefixes != null) {
+            for (File prefix : prefixes) {
+                File[] objects = prefix.listFiles();
+                if (objects == null) {
+                    continue;
+                }
+                for (File object : objects) {
+                    String hash = object.getName().replace(".gz", "");
+                    if (references.containsKey(hash) && object.getName().endsWith(".gz")) {
+                        objectSizes.put(hash, object.length());
+                        storeBytes += object.length();
+                    } else {
+                        object.delete();
+                    }
+                }
+            }
+        }
+        evict();
+    }
+
+    private File objectFile(String hash) {
+        return new File(new File(objectDir, hash.substring(0, 2)), hash + ".gz");
+    }
+
+    private static List<String> toStrings(Collection<?> values) {
+        List<String> result = new ArrayList<>();
+        for (Object value : values) {
+            result.add(String.valueOf(value));
+        }
+        return result;
+    }
+
+    private static String sha256(byte[] data) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(data);
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(String.format("%02x", b & 0xff));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // every JRE has SHA-256
+        }
+    }
+}
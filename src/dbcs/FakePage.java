@@ -0,0 +1,284 @@
+package dbcs;
+
+import org.apache.commons.configuration2.*;
+import org.apache.commons.configuration2.tree.*;
+
+import java.util.*;
+
+/**
+ * Scriptable fake DOM served by the {@link StandInServer}, derived from the operations of a test configuration.<br>
+ * <p>
+ * Every xpath used by an operation becomes an element of a kind matching the operation: a select with options for
+ * SelectDropDown, a checkbox for SelectCheckBox, an input for KeyboardInput. Elements awaited by
+ * WaitAppearRepeatedly only appear after a number of page refreshes, elements awaited by WaitDisappearRepeatedly
+ * disappear after them and elements awaited by WaitInvisible are never present. The titles used by
+ * SelectPopupWindow open as extra windows. Any other xpath matches nothing.
+ * </p>
+ * <p>
+ * The elements of the login block are only present until the session is logged in: clicking the last element the
+ * login block clicks sets the {@link #SESSION_COOKIE} cookie, and a session holding that cookie is logged in.
+ * </p>
+ * The page itself is immutable and shared by all sessions, per session state is held in {@link Session}.
+ */
+class FakePage {
+    enum Kind {ELEMENT, INPUT, FILE_INPUT, SELECT, CHECKBOX}
+
+    enum Presence {ALWAYS, APPEARS, DISAPPEARS, NEVER}
+
+    static final String SESSION_COOKIE = "stand-in-session";
+
+    static final class Spec {
+        final int index;
+        final String xpath;
+        final Kind kind;
+        final Presence presence;
+        final List<String> options;
+        final boolean refreshes;
+
+        Spec(int index, String xpath, Kind kind, Presence presence, List<String> options, boolean refreshes) {
+            this.index = index;
+            this.xpath = xpath;
+            this.kind = kind;
+            this.presence = presence;
+            this.options = options;
+            this.refreshes = refreshes;
+        }
+
+        String tagName() {
+            switch (kind) {
+                case SELECT:
+                    return "select";
+                case INPUT:
+                case FILE_INPUT:
+                case CHECKBOX:
+                    return "input";
+                default:
+                    return "div";
+            }
+        }
+    }
+
+    private final Map<String, Spec> specsByXpath = new LinkedHashMap<>();
+    /**
+     * The same elements keyed by the CSS rewrite of their xpath, see {@link LocatorRewriter}
+     */
+    private final Map<String, Spec> specsByCss = new HashMap<>();
+    private final List<Spec> specs = new ArrayList<>();
+    private final List<String> popupTitles = new ArrayList<>();
+    private final Set<Integer> loginElements = new HashSet<>();
+    private int loginSubmit = -1;
+    private final int changeAfterRefreshes;
+
+    /**
+     * @param config               a whole &lt;config&gt; document
+     * @param changeAfterRefreshes number of refreshes after which awaited elements appear or disappear
+     */
+    FakePage(HierarchicalConfiguration<ImmutableNode> config, int changeAfterRefreshes) {
+        this.changeAfterRefreshes = changeAfterRefreshes;
+        List<HierarchicalConfiguration<ImmutableNode>> login = config.configurationsAt("login.operations.operation");
+        for (HierarchicalConfiguration<ImmutableNode> operation : login) {
+            add(operation);
+            Spec spec = find(operation.getString("[@xpath]", ""));
+            if (spec != null) {
+                loginElements.add(spec.index);
+                if ("Click".equals(operation.getString("[@name]"))) {
+                    loginSubmit = spec.index;
+                }
+            }
+        }
+        for (String key : new String[]{"monitor-wait.operations.operation",
+                "testcases.testcase.operations.operation"}) {
+            for (HierarchicalConfiguration<ImmutableNode> operation : config.configurationsAt(key)) {
+                add(operation);
+            }
+        }
+    }
+
+    private void add(HierarchicalConfiguration<ImmutableNode> operation) {
+        String name = operation.getString("[@name]", "");
+        String xpath = operation.getString("[@xpath]");
+        String refreshXpath = operation.getString("[@customize-refresh-xpath]");
+        if (refreshXpath != null && !specsByXpath.containsKey(refreshXpath)) {
+            put(refreshXpath, Kind.ELEMENT, Presence.ALWAYS, Collections.<String>emptyList(), true);
+        }
+        if (xpath == null || xpath.isEmpty() || "SelectFrame".equals(name)) {
+            return;
+        }
+        if ("SelectPopupWindow".equals(name)) {
+            if (!popupTitles.contains(xpath)) {
+                popupTitles.add(xpath);
+            }
+            return;
+        }
+        Spec existing = specsByXpath.get(xpath);
+        switch (name) {
+            case "WaitAppearRepeatedly":
+                put(xpath, Kind.ELEMENT, Presence.APPEARS, Collections.<String>emptyList(), false);
+                break;
+            case "WaitDisappearRepeatedly":
+                put(xpath, Kind.ELEMENT, Presence.DISAPPEARS, Collections.<String>emptyList(), false);
+                break;
+            case "WaitInvisible":
+                if (existing == null) {
+                    put(xpath, Kind.ELEMENT, Presence.NEVER, Collections.<String>emptyList(), false);
+                }
+                break;
+            case "SelectDropDown":
+                List<String> options = new ArrayList<>(existing == null ? Collections.<String>emptyList()
+                        : existing.options);
+                int count = Math.max(operation.getInt("[@select-index]", 0) + 1, 3);
+                while (options.size() < count) {
+                    options.add("Option " + options.size());
+                }
+                String text = operation.getString("[@select-text]");
+                if (text != null && !options.contains(text)) {
+                    options.add(text);
+                }
+                put(xpath, Kind.SELECT, Presence.ALWAYS, options, false);
+                break;
+            case "SelectCheckBox":
+                put(xpath, Kind.CHECKBOX, Presence.ALWAYS, Collections.<String>emptyList(), false);
+                break;
+            case "KeyboardInput":
+                put(xpath, operation.getString("[@relative-path]") != null ? Kind.FILE_INPUT : Kind.INPUT,
+                        Presence.ALWAYS, Collections.<String>emptyList(), false);
+                break;
+            default:
+                if (existing == null || existing.presence == Presence.NEVER) {
+                    put(xpath, Kind.ELEMENT, Presence.ALWAYS, Collections.<String>emptyList(), false);
+                }
+        }
+    }
+
+    private void put(String xpath, Kind kind, Presence presence, List<String> options, boolean refreshes) {
+        Spec existing = specsByXpath.get(xpath);
+        Spec spec = new Spec(existing == null ? specs.size() : existing.index, xpath, kind, presence,
+                Collections.unmodifiableList(options), refreshes || existing != null && existing.refreshes);
+        if (existing == null) {
+            specs.add(spec);
+        } else {
+            specs.set(spec.index, spec);
+        }
+        specsByXpath.put(xpath, spec);
+        String css = LocatorRewriter.toCss(xpath);
+        if (css != null) {
+            specsByCss.put(css, spec);
+        }
+    }
+
+    Spec find(String xpath) {
+        return specsByXpath.get(xpath);
+    }
+
+    Spec findByCss(String css) {
+        return specsByCss.get(css);
+    }
+
+    Spec get(int index) {
+        return index >= 0 && index < specs.size() ? specs.get(index) : null;
+    }
+
+    int size() {
+        return specs.size();
+    }
+
+    List<String> getPopupTitles() {
+        return popupTitles;
+    }
+
+    /**
+     * @return whether clicking this element logs the session in
+     */
+    boolean isLoginSubmit(Spec spec) {
+        return spec.index == loginSubmit;
+    }
+
+    /**
+     * State of one WebDriver session on the fake page.<br>
+     * Element references carry the refresh generation they were found in, so references found before a refresh
+     * are reported stale, as they would be in a browser.
+     */
+    class Session {
+        final String id;
+        String url = "about:blank";
+        String window = "main";
+        int refreshes;
+        /**
+         * Whether a page quiescence check has marked the current document, as the script does in a browser
+         */
+        boolean documentMarked;
+        final Map<Integer, String> values = new HashMap<>();
+        final Map<Integer, Integer> selectedOptions = new HashMap<>();
+        final Set<Integer> checked = new HashSet<>();
+        final Map<String, Map<String, Object>> cookies = new LinkedHashMap<>();
+
+        Session(String id) {
+            this.id = id;
+        }
+
+        boolean isPresent(Spec spec) {
+            if (loginElements.contains(spec.index) && cookies.containsKey(SESSION_COOKIE)) {
+                return false;
+            }
+            switch (spec.presence) {
+                case APPEARS:
+                    return refreshes >= changeAfterRefreshes;
+                case DISAPPEARS:
+                    return refreshes < changeAfterRefreshes;
+                case NEVER:
+                    return false;
+                default:
+                    return true;
+            }
+        }
+
+        void refresh() {
+            refreshes++;
+            documentMarked = false;
+        }
+
+        /**
+         * @return the element reference of spec in the current generation, option -1 for the element itself
+         */
+        String reference(Spec spec, int option) {
+            return refreshes + "-" + spec.index + (option >= 0 ? "-" + option : "");
+        }
+
+        /**
+         * @return {spec index, option index or -1}, or null if the reference is stale or unknown
+         */
+        int[] resolve(String reference) {
+            String[] parts = reference.split("-");
+            if (parts.length < 2 || !parts[0].equals(String.valueOf(refreshes))) {
+                return null;
+            }
+            try {
+                int index = Integer.parseInt(parts[1]);
+                int option = parts.length > 2 ? Integer.parseInt(parts[2]) : -1;
+                Spec spec = get(index);
+                if (spec == null || !isPresent(spec)) {
+                    return null;
+                }
+                return new int[]{index, option};
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        String title() {
+            if (!"main".equals(window)) {
+                return window.substring("popup-".length());
+            }
+            return "Stand-in " + url;
+        }
+
+        List<String> windowHandles() {
+            List<String> handles = new ArrayList<>();
+            handles.add("main");
+            for (String title : popupTitles) {
+                handles.add("popup-" + title);
+            }
+            return handles;
+        }
+    }
+}
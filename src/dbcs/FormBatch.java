@@ -0,0 +1,138 @@
+package dbcs;
+
+import org.openqa.selenium.*;
+
+import java.text.*;
+import java.util.*;
+import java.util.Date;
+
+/**
+ * Fills a run of consecutive KeyboardInput, SelectDropDown and SelectCheckBox steps in a single executeScript call.<br>
+ * <p>
+ * The browser sets each field through the native value setter and fires the input and change events APEX dynamic
+ * actions listen to. It stops at the first field it can not handle (not yet rendered, a file input, an option that
+ * does not exist yet), which is then executed through the normal per-step path with its waits, before the rest of
+ * the batch is sent again. The order of the steps is therefore always preserved.
+ * </p>
+ */
+final class FormBatch {
+
+    // arguments[0] is a list of [xpath, kind, value, css] fields, the xpath is evaluated unless its CSS rewrite is
+    // given, returns one status per step done plus the failure
+    private static final String FILL_SCRIPT =
+            "/*fill-form*/"
+            + "var fields = arguments[0], results = [];"
+            + "function fire(el, type) { el.dispatchEvent(new Event(type, {bubbles: true})); }"
+            + "for (var i = 0; i < fields.length; i++) {"
+            + "  var xpath = fields[i][0], kind = fields[i][1], value = fields[i][2], css = fields[i][3];"
+            + "  var el = css ? document.querySelector(css)"
+            + "      : document.evaluate(xpath, document, null, XPathResult.FIRST_ORDERED_NODE_TYPE, null)"
+            + "          .singleNodeValue;"
+            + "  if (!el) { results.push('absent'); break; }"
+            + "  if (!el.getClientRects().length || el.disabled) { results.push('not interactable'); break; }"
+            + "  if (kind === 'text') {"
+            + "    if (el.type === 'file' || !('value' in el)) { results.push('needs keystrokes'); break; }"
+            + "    var proto = el.tagName === 'TEXTAREA' ? HTMLTextAreaElement.prototype : HTMLInputElement.prototype;"
+            + "    el.focus();"
+            + "    Object.getOwnPropertyDescriptor(proto, 'value').set.call(el, value);"
+            + "    fire(el, 'input'); fire(el, 'change');"
+            + "  } else if (kind === 'index' || kind === 'text-option') {"
+            + "    if (el.tagName !== 'SELECT') { results.push('not a select'); break; }"
+            + "    var index = -1;"
+            + "    if (kind === 'index') { index = parseInt(value, 10); }"
+            + "    else for (var j = 0; j < el.options.length; j++) {"
+            + "      if (el.options[j].text.replace(/\\s+/g, ' ').trim() === value) { index = j; break; }"
+            + "    }"
+            + "    if (index < 0 || index >= el.options.length) { results.push('no such option'); break; }"
+            + "    if (el.selectedIndex !== index) { el.selectedIndex = index; fire(el, 'input'); fire(el, 'change'); }"
+            + "  } else if (kind === 'check') {"
+            + "    if (el.checked !== (value === 'true')) el.click();"
+            + "  }"
+            + "  results.push('ok');"
+            + "}"
+            + "return results;";
+
+    private FormBatch() {
+    }
+
+    /**
+     * @return whether the step may be filled in by script instead of through the driver
+     */
+    static boolean isBatchable(Step step) {
+        switch (step.type) {
+            case KeyboardInput:
+                return !step.realKeys;
+            case SelectDropDown:
+                return step.selectIndex != null || step.selectText != null;
+            case SelectCheckBox:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Execute all steps of a batch, in order.
+     *
+     * @param driver the driver to run on
+     * @param batch  the FormBatch step
+     */
+    static void execute(AutoDriver driver, Step batch) {
+        List<Step> steps = batch.batch;
+        int next = 0;
+        while (next < steps.size()) {
+            List<Step> pending = steps.subList(next, steps.size());
+            List<List<String>> fields = new ArrayList<>();
+            for (Step step : pending) {
+                fields.add(Arrays.asList(step.xpath, kindOf(step), valueOf(step), LocatorRewriter.cssFor(step.xpath)));
+            }
+
+            Object result = ((JavascriptExecutor) driver.getDriver()).executeScript(FILL_SCRIPT, fields);
+            List<?> statuses = result instanceof List ? (List<?>) result : Collections.emptyList();
+            for (Object status : statuses) {
+                Step step = steps.get(next);
+                if (!"ok".equals(status)) {
+                    // let the regular path wait for the field and use real keystrokes
+                    if (EventLog.isEnabled(EventLog.Level.INFO)) {
+                        EventLog.info("FormBatchFallback", status + ": " + step);
+                    }
+                    step.type.execute(driver, step);
+                }
+                next++;
+                if (!"ok".equals(status)) {
+                    break;
+                }
+            }
+            if (statuses.isEmpty()) {
+                // nothing was done at all, e.g. the page was navigating, fall back for one step
+                Step step = steps.get(next++);
+                step.type.execute(driver, step);
+            }
+        }
+        EventLog.info("FormBatch", steps.size());
+    }
+
+    private static String kindOf(Step step) {
+        switch (step.type) {
+            case KeyboardInput:
+                return "text";
+            case SelectDropDown:
+                return step.selectIndex != null ? "index" : "text-option";
+            default:
+                return "check";
+        }
+    }
+
+    private static String valueOf(Step step) {
+        switch (step.type) {
+            case KeyboardInput:
+                return step.dynamicTimeStamp
+                        ? step.value + new SimpleDateFormat("MM-dd-yyyy-HH-mm-ss").format(new Date())
+                        : step.value;
+            case SelectDropDown:
+                return step.selectIndex != null ? String.valueOf(step.selectIndex) : step.selectText;
+            default:
+                return String.valueOf(step.select);
+        }
+    }
+}
@@ -0,0 +1,396 @@
+package dbcs;
+
+import org.apache.commons.configuration2.*;
+import org.apache.commons.configuration2.tree.*;
+import org.openqa.selenium.*;
+import org.openqa.selenium.json.*;
+import org.openqa.selenium.remote.*;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.*;
+
+/**
+ * Spreads remote browser sessions over several Selenium hubs.<br>
+ * <p>
+ * Each hub has a capacity weight, a new session goes to the hub with the lowest share of its capacity in use, the
+ * faster hub winning ties. A hub that fails to create a session or fails its /status health check is backed off,
+ * for a time doubling with each consecutive failure, and the session is retried on another hub. A hub reporting it
+ * is not ready, i.e. full, or answering its health check slower than {@link #SLOW_STATUS_MILLIS} is skipped until
+ * the next check. A session refused for its capabilities fails at once, as no hub or retry would accept them.
+ * </p>
+ * Hubs are read from &lt;hubs&gt;&lt;hub url="..." capacity="4"/&gt;&lt;/hubs&gt; in the webdriver config, or from the
+ * dbcs.hub system property as a comma separated list of urls, each optionally followed by #capacity.
+ */
+public class HubAllocator {
+    private static final String DEFAULT_HUB = "http://slc04lwc.us.oracle.com:4444/wd/hub";
+    private static final int DEFAULT_CAPACITY = 4;
+    private static final long BASE_BACKOFF_MILLIS = 5000;
+    private static final long MAX_BACKOFF_MILLIS = 5 * 60 * 1000;
+    private static final long SLOW_STATUS_MILLIS = 3000;
+    private static final Json JSON = new Json();
+    private static final int HEALTH_CHECK_SECONDS = 30;
+    private static final int DEFAULT_SESSION_CREATE_TIMEOUT = 300;
+    /**
+     * Messages of geckodriver and the Selenium grids refusing the requested capabilities
+     */
+    private static final Pattern CAPABILITY_ERROR = Pattern.compile("(?i)matching set of capabilities"
+            + "|cannot find : Capabilities|no nodes support the capabilities|invalid argument");
+
+    static final class Hub {
+        final URL url;
+        final int capacity;
+        int active;
+        int consecutiveFailures;
+        long backoffUntilMillis;
+        /**
+         * Moving average of session creation time, 0 until the first session
+         */
+        double createMillis;
+        long sessionsCreated;
+        long failures;
+
+        Hub(URL url, int capacity) {
+            this.url = url;
+            this.capacity = capacity;
+        }
+
+        double load() {
+            return (double) active / capacity;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%s: %d/%d active, %d sessions created, %d failures, %.0f ms per session",
+                    url, active, capacity, sessionsCreated, failures, createMillis);
+        }
+    }
+
+    private static HubAllocator instance;
+
+    private final List<Hub> hubs;
+    private final long createTimeoutMillis;
+    private final long healthCheckMillis;
+    private final ScheduledExecutorService healthChecker;
+
+    /**
+     * @param hubs                the hubs to spread sessions over
+     * @param createTimeoutMillis how long {@link #newSession(Capabilities)} keeps trying before giving up
+     * @param healthCheckSeconds  period of the /status checks, 0 for none
+     */
+    public HubAllocator(List<Hub> hubs, long createTimeoutMillis, int healthCheckSeconds) {
+        if (hubs.isEmpty()) {
+            throw new IllegalArgumentException("No selenium hub configured");
+        }
+        this.hubs = new ArrayList<>(hubs);
+        this.createTimeoutMillis = createTimeoutMillis;
+        this.healthCheckMillis = healthCheckSeconds * 1000L;
+        if (healthCheckSeconds > 0 && hubs.size() > 1) {
+            healthChecker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "hub-health-check");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            healthChecker.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    checkHealth();
+                }
+            }, 0, healthCheckSeconds, TimeUnit.SECONDS);
+        } else {
+            healthChecker = null;
+        }
+    }
+
+    /**
+     * @return the allocator of the hubs in the configuration, created on first use
+     */
+    public static synchronized HubAllocator get() {
+        if (instance == null) {
+            instance = new HubAllocator(configuredHubs(),
+                    ConfigManager.getInt("session-create-timeout", DEFAULT_SESSION_CREATE_TIMEOUT) * 1000L,
+                    HEALTH_CHECK_SECONDS);
+        }
+        return instance;
+    }
+
+    private static List<Hub> configuredHubs() {
+        List<Hub> hubs = new ArrayList<>();
+        String property = System.getProperty("dbcs.hub");
+        if (property != null) {
+            for (String entry : property.split(",")) {
+                int hash = entry.indexOf('#');
+                String url = hash < 0 ? entry : entry.substring(0, hash);
+                int capacity = hash < 0 ? DEFAULT_CAPACITY : Integer.parseInt(entry.substring(hash + 1).trim());
+                hubs.add(newHub(url.trim(), capacity));
+            }
+            return hubs;
+        }
+        HierarchicalConfiguration<ImmutableNode> driverConfig = ConfigManager.getConfigsByName("webdriver");
+        for (HierarchicalConfiguration<ImmutableNode> hub : driverConfig.configurationsAt("hubs.hub")) {
+            hubs.add(newHub(hub.getString("[@url]"), hub.getInt("[@capacity]", DEFAULT_CAPACITY)));
+        }
+        if (hubs.isEmpty()) {
+            hubs.add(newHub(driverConfig.getString("hub", DEFAULT_HUB), DEFAULT_CAPACITY));
+        }
+        return hubs;
+    }
+
+    /**
+     * @return the hosts of the configured hubs
+     */
+    static List<String> configuredHosts() {
+        List<String> hosts = new ArrayList<>();
+        for (Hub hub : configuredHubs()) {
+            hosts.add(hub.url.getHost());
+        }
+        return hosts;
+    }
+
+    static Hub newHub(String url, int capacity) {
+        try {
+            return new Hub(new URL(url), Math.max(1, capacity));
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException("Invalid hub url " + url, e);
+        }
+    }
+
+    /**
+     * Create a remote browser session, on the least loaded healthy hub and retrying on the others if it fails.
+     *
+     * @return the session, its hub slot is freed when it is quit
+     * @throws WebDriverException if no hub created a session within the create timeout, or at once if the
+     *                             capabilities were refused
+     */
+    public WebDriver newSession(Capabilities capabilities) {
+        long deadline = System.currentTimeMillis() + createTimeoutMillis;
+        WebDriverException lastFailure = null;
+        while (System.currentTimeMillis() < deadline) {
+            Hub hub = reserve();
+            if (hub == null) {
+                // every hub is full or backed off
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                continue;
+            }
+            long start = System.nanoTime();
+            try {
+                RemoteWebDriver driver = new HubSession(hub, capabilities);
+                succeeded(hub, (System.nanoTime() - start) / 1e6);
+                return driver;
+            } catch (WebDriverException e) {
+                if (isCapabilityError(e)) {
+                    release(hub); // not the hub's fault
+                    throw e;
+                }
+                lastFailure = e;
+                failed(hub, firstLine(e.getMessage()));
+            }
+        }
+        throw new WebDriverException("No selenium hub created a session within " + createTimeoutMillis + " ms",
+                lastFailure);
+    }
+
+    /**
+     * @return whether the session was refused for its capabilities rather than for the state of the hub
+     */
+    static boolean isCapabilityError(WebDriverException e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof InvalidArgumentException) {
+                return true;
+            }
+            if (cause instanceof SessionNotCreatedException && cause.getMessage() != null
+                    && CAPABILITY_ERROR.matcher(cause.getMessage()).find()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A remote session giving its hub slot back when quit, and tracing its commands if enabled.
+     */
+    private class HubSession extends RemoteWebDriver {
+        private final Hub hub;
+        private boolean released;
+
+        HubSession(Hub hub, Capabilities capabilities) {
+            super(hub.url, capabilities);
+            this.hub = hub;
+            setCommandExecutor(TracingCommandExecutor.wrap(getCommandExecutor()));
+        }
+
+        @Override
+        public void quit() {
+            try {
+                super.quit();
+            } finally {
+                synchronized (this) {
+                    if (!released) {
+                        released = true;
+                        release(hub);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Take a slot on the least loaded available hub.
+     *
+     * @return the hub, or null if none has a free slot
+     */
+    private synchronized Hub reserve() {
+        long now = System.currentTimeMillis();
+        Hub best = null;
+        for (Hub hub : hubs) {
+            if (hub.backoffUntilMillis > now || hub.active >= hub.capacity) {
+                continue;
+            }
+            if (best == null || hub.load() < best.load()
+                    || hub.load() == best.load() && hub.createMillis < best.createMillis) {
+                best = hub;
+            }
+        }
+        if (best != null) {
+            best.active++;
+        }
+        return best;
+    }
+
+    private synchronized void release(Hub hub) {
+        hub.active--;
+    }
+
+    private synchronized void succeeded(Hub hub, double millis) {
+        hub.consecutiveFailures = 0;
+        hub.sessionsCreated++;
+        hub.createMillis = hub.createMillis == 0 ? millis : 0.8 * hub.createMillis + 0.2 * millis;
+    }
+
+    private synchronized void failed(Hub hub, String reason) {
+        hub.active--;
+        backOff(hub, reason);
+    }
+
+    private static String firstLine(String message) {
+        if (message == null) {
+            return "unknown error";
+        }
+        int newline = message.indexOf('\n');
+        return newline < 0 ? message : message.substring(0, newline);
+    }
+
+    private void backOff(Hub hub, String reason) {
+        hub.failures++;
+        long backoff = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << Math.min(hub.consecutiveFailures, 16));
+        hub.consecutiveFailures++;
+        hub.backoffUntilMillis = System.currentTimeMillis() + backoff;
+        System.out.println("[HubAllocator] Backing off " + hub.url + " for " + backoff / 1000 + " s: " + reason);
+    }
+
+    /**
+     * Query the /status of every hub, backing off those that are down and skipping those that are full or slow.
+     */
+    void checkHealth() {
+        for (Hub hub : hubs) {
+            long start = System.nanoTime();
+            String failure = null;
+            String notReady = null;
+            try {
+                notReady = readStatus(hub);
+            } catch (IOException | RuntimeException e) {
+                failure = "status check failed: " + e;
+            }
+            long millis = (System.nanoTime() - start) / 1000000;
+            synchronized (this) {
+                if (failure != null) {
+                    backOff(hub, failure);
+                } else if (notReady != null || millis > SLOW_STATUS_MILLIS) {
+                    hub.backoffUntilMillis = Math.max(hub.backoffUntilMillis,
+                            System.currentTimeMillis() + healthCheckMillis);
+                    if (millis > SLOW_STATUS_MILLIS) {
+                        System.out.println("[HubAllocator] " + hub.url + " is slow, status took " + millis + " ms");
+                    }
+                } else if (hub.backoffUntilMillis > System.currentTimeMillis()) {
+                    // healthy again, no need to wait for the backoff to expire
+                    hub.backoffUntilMillis = 0;
+                    hub.consecutiveFailures = 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return null if the hub is ready for new sessions, else the message of its status
+     * @throws IOException if the hub is down or answers with an error
+     */
+    private static String readStatus(Hub hub) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(hub.url.toString().replaceAll("/$", "")
+                + "/status").openConnection();
+        connection.setConnectTimeout((int) SLOW_STATUS_MILLIS);
+        connection.setReadTimeout((int) SLOW_STATUS_MILLIS * 2);
+        try {
+            if (connection.getResponseCode() != 200) {
+                throw new IOException("status returned HTTP " + connection.getResponseCode());
+            }
+            StringBuilder body = new StringBuilder();
+            try (Reader reader = new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8)) {
+                char[] buffer = new char[4096];
+                int n;
+                while ((n = reader.read(buffer)) > 0) {
+                    body.append(buffer, 0, n);
+                }
+            }
+            Map<String, Object> status = JSON.toType(body.toString(), Json.MAP_TYPE);
+            Object value = status.get("value");
+            if (value instanceof Map && Boolean.FALSE.equals(((Map<?, ?>) value).get("ready"))) {
+                return String.valueOf(((Map<?, ?>) value).get("message"));
+            }
+            return null;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * @return one line per hub with its load and history
+     */
+    public synchronized String summary() {
+        StringBuilder sb = new StringBuilder();
+        for (Hub hub : hubs) {
+            sb.append(hub).append('\n');
+        }
+        return sb.toString();
+    }
+
+    public void shutdown() {
+        if (healthChecker != null) {
+            healthChecker.shutdownNow();
+        }
+    }
+
+    /**
+     * Print the hub summary and stop the health checks, if any remote session was created.
+     */
+    static synchronized void shutdownInstance() {
+        if (instance != null) {
+            System.out.print("[HubAllocator] Hubs used:\n" + instance.summary());
+            instance.shutdown();
+            instance = null;
+        }
+    }
+}
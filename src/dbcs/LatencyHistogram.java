@@ -0,0 +1,94 @@
+package dbcs;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * Lock-free latency histogram with logarithmic buckets of microsecond resolution.<br>
+ * Every power of two is split into 16 linear sub-buckets, so any reported percentile is within 6.25% of the real
+ * value, while a histogram costs a fixed 656 counters no matter how many values are recorded.
+ * Safe to record into from several worker threads.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKETS = 16;
+    private static final int SUB_BITS = 4;
+    // values above 2^44 us (about 200 days) all land in the last bucket
+    private static final int MAX_MAGNITUDE = 43;
+    private static final int BUCKETS = (MAX_MAGNITUDE - SUB_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalMicros = new AtomicLong();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    static int index(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) Math.max(micros, 0);
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(micros);
+        if (magnitude > MAX_MAGNITUDE) {
+            return BUCKETS - 1;
+        }
+        int sub = (int) ((micros >>> (magnitude - SUB_BITS)) & (SUB_BUCKETS - 1));
+        return (magnitude - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    static long upperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int magnitude = index / SUB_BUCKETS + SUB_BITS - 1;
+        int sub = index % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + sub + 1) << (magnitude - SUB_BITS)) - 1;
+    }
+
+    /**
+     * @param nanos a measured duration in nanoseconds
+     */
+    public void record(long nanos) {
+        long micros = nanos / 1000;
+        counts.incrementAndGet(index(micros));
+        count.incrementAndGet();
+        totalMicros.addAndGet(micros);
+        long max = maxMicros.get();
+        while (micros > max && !maxMicros.compareAndSet(max, micros)) {
+            max = maxMicros.get();
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public double getTotalMillis() {
+        return totalMicros.get() / 1000.0;
+    }
+
+    public double getMaxMillis() {
+        return maxMicros.get() / 1000.0;
+    }
+
+    public double getMeanMillis() {
+        long n = count.get();
+        return n == 0 ? 0 : totalMicros.get() / 1000.0 / n;
+    }
+
+    /**
+     * @param quantile between 0 and 1, e.g. 0.99
+     * @return the value in milliseconds below which the given fraction of values fall
+     */
+    public double getPercentileMillis(double quantile) {
+        long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBound(i), maxMicros.get()) / 1000.0;
+            }
+        }
+        return getMaxMillis();
+    }
+}
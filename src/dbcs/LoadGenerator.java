@@ -0,0 +1,579 @@
+package dbcs;
+
+import org.apache.commons.configuration2.*;
+import org.apache.commons.configuration2.tree.*;
+import org.openqa.selenium.*;
+import org.openqa.selenium.json.*;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Load test mode, replaying one testcase as concurrent virtual users through the regular operation engine.<br>
+ * <p>
+ * Each virtual user owns a browser session, logs in once with the &lt;login&gt; block and then runs the testcase
+ * over and over from the page it landed on, pausing for the think time after every step. A failed iteration ends
+ * the session, the user logs in again in a new one. Two load models are supported:
+ * </p>
+ * <ul>
+ * <li>closed, the default: the users start one after another over the ramp-up and each starts its next iteration as
+ * soon as the previous one is done</li>
+ * <li>open, with --rate: iterations arrive at the given rate, growing linearly to it over the ramp-up, and are taken
+ * up by the next free user. An arrival finding every user busy and as many arrivals already waiting is missed.
+ * Iteration times count from the arrival, so waiting for a free user is part of them</li>
+ * </ul>
+ * <p>
+ * Every step is timed on the client, and after page changing steps the server response times (time to first byte)
+ * of the page and of the XMLHttpRequest and fetch requests it made are read from the browser's Resource Timing API.
+ * Both are reported per step as percentiles, with error rates, for the whole run and per time window, on the
+ * console and as load_report.json and load_report.csv.
+ * </p>
+ * Sessions are created like in a regular run: on the hubs given by -Ddbcs.hub or the webdriver config, e.g. a
+ * {@link StandInServer}, or as a local Firefox, headless unless -Ddbcs.headless=false.<br>
+ * Usage: java dbcs.LoadGenerator --testcase name [--users 10] [--ramp-up seconds] [--duration seconds]
+ * [--rate iterations-per-second] [--think-time ms] [--window seconds] [--report-dir dir]
+ */
+public class LoadGenerator {
+    private static final String ITERATION = "(iteration)";
+    private static final String LOGIN = "(login)";
+    private static final long ARRIVAL_POLL_MILLIS = 100;
+    /**
+     * How long the users may take to finish their last iteration once the duration is over
+     */
+    private static final long DRAIN_MILLIS = 5 * 60 * 1000;
+
+    // server response times in ms of the document, if not reported before, and of the requests made since last time
+    private static final String SERVER_TIMING_SCRIPT =
+            "/*server-timing*/"
+            + "var p = window.performance, result = [];"
+            + "if (!p || !p.getEntriesByType) return result;"
+            + "if (!window.__dbcsNavigationTimed) {"
+            + "  window.__dbcsNavigationTimed = true;"
+            + "  var nav = p.getEntriesByType('navigation')[0];"
+            + "  if (nav && nav.requestStart > 0 && nav.responseStart > 0) {"
+            + "    result.push(nav.responseStart - nav.requestStart);"
+            + "  }"
+            + "}"
+            + "var entries = p.getEntriesByType('resource');"
+            + "for (var i = 0; i < entries.length; i++) {"
+            + "  var e = entries[i];"
+            + "  if ((e.initiatorType === 'xmlhttprequest' || e.initiatorType === 'fetch') && e.requestStart > 0"
+            + "      && e.responseStart > 0) {"
+            + "    result.push(e.responseStart - e.requestStart);"
+            + "  }"
+            + "}"
+            + "p.clearResourceTimings();"
+            + "return result;";
+
+    /**
+     * Latencies and errors of one operation
+     */
+    static final class OperationStats {
+        final LatencyHistogram client = new LatencyHistogram();
+        final LatencyHistogram server = new LatencyHistogram();
+        final AtomicLong errors = new AtomicLong();
+    }
+
+    /**
+     * Everything recorded in one time window, or in the whole run
+     */
+    static final class Window {
+        final ConcurrentMap<String, OperationStats> operations = new ConcurrentHashMap<>();
+        final AtomicLong missedArrivals = new AtomicLong();
+        volatile int activeUsers;
+
+        OperationStats stats(String operation) {
+            OperationStats stats = operations.get(operation);
+            if (stats == null) {
+                stats = operations.computeIfAbsent(operation, k -> new OperationStats());
+            }
+            return stats;
+        }
+    }
+
+    private final String testName;
+    private final TestPlan plan;
+    private final int users;
+    private final long rampUpMillis;
+    private final long durationMillis;
+    private final double arrivalRate;
+    private final long thinkTimeMillis;
+    private final long windowMillis;
+
+    private final ConcurrentMap<Integer, Window> timeline = new ConcurrentHashMap<>();
+    private final Window total = new Window();
+    private final AtomicInteger activeUsers = new AtomicInteger();
+    private final AtomicLong iterations = new AtomicLong();
+    private final AtomicLong failedIterations = new AtomicLong();
+    private final BlockingQueue<Long> arrivals = new LinkedBlockingQueue<>();
+    private final boolean remote = AutoDriver.isRemote();
+    private volatile long startNanos;
+    private volatile boolean stopping;
+
+    /**
+     * @param testName        the testcase replayed, for reports
+     * @param plan            the compiled testcase
+     * @param users           number of virtual users
+     * @param rampUpMillis    time over which the users start, or the arrival rate grows
+     * @param durationMillis  length of the run, including the ramp-up
+     * @param arrivalRate     iterations started per second, 0 for a closed model
+     * @param thinkTimeMillis mean pause after each step, varied by up to half either way
+     * @param windowMillis    length of the time windows reported
+     */
+    public LoadGenerator(String testName, TestPlan plan, int users, long rampUpMillis, long durationMillis,
+            double arrivalRate, long thinkTimeMillis, long windowMillis) {
+        this.testName = testName;
+        this.plan = plan;
+        this.users = users;
+        this.rampUpMillis = rampUpMillis;
+        this.durationMillis = durationMillis;
+        this.arrivalRate = arrivalRate;
+        this.thinkTimeMillis = thinkTimeMillis;
+        this.windowMillis = Math.max(1000, windowMillis);
+    }
+
+    /**
+     * Run the load for the whole duration and wait for the users to finish their last iteration.
+     */
+    public void run() throws InterruptedException {
+        System.out.println("[Load] " + users + " users replaying " + testName + " for " + durationMillis / 1000
+                + " s, " + (arrivalRate > 0 ? arrivalRate + " iterations/s" : "closed model") + ", ramp-up "
+                + rampUpMillis / 1000 + " s, think time " + thinkTimeMillis + " ms");
+        startNanos = System.nanoTime();
+        final long deadline = startNanos + durationMillis * 1000000;
+        ExecutorService virtualUsers = Executors.newFixedThreadPool(users, new ThreadFactory() {
+            private final AtomicLong count = new AtomicLong();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, "virtual-user-" + count.incrementAndGet());
+            }
+        });
+        for (int i = 0; i < users; i++) {
+            // in the open model the rate ramps up, the users are all there from the start
+            final long startDelayMillis = arrivalRate > 0 ? 0 : rampUpMillis * i / users;
+            virtualUsers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    virtualUser(startDelayMillis);
+                }
+            });
+        }
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "load-reporter");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        reporter.scheduleAtFixedRate(new Runnable() {
+            private int next;
+
+            @Override
+            public void run() {
+                printWindow(next++);
+            }
+        }, windowMillis, windowMillis, TimeUnit.MILLISECONDS);
+
+        if (arrivalRate > 0) {
+            generateArrivals(deadline);
+        } else {
+            TimeUnit.NANOSECONDS.sleep(Math.max(0, deadline - System.nanoTime()));
+        }
+        stopping = true;
+        arrivals.clear();
+        virtualUsers.shutdown();
+        if (!virtualUsers.awaitTermination(DRAIN_MILLIS, TimeUnit.MILLISECONDS)) {
+            System.out.println("[Load] Users still busy " + DRAIN_MILLIS / 1000 + " s after the end, stopping them");
+            virtualUsers.shutdownNow();
+        }
+        reporter.shutdownNow();
+        System.out.println("[Load] " + iterations.get() + " iterations, " + failedIterations.get() + " failed"
+                + (total.missedArrivals.get() > 0 ? ", " + total.missedArrivals.get() + " arrivals missed" : ""));
+        printStats("total", total);
+    }
+
+    /**
+     * Put arrivals on the queue at the target rate until the deadline.
+     */
+    private void generateArrivals(long deadline) throws InterruptedException {
+        long next = startNanos;
+        while (next < deadline) {
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+            if (arrivals.size() >= users) {
+                window(next).missedArrivals.incrementAndGet();
+                total.missedArrivals.incrementAndGet();
+            } else {
+                arrivals.add(next);
+            }
+            double elapsedSeconds = Math.max(1, (next - startNanos) / 1e9);
+            double rate = rampUpMillis > 0 ? arrivalRate * Math.min(1, elapsedSeconds * 1000 / rampUpMillis)
+                    : arrivalRate;
+            next += (long) (1e9 / rate);
+        }
+    }
+
+    private void virtualUser(long startDelayMillis) {
+        EventLog.setTestcase(testName);
+        if (!pause(startDelayMillis)) {
+            return;
+        }
+        LoginSession login = createLoginSession();
+        AutoDriver driver = null;
+        String landingUrl = null;
+        boolean onLandingPage = false;
+        activeUsers.incrementAndGet();
+        try {
+            while (!stopping) {
+                long arrival = 0;
+                if (arrivalRate > 0) {
+                    Long next = arrivals.poll(ARRIVAL_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                    if (next == null) {
+                        continue;
+                    }
+                    arrival = next;
+                }
+                try {
+                    if (driver == null) {
+                        long start = System.nanoTime();
+                        driver = new AutoDriver(remote);
+                        login.login(driver);
+                        record(LOGIN, start, System.nanoTime() - start);
+                        landingUrl = driver.getDriver().getCurrentUrl();
+                        onLandingPage = true;
+                    }
+                    if (!onLandingPage) {
+                        driver.open(landingUrl);
+                    }
+                } catch (RuntimeException e) {
+                    long now = System.nanoTime();
+                    window(now).stats(LOGIN).errors.incrementAndGet();
+                    total.stats(LOGIN).errors.incrementAndGet();
+                    failedIterations.incrementAndGet();
+                    EventLog.warn("Load", "failed to start a session", e);
+                    quietlyQuit(driver);
+                    driver = null;
+                    pause(thinkTimeMillis);
+                    continue;
+                }
+                onLandingPage = false;
+                if (!iteration(driver, arrival)) {
+                    quietlyQuit(driver);
+                    driver = null;
+                }
+            }
+        } catch (InterruptedException e) {
+            // stopped at the end of the drain time
+        } finally {
+            activeUsers.decrementAndGet();
+            quietlyQuit(driver);
+            EventLog.setTestcase(null);
+        }
+    }
+
+    /**
+     * Run the testcase once.
+     *
+     * @param arrival System.nanoTime() the iteration arrived at in the open model, else 0
+     * @return false if a step failed
+     */
+    private boolean iteration(AutoDriver driver, long arrival) {
+        long start = arrival > 0 ? arrival : System.nanoTime();
+        serverTimes(driver); // drop what the previous iteration left
+        try {
+            for (Step step : plan.getSteps()) {
+                String operation = "#" + step.index + " " + step.type;
+                long stepStart = System.nanoTime();
+                try {
+                    driver.executeStep(step);
+                } catch (RuntimeException e) {
+                    long now = System.nanoTime();
+                    window(now).stats(operation).errors.incrementAndGet();
+                    total.stats(operation).errors.incrementAndGet();
+                    window(now).stats(ITERATION).errors.incrementAndGet();
+                    total.stats(ITERATION).errors.incrementAndGet();
+                    failedIterations.incrementAndGet();
+                    EventLog.warn("Load", step, e);
+                    return false;
+                }
+                record(operation, stepStart, System.nanoTime() - stepStart);
+                if (step.type.changesPage()) {
+                    for (Object millis : serverTimes(driver)) {
+                        if (millis instanceof Number) {
+                            recordServer(operation, (long) (((Number) millis).doubleValue() * 1e6));
+                        }
+                    }
+                }
+                if (!pause(thinkTimeMillis)) {
+                    return true;
+                }
+            }
+            record(ITERATION, start, System.nanoTime() - start);
+            iterations.incrementAndGet();
+            return true;
+        } finally {
+            EventLog.setStep(-1);
+        }
+    }
+
+    private static List<?> serverTimes(AutoDriver driver) {
+        try {
+            Object result = ((JavascriptExecutor) driver.getDriver()).executeScript(SERVER_TIMING_SCRIPT);
+            return result instanceof List ? (List<?>) result : Collections.emptyList();
+        } catch (WebDriverException e) {
+            return Collections.emptyList(); // e.g. the page is still navigating, its requests count next time
+        }
+    }
+
+    private void record(String operation, long start, long nanos) {
+        long end = start + nanos;
+        window(end).stats(operation).client.record(nanos);
+        total.stats(operation).client.record(nanos);
+    }
+
+    private void recordServer(String operation, long nanos) {
+        window(System.nanoTime()).stats(operation).server.record(nanos);
+        total.stats(operation).server.record(nanos);
+    }
+
+    private Window window(long nanos) {
+        int index = (int) Math.max(0, (nanos - startNanos) / (windowMillis * 1000000));
+        Window window = timeline.get(index);
+        if (window == null) {
+            window = timeline.computeIfAbsent(index, k -> new Window());
+        }
+        return window;
+    }
+
+    /**
+     * Sleep for about millis, varied by up to half either way.
+     *
+     * @return false if the run was stopped or interrupted meanwhile
+     */
+    private boolean pause(long millis) {
+        if (millis > 0) {
+            try {
+                Thread.sleep(millis / 2 + ThreadLocalRandom.current().nextLong(millis + 1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return !stopping;
+    }
+
+    private static void quietlyQuit(AutoDriver driver) {
+        if (driver == null) {
+            return;
+        }
+        try {
+            driver.quit();
+        } catch (WebDriverException e) {
+            EventLog.warn("Load", "failed to quit browser session", e);
+        }
+    }
+
+    /**
+     * @return a login of its own for a virtual user, so every user is a separate visitor to the server
+     */
+    private static LoginSession createLoginSession() {
+        HierarchicalConfiguration<ImmutableNode> loginConfig = ConfigManager.getConfigsByName("login");
+        return new LoginSession(loginConfig.getString("url"), loginConfig.getString("seed-url"),
+                loginConfig.getString("check-xpath"), PlanCompiler.compileBlock("login", loginConfig), 0);
+    }
+
+    private void printWindow(int index) {
+        Window window = timeline.get(index);
+        if (window == null) {
+            window = timeline.computeIfAbsent(index, k -> new Window());
+        }
+        window.activeUsers = activeUsers.get();
+        printStats(index * windowMillis / 1000 + "-" + (index + 1) * windowMillis / 1000 + " s, "
+                + window.activeUsers + " users", window);
+    }
+
+    private void printStats(String title, Window window) {
+        long steps = 0;
+        long errors = 0;
+        for (Map.Entry<String, OperationStats> entry : window.operations.entrySet()) {
+            if (!entry.getKey().startsWith("(")) {
+                steps += entry.getValue().client.getCount();
+                errors += entry.getValue().errors.get();
+            }
+        }
+        OperationStats iteration = window.operations.get(ITERATION);
+        StringBuilder line = new StringBuilder("[Load] ").append(title).append(": ").append(steps).append(" steps, ")
+                .append(errors).append(" errors");
+        if (iteration != null && iteration.client.getCount() > 0) {
+            line.append(String.format(Locale.ROOT, ", %d iterations p50 %.0f ms p90 %.0f ms",
+                    iteration.client.getCount(), iteration.client.getPercentileMillis(0.5),
+                    iteration.client.getPercentileMillis(0.9)));
+        }
+        if (window.missedArrivals.get() > 0) {
+            line.append(", ").append(window.missedArrivals.get()).append(" arrivals missed");
+        }
+        System.out.println(line);
+    }
+
+    /**
+     * Write load_report.json and load_report.csv.
+     *
+     * @param dir the directory to write to
+     */
+    public void writeReport(File dir) throws IOException {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("testcase", testName);
+        report.put("users", users);
+        report.put("ramp_up_s", rampUpMillis / 1000.0);
+        report.put("duration_s", durationMillis / 1000.0);
+        report.put("arrival_rate_per_s", arrivalRate > 0 ? arrivalRate : null);
+        report.put("think_time_ms", thinkTimeMillis);
+        report.put("window_s", windowMillis / 1000.0);
+        report.put("iterations", iterations.get());
+        report.put("failed_iterations", failedIterations.get());
+        report.put("missed_arrivals", total.missedArrivals.get());
+        report.put("operations", summaries(total));
+        List<Object> windows = new ArrayList<>();
+        for (Map.Entry<Integer, Window> entry : new TreeMap<>(timeline).entrySet()) {
+            Map<String, Object> window = new LinkedHashMap<>();
+            window.put("start_s", entry.getKey() * windowMillis / 1000.0);
+            window.put("active_users", entry.getValue().activeUsers);
+            window.put("missed_arrivals", entry.getValue().missedArrivals.get());
+            window.put("operations", summaries(entry.getValue()));
+            windows.add(window);
+        }
+        report.put("timeline", windows);
+
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(new File(dir, "load_report.json")),
+                StandardCharsets.UTF_8)) {
+            out.write(new Json().toJson(report));
+        }
+
+        try (PrintWriter out = new PrintWriter(new OutputStreamWriter(
+                new FileOutputStream(new File(dir, "load_report.csv")), StandardCharsets.UTF_8))) {
+            out.println("window_start_s,operation,count,errors,error_rate,p50_ms,p90_ms,p99_ms,server_count,"
+                    + "server_p50_ms,server_p90_ms,server_p99_ms");
+            for (Map.Entry<Integer, Window> entry : new TreeMap<>(timeline).entrySet()) {
+                writeCsv(out, String.valueOf(entry.getKey() * windowMillis / 1000), entry.getValue());
+            }
+            writeCsv(out, "total", total);
+        }
+        System.out.println("[Load] Report written to " + dir);
+    }
+
+    private static Map<String, Object> summaries(Window window) {
+        Map<String, Object> result = new TreeMap<>();
+        for (Map.Entry<String, OperationStats> entry : window.operations.entrySet()) {
+            OperationStats stats = entry.getValue();
+            long count = stats.client.getCount();
+            long errors = stats.errors.get();
+            Map<String, Object> op = new LinkedHashMap<>();
+            op.put("count", count);
+            op.put("errors", errors);
+            op.put("error_rate", count + errors == 0 ? 0.0 : (double) errors / (count + errors));
+            op.put("client", percentiles(stats.client));
+            if (stats.server.getCount() > 0) {
+                op.put("server", percentiles(stats.server));
+            }
+            result.put(entry.getKey(), op);
+        }
+        return result;
+    }
+
+    private static Map<String, Object> percentiles(LatencyHistogram histogram) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("count", histogram.getCount());
+        result.put("p50_ms", histogram.getPercentileMillis(0.5));
+        result.put("p90_ms", histogram.getPercentileMillis(0.9));
+        result.put("p99_ms", histogram.getPercentileMillis(0.99));
+        result.put("max_ms", histogram.getMaxMillis());
+        return result;
+    }
+
+    private static void writeCsv(PrintWriter out, String window, Window stats) {
+        for (Map.Entry<String, OperationStats> entry : new TreeMap<>(stats.operations).entrySet()) {
+            OperationStats op = entry.getValue();
+            long count = op.client.getCount();
+            long errors = op.errors.get();
+            out.println(String.format(Locale.ROOT, "%s,\"%s\",%d,%d,%.4f,%.3f,%.3f,%.3f,%d,%.3f,%.3f,%.3f", window,
+                    entry.getKey(), count, errors, count + errors == 0 ? 0.0 : (double) errors / (count + errors),
+                    op.client.getPercentileMillis(0.5), op.client.getPercentileMillis(0.9),
+                    op.client.getPercentileMillis(0.99), op.server.getCount(), op.server.getPercentileMillis(0.5),
+                    op.server.getPercentileMillis(0.9), op.server.getPercentileMillis(0.99)));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (System.getProperty("dbcs.log.level") == null) {
+            System.setProperty("dbcs.log.level", "WARN"); // a line per step of every user would drown the report
+        }
+        if (System.getProperty("dbcs.headless") == null) {
+            System.setProperty("dbcs.headless", "true");
+        }
+        String testName = null;
+        int users = 10;
+        long rampUpMillis = 0;
+        long durationMillis = 60000;
+        double arrivalRate = 0;
+        long thinkTimeMillis = 0;
+        long windowMillis = 10000;
+        File reportDir = new File(System.getProperty("dbcs.report.dir", "."));
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String name = args[i];
+            String value = args[i + 1];
+            if ("--testcase".equals(name)) {
+                testName = value;
+            } else if ("--users".equals(name)) {
+                users = Integer.parseInt(value);
+            } else if ("--ramp-up".equals(name)) {
+                rampUpMillis = (long) (Double.parseDouble(value) * 1000);
+            } else if ("--duration".equals(name)) {
+                durationMillis = (long) (Double.parseDouble(value) * 1000);
+            } else if ("--rate".equals(name)) {
+                arrivalRate = Double.parseDouble(value);
+            } else if ("--think-time".equals(name)) {
+                thinkTimeMillis = Long.parseLong(value);
+            } else if ("--window".equals(name)) {
+                windowMillis = (long) (Double.parseDouble(value) * 1000);
+            } else if ("--report-dir".equals(name)) {
+                reportDir = new File(value);
+            } else {
+                System.out.println("[Error] Unknown option " + name);
+                System.exit(1);
+            }
+        }
+        if (testName == null || users < 1) {
+            System.out.println("Usage: LoadGenerator --testcase name [--users 10] [--ramp-up seconds]"
+                    + " [--duration seconds] [--rate iterations-per-second] [--think-time ms] [--window seconds]"
+                    + " [--report-dir dir]");
+            System.exit(1);
+        }
+
+        LocatorRewriter.setEnabled(ConfigManager.getBoolean("rewrite-locators", true));
+        TestcaseSource source = new TestcaseSource(ConfigManager.getConfigsByName("testcases"),
+                Collections.<Object>singletonList(testName), ConfigManager.getBoolean("batch-form-steps", false));
+        if (source.size() == 0) {
+            System.out.println("[Error] No testcase named " + testName);
+            System.exit(1);
+        }
+        TestPlan plan = source.iterator().next().compile();
+
+        LoadGenerator load = new LoadGenerator(testName, plan, users, rampUpMillis, durationMillis, arrivalRate,
+                thinkTimeMillis, windowMillis);
+        try {
+            load.run();
+        } finally {
+            HubAllocator.shutdownInstance();
+            ResourceBlocker.shutdownInstance(reportDir);
+        }
+        load.writeReport(reportDir);
+        EventLog.sync();
+    }
+}
@@ -0,0 +1,361 @@
+package dbcs;
+
+import org.apache.commons.configuration2.*;
+import org.apache.commons.configuration2.io.*;
+import org.apache.commons.configuration2.tree.*;
+import org.openqa.selenium.*;
+import org.openqa.selenium.firefox.*;
+import org.openqa.selenium.json.*;
+import org.openqa.selenium.remote.*;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Offline analysis of the locators of a test configuration.<br>
+ * <p>
+ * Collects every xpath used by the login, monitor-wait and testcase operations, shows which ones
+ * {@link LocatorRewriter} turns into CSS selectors at run time and why the others are kept as xpath. Given captured
+ * pages (e.g. saved with the browser's "Save Page As", or from getPageSource()), it also times every locator and its
+ * rewrite against each page in a browser, checks that both find the same element, and for slow xpaths suggests a
+ * simpler locator for the element they find, by a unique id, name or other identifying attribute. The pages are
+ * parsed with DOMParser in a blank tab, so their scripts do not run and no server is needed.
+ * </p>
+ * Results are printed slowest first and written to locator_report.json.<br>
+ * Usage: java dbcs.LocatorAnalyzer --config test_list.xml|snapshot.gz [--page page.html]... [--hub url]
+ * [--top 20] [--min-millis 50] [--report-dir dir]
+ */
+public class LocatorAnalyzer {
+    /**
+     * Operations whose xpath attribute holds no xpath
+     */
+    private static final Set<String> NOT_XPATH = new HashSet<>(Arrays.asList("SelectPopupWindow", "SelectFrame",
+            "Checkpoint"));
+
+    private static final String LOAD_SCRIPT =
+            "/*load-snapshot*/"
+            + "window.__dbcsSnapshot = new DOMParser().parseFromString(arguments[0], 'text/html');"
+            + "return window.__dbcsSnapshot.getElementsByTagName('*').length;";
+
+    // times the xpath and its CSS rewrite, evaluated the way the operations do, for at least arguments[2] ms each
+    private static final String TIME_SCRIPT =
+            "/*time-locator*/"
+            + "var doc = window.__dbcsSnapshot, xpath = arguments[0], css = arguments[1], minMillis = arguments[2];"
+            + "function first() {"
+            + "  return doc.evaluate(xpath, doc, null, XPathResult.FIRST_ORDERED_NODE_TYPE, null).singleNodeValue;"
+            + "}"
+            + "function time(f) {"
+            + "  var n = 0, start = performance.now(), now;"
+            + "  do { f(); n++; now = performance.now(); } while (now - start < minMillis);"
+            + "  return (now - start) * 1000 / n;"
+            + "}"
+            + "var result = {}, node;"
+            + "try { node = first(); } catch (e) { return {error: 'invalid xpath: ' + e.message}; }"
+            + "result.xpathMicros = time(first);"
+            + "result.xpathMatches = doc.evaluate(xpath, doc, null, XPathResult.ORDERED_NODE_SNAPSHOT_TYPE, null)"
+            + "    .snapshotLength;"
+            + "if (css) {"
+            + "  result.cssMicros = time(function() { return doc.querySelector(css); });"
+            + "  result.cssMatches = doc.querySelectorAll(css).length;"
+            + "  result.sameElement = doc.querySelector(css) === node;"
+            + "}"
+            + "function literal(v) { return v.indexOf(\"'\") < 0 ? \"'\" + v + \"'\" : '\"' + v + '\"'; }"
+            + "function unique(tag, name, v) {"
+            + "  var found = doc.getElementsByTagName(tag), count = 0;"
+            + "  for (var i = 0; i < found.length && count < 2; i++) {"
+            + "    if (found[i].getAttribute(name) === v) count++;"
+            + "  }"
+            + "  return count === 1;"
+            + "}"
+            + "if (node && node.nodeType === 1) {"
+            + "  var tag = node.tagName.toLowerCase(), names = ['id', 'name', 'aria-label', 'title'];"
+            + "  for (var i = 0; i < node.attributes.length; i++) {"
+            + "    if (node.attributes[i].name.indexOf('data-') === 0) names.push(node.attributes[i].name);"
+            + "  }"
+            + "  for (var j = 0; j < names.length && !result.suggestion; j++) {"
+            + "    var v = node.getAttribute(names[j]);"
+            + "    if (!v || v.indexOf(\"'\") >= 0 && v.indexOf('\"') >= 0) continue;"
+            + "    if (names[j] === 'id' ? unique('*', 'id', v) : unique(tag, names[j], v)) {"
+            + "      result.suggestion = names[j] === 'id' ? \"//*[@id=\" + literal(v) + ']'"
+            + "          : '//' + tag + '[@' + names[j] + '=' + literal(v) + ']';"
+            + "    }"
+            + "  }"
+            + "}"
+            + "return result;";
+
+    /**
+     * A distinct xpath and where it is used
+     */
+    static final class Locator {
+        final String xpath;
+        final String css;
+        final String whyNotRewritten;
+        final Set<String> usedBy = new TreeSet<>();
+        int uses;
+        /**
+         * Timing results per page
+         */
+        final Map<String, Map<String, Object>> pages = new LinkedHashMap<>();
+
+        Locator(String xpath) {
+            this.xpath = xpath;
+            this.css = LocatorRewriter.toCss(xpath);
+            this.whyNotRewritten = css == null ? LocatorRewriter.whyNotRewritten(xpath) : null;
+        }
+
+        /**
+         * @return the slowest xpath evaluation over all pages in microseconds, -1 if not timed
+         */
+        double slowestMicros() {
+            double slowest = -1;
+            for (Map<String, Object> timing : pages.values()) {
+                if (timing.get("xpathMicros") instanceof Number) {
+                    slowest = Math.max(slowest, ((Number) timing.get("xpathMicros")).doubleValue());
+                }
+            }
+            return slowest;
+        }
+    }
+
+    /**
+     * Collect the distinct xpaths of a whole &lt;config&gt; document.
+     *
+     * @return the locators in order of first use
+     */
+    static Map<String, Locator> collect(HierarchicalConfiguration<ImmutableNode> config) {
+        Map<String, Locator> locators = new LinkedHashMap<>();
+        collect(locators, "login", config.configurationsAt("login.operations.operation"));
+        collect(locators, "monitor-wait", config.configurationsAt("monitor-wait.operations.operation"));
+        for (HierarchicalConfiguration<ImmutableNode> testcase : config.configurationsAt("testcases.testcase")) {
+            collect(locators, testcase.getString("[@name]", "unknown test"),
+                    testcase.configurationsAt("operations.operation"));
+        }
+        return locators;
+    }
+
+    private static void collect(Map<String, Locator> locators, String usedBy,
+            List<HierarchicalConfiguration<ImmutableNode>> operations) {
+        for (HierarchicalConfiguration<ImmutableNode> operation : operations) {
+            String name = operation.getString("[@name]", "");
+            if (NOT_XPATH.contains(name)) {
+                continue;
+            }
+            // the xpath of ClickIfAnotherElementExist is completed at run time
+            if (!"ClickIfAnotherElementExist".equals(name)) {
+                add(locators, usedBy, operation.getString("[@xpath]"));
+            }
+            add(locators, usedBy, operation.getString("[@customize-refresh-xpath]"));
+            add(locators, usedBy, operation.getString("element[@xpath]"));
+        }
+    }
+
+    private static void add(Map<String, Locator> locators, String usedBy, String xpath) {
+        if (xpath == null || xpath.trim().isEmpty()) {
+            return;
+        }
+        Locator locator = locators.get(xpath);
+        if (locator == null) {
+            locator = new Locator(xpath);
+            locators.put(xpath, locator);
+        }
+        locator.uses++;
+        locator.usedBy.add(usedBy);
+    }
+
+    /**
+     * Time every locator against a captured page.
+     *
+     * @param driver    a browser session
+     * @param page      the captured page
+     * @param minMillis time spent evaluating each locator, longer gives steadier numbers
+     */
+    static void time(WebDriver driver, File page, Collection<Locator> locators, long minMillis) throws IOException {
+        String html = new String(Files.readAllBytes(page.toPath()), StandardCharsets.UTF_8);
+        JavascriptExecutor js = (JavascriptExecutor) driver;
+        Object elements = js.executeScript(LOAD_SCRIPT, html);
+        System.out.println("[LocatorAnalyzer] Timing " + locators.size() + " locators against " + page + ", "
+                + elements + " elements");
+        for (Locator locator : locators) {
+            Object result;
+            try {
+                result = js.executeScript(TIME_SCRIPT, locator.xpath, locator.css, minMillis);
+            } catch (JavascriptException e) {
+                result = Collections.singletonMap("error", e.getMessage());
+            }
+            @SuppressWarnings("unchecked")
+            Map<String, Object> timing = result instanceof Map ? new LinkedHashMap<>((Map<String, Object>) result)
+                    : new LinkedHashMap<String, Object>();
+            Object suggestion = timing.get("suggestion");
+            if (suggestion != null) {
+                timing.put("suggestionCss", LocatorRewriter.toCss(suggestion.toString()));
+            }
+            locator.pages.put(page.getName(), timing);
+        }
+    }
+
+    /**
+     * Print the locators slowest first and warn about rewrites finding a different element.
+     */
+    static void print(List<Locator> locators, int top) {
+        int rewritten = 0;
+        for (Locator locator : locators) {
+            if (locator.css != null) {
+                rewritten++;
+            }
+        }
+        System.out.println("[LocatorAnalyzer] " + locators.size() + " distinct xpaths, " + rewritten
+                + " rewritten to CSS at run time");
+        for (Locator locator : locators) {
+            for (Map.Entry<String, Map<String, Object>> page : locator.pages.entrySet()) {
+                Map<String, Object> timing = page.getValue();
+                if (timing.get("error") != null) {
+                    System.out.println("[LocatorAnalyzer] " + page.getKey() + ": " + locator.xpath + ": "
+                            + timing.get("error"));
+                } else if (Boolean.FALSE.equals(timing.get("sameElement"))
+                        || locator.css != null && !String.valueOf(timing.get("xpathMatches"))
+                        .equals(String.valueOf(timing.get("cssMatches")))) {
+                    System.out.println("[LocatorAnalyzer] Rewrite finds other elements on " + page.getKey() + ": "
+                            + locator.xpath + " => " + locator.css + ", please report it");
+                }
+            }
+        }
+        for (Locator locator : locators.subList(0, Math.min(top, locators.size()))) {
+            StringBuilder line = new StringBuilder();
+            double micros = locator.slowestMicros();
+            if (micros >= 0) {
+                line.append(String.format(Locale.ROOT, "%10.1f us  ", micros));
+            }
+            line.append(locator.xpath).append("  (").append(locator.uses).append(" uses)");
+            if (locator.css != null) {
+                line.append("\n      rewritten: ").append(locator.css);
+                double cssMicros = slowest(locator, "cssMicros");
+                if (cssMicros > 0 && micros >= 0) {
+                    line.append(String.format(Locale.ROOT, "  %.1f us, %.1fx faster", cssMicros, micros / cssMicros));
+                }
+            } else {
+                line.append("\n      kept as xpath: ").append(locator.whyNotRewritten);
+                for (Map<String, Object> timing : locator.pages.values()) {
+                    if (timing.get("suggestion") != null) {
+                        line.append("\n      suggestion: ").append(timing.get("suggestion"));
+                        if (timing.get("suggestionCss") != null) {
+                            line.append("  (").append(timing.get("suggestionCss")).append(')');
+                        }
+                        break;
+                    }
+                }
+            }
+            System.out.println(line);
+        }
+    }
+
+    private static double slowest(Locator locator, String key) {
+        double slowest = -1;
+        for (Map<String, Object> timing : locator.pages.values()) {
+            if (timing.get(key) instanceof Number) {
+                slowest = Math.max(slowest, ((Number) timing.get(key)).doubleValue());
+            }
+        }
+        return slowest;
+    }
+
+    static void writeReport(List<Locator> locators, File dir) throws IOException {
+        List<Object> entries = new ArrayList<>();
+        for (Locator locator : locators) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("xpath", locator.xpath);
+            entry.put("css", locator.css);
+            if (locator.whyNotRewritten != null) {
+                entry.put("kept-as-xpath", locator.whyNotRewritten);
+            }
+            entry.put("uses", locator.uses);
+            entry.put("used-by", new ArrayList<>(locator.usedBy));
+            if (!locator.pages.isEmpty()) {
+                entry.put("pages", locator.pages);
+            }
+            entries.add(entry);
+        }
+        File file = new File(dir, "locator_report.json");
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            out.write(new Json().toJson(Collections.singletonMap("locators", entries)));
+        }
+        System.out.println("[LocatorAnalyzer] Report written to " + file);
+    }
+
+    private static WebDriver startBrowser(String hub) throws MalformedURLException {
+        if (hub != null) {
+            return new RemoteWebDriver(new URL(hub), DesiredCapabilities.firefox());
+        }
+        FirefoxOptions options = new FirefoxOptions();
+        options.setHeadless(true);
+        return new FirefoxDriver(options);
+    }
+
+    public static void main(String[] args) throws Exception {
+        String configPath = null;
+        List<File> pages = new ArrayList<>();
+        String hub = null;
+        int top = 20;
+        long minMillis = 50;
+        File reportDir = new File(System.getProperty("dbcs.report.dir", "."));
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String name = args[i];
+            String value = args[i + 1];
+            if ("--config".equals(name)) {
+                configPath = value;
+            } else if ("--page".equals(name)) {
+                pages.add(new File(value));
+            } else if ("--hub".equals(name)) {
+                hub = value;
+            } else if ("--top".equals(name)) {
+                top = Integer.parseInt(value);
+            } else if ("--min-millis".equals(name)) {
+                minMillis = Long.parseLong(value);
+            } else if ("--report-dir".equals(name)) {
+                reportDir = new File(value);
+            } else {
+                System.out.println("[Error] Unknown option " + name);
+                System.exit(1);
+            }
+        }
+        if (configPath == null) {
+            System.out.println("Usage: LocatorAnalyzer --config test_list.xml|snapshot.gz [--page page.html]..."
+                    + " [--hub url] [--top 20] [--min-millis 50] [--report-dir dir]");
+            System.exit(1);
+        }
+
+        HierarchicalConfiguration<ImmutableNode> config;
+        if (configPath.endsWith(".gz")) {
+            config = new SnapshotCache(new File(configPath)).load();
+        } else {
+            XMLConfiguration xmlConfig = new XMLConfiguration();
+            new FileHandler(xmlConfig).load(new File(configPath));
+            config = xmlConfig;
+        }
+        Map<String, Locator> collected = collect(config);
+
+        if (!pages.isEmpty()) {
+            WebDriver driver = startBrowser(hub);
+            try {
+                for (File page : pages) {
+                    time(driver, page, collected.values(), minMillis);
+                }
+            } finally {
+                driver.quit();
+            }
+        }
+
+        List<Locator> locators = new ArrayList<>(collected.values());
+        Collections.sort(locators, new Comparator<Locator>() {
+            @Override
+            public int compare(Locator a, Locator b) {
+                int bySpeed = Double.compare(b.slowestMicros(), a.slowestMicros());
+                return bySpeed != 0 ? bySpeed : Integer.compare(b.uses, a.uses);
+            }
+        });
+        print(locators, top);
+        writeReport(locators, reportDir);
+    }
+}
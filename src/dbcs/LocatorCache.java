@@ -0,0 +1,84 @@
+package dbcs;
+
+import org.openqa.selenium.*;
+
+import java.util.*;
+
+/**
+ * Element handles already resolved on the current page, keyed by xpath.<br>
+ * <p>
+ * Consecutive steps often address the same element (a SelectCheckBox reads the box, then clicks it), and each
+ * findElement is a full xpath evaluation over the page. A cached handle is reused until it is known to be invalid:
+ * the cache is cleared when a step leads to a new document and on frame or window switches, and an entry is dropped
+ * as soon as using it raises a StaleElementReferenceException, e.g. after an APEX partial page refresh replaced the
+ * region. Clicks that only update the page in place therefore keep the handles of the elements they did not touch.
+ * Lookups and dropped entries are also counted in {@link RunMetrics}.
+ * </p>
+ * Not thread-safe, each AutoDriver owns its own cache.
+ */
+public class LocatorCache {
+    private final Map<String, WebElement> elements = new HashMap<>();
+    private long hits;
+    private long misses;
+
+    /**
+     * @return the cached handle for xpath, or null
+     */
+    public WebElement get(String xpath) {
+        WebElement element = elements.get(xpath);
+        if (element == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        RunMetrics.locatorLookup(element != null);
+        return element;
+    }
+
+    public void put(String xpath, WebElement element) {
+        elements.put(xpath, element);
+    }
+
+    /**
+     * Drop the handle of one element, e.g. after it turned out to be stale.
+     */
+    public void invalidate(String xpath) {
+        if (elements.remove(xpath) != null) {
+            RunMetrics.locatorInvalidated();
+        }
+    }
+
+    /**
+     * Drop all handles, must be called whenever the current document changes.
+     */
+    public void clear() {
+        elements.clear();
+    }
+
+    /**
+     * Find an element, reusing the cached handle when there is one.<br>
+     * The cached handle is not verified here, callers must catch StaleElementReferenceException when using it,
+     * call {@link #invalidate(String)} and look the element up again.
+     *
+     * @param driver the driver to search with on a cache miss
+     * @param xpath  the element to find
+     * @return the element
+     * @throws NoSuchElementException if the element is not on the page
+     */
+    public WebElement find(WebDriver driver, String xpath) {
+        WebElement element = get(xpath);
+        if (element == null) {
+            element = driver.findElement(LocatorRewriter.by(xpath));
+            elements.put(xpath, element);
+        }
+        return element;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+}
@@ -0,0 +1,415 @@
+package dbcs;
+
+import org.openqa.selenium.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Rewrites simple xpath locators into equivalent CSS selectors, which browsers match much faster than they evaluate
+ * xpath, especially on large APEX pages.<br>
+ * <p>
+ * An xpath is rewritten when every location step is a plain element name or * on the child or descendant axis,
+ * optionally starting at /html, and every predicate is made of:
+ * </p>
+ * <ul>
+ * <li>@attr='value', @attr and contains(@attr, 'value') or starts-with(@attr, 'value'), joined with and</li>
+ * <li>contains(concat(' ', normalize-space(@class), ' '), ' name ') for a class name</li>
+ * <li>a position, as the first predicate of a step</li>
+ * </ul>
+ * e.g. //div[@id='R1']//input[@name='P1_NAME'] becomes div#R1 input[name="P1_NAME"]. Anything else, text(), other
+ * axes, unions or functions, is kept as xpath. The rewritten selector matches the same elements, with one caveat:
+ * in a quirks mode document an #id matches ids case-insensitively. The HTML attributes whose values CSS compares
+ * case-insensitively, e.g. type, get the case-sensitive flag, [type="text" s], which Firefox supports.<br>
+ * Rewriting is on unless &lt;rewrite-locators&gt; is false, see {@link LocatorAnalyzer} to check the rewrites and
+ * their gain against a page.
+ */
+public final class LocatorRewriter {
+    /**
+     * Rewrites remembered, xpaths with run time parts like ClickIfAnotherElementExist's may keep coming
+     */
+    private static final int MAX_CACHED = 10000;
+    private static final String NOT_REWRITTEN = "";
+
+    // attribute values CSS matches ASCII case-insensitively in HTML documents unless flagged s, xpath never does
+    private static final Set<String> CASE_INSENSITIVE_ATTRIBUTES = new HashSet<>(Arrays.asList("accept",
+            "accept-charset", "align", "alink", "axis", "bgcolor", "charset", "checked", "clear", "codetype", "color",
+            "compact", "declare", "defer", "dir", "direction", "disabled", "enctype", "face", "frame", "hreflang",
+            "http-equiv", "lang", "language", "link", "media", "method", "multiple", "nohref", "noresize", "noshade",
+            "nowrap", "readonly", "rel", "rev", "rules", "scope", "scrolling", "selected", "shape", "target", "text",
+            "type", "valign", "valuetype", "vlink"));
+
+    private static final ConcurrentMap<String, String> rewrites = new ConcurrentHashMap<>();
+    private static volatile boolean enabled = true;
+
+    private LocatorRewriter() {
+    }
+
+    /**
+     * Turn the rewriting of locators used at run time on or off, set before any plan is compiled.
+     */
+    public static void setEnabled(boolean enabled) {
+        LocatorRewriter.enabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return the selector to look xpath up with at run time, null if it is to be evaluated as xpath
+     */
+    public static String cssFor(String xpath) {
+        if (!enabled || xpath == null) {
+            return null;
+        }
+        String css = rewrites.get(xpath);
+        if (css == null) {
+            css = toCss(xpath);
+            if (rewrites.size() < MAX_CACHED) {
+                rewrites.put(xpath, css == null ? NOT_REWRITTEN : css);
+            }
+        }
+        return css == null || css.isEmpty() ? null : css;
+    }
+
+    /**
+     * @return the locator to find xpath with at run time, a CSS selector if it can be rewritten
+     */
+    public static By by(String xpath) {
+        String css = cssFor(xpath);
+        return css != null ? By.cssSelector(css) : By.xpath(xpath);
+    }
+
+    /**
+     * @return the CSS selector equivalent to xpath, or null if it is not simple enough
+     */
+    public static String toCss(String xpath) {
+        try {
+            return new Parser(xpath).path();
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return why xpath can not be rewritten, null if it can
+     */
+    public static String whyNotRewritten(String xpath) {
+        try {
+            new Parser(xpath).path();
+            return null;
+        } catch (IllegalArgumentException e) {
+            return e.getMessage();
+        }
+    }
+
+    /**
+     * Recursive descent over the rewritable subset of xpath, producing the selector as it goes.
+     */
+    private static final class Parser {
+        private final String s;
+        private int pos;
+        private final StringBuilder css = new StringBuilder();
+
+        Parser(String xpath) {
+            this.s = xpath.trim();
+        }
+
+        String path() {
+            if (s.startsWith("//")) {
+                pos = 2;
+                step();
+            } else if (s.startsWith("/")) {
+                pos = 1;
+                if (!"html".equals(name())) {
+                    throw new IllegalArgumentException("absolute path not starting at /html");
+                }
+                css.append("html");
+                predicates("html");
+            } else {
+                throw new IllegalArgumentException("relative path");
+            }
+            while (pos < s.length()) {
+                if (s.startsWith("//", pos)) {
+                    pos += 2;
+                    css.append(' ');
+                } else if (s.startsWith("/", pos)) {
+                    pos += 1;
+                    css.append(" > ");
+                } else {
+                    throw new IllegalArgumentException("unsupported " + rest());
+                }
+                step();
+            }
+            return css.toString();
+        }
+
+        private void step() {
+            skipSpaces();
+            int start = css.length();
+            String tag;
+            if (peek('*')) {
+                pos++;
+                tag = "*";
+            } else {
+                tag = name();
+                if (tag.isEmpty() || pos < s.length() && (s.charAt(pos) == ':' || s.charAt(pos) == '(')) {
+                    throw new IllegalArgumentException("unsupported step " + rest());
+                }
+                if (!tag.matches("[A-Za-z][A-Za-z0-9-]*")) {
+                    throw new IllegalArgumentException("unsupported element name " + tag);
+                }
+            }
+            css.append(tag);
+            predicates(tag);
+            if ("*".equals(tag) && css.length() > start + 1) {
+                css.deleteCharAt(start); // *#id is just #id
+            }
+        }
+
+        private void predicates(String tag) {
+            boolean first = true;
+            while (true) {
+                skipSpaces();
+                if (!peek('[')) {
+                    return;
+                }
+                pos++;
+                skipSpaces();
+                if (pos < s.length() && Character.isDigit(s.charAt(pos))) {
+                    if (!first) {
+                        throw new IllegalArgumentException("position after another predicate");
+                    }
+                    int start = pos;
+                    while (pos < s.length() && Character.isDigit(s.charAt(pos))) {
+                        pos++;
+                    }
+                    String n = s.substring(start, pos);
+                    css.append("*".equals(tag) ? ":nth-child(" : ":nth-of-type(").append(n).append(')');
+                } else {
+                    condition();
+                    while (keyword("and")) {
+                        condition();
+                    }
+                }
+                skipSpaces();
+                expect(']');
+                first = false;
+            }
+        }
+
+        private void condition() {
+            skipSpaces();
+            if (peek('@')) {
+                pos++;
+                String attribute = attributeName();
+                skipSpaces();
+                if (peek('=')) {
+                    pos++;
+                    String value = string();
+                    if ("id".equals(attribute) && !value.isEmpty()) {
+                        css.append('#').append(identifier(value));
+                    } else {
+                        css.append('[').append(attribute).append('=').append(quote(value)).append(caseFlag(attribute))
+                                .append(']');
+                    }
+                } else if (peek('!') || peek('<') || peek('>')) {
+                    throw new IllegalArgumentException("unsupported comparison " + rest());
+                } else {
+                    css.append('[').append(attribute).append(']');
+                }
+            } else if (keyword("contains")) {
+                expect('(');
+                skipSpaces();
+                if (keyword("concat")) {
+                    classToken();
+                    return;
+                }
+                substring("*=");
+            } else if (keyword("starts-with")) {
+                expect('(');
+                substring("^=");
+            } else {
+                throw new IllegalArgumentException("unsupported predicate " + rest());
+            }
+        }
+
+        /**
+         * The rest of contains(@attr, 'value') or starts-with(@attr, 'value')
+         */
+        private void substring(String operator) {
+            skipSpaces();
+            expect('@');
+            String attribute = attributeName();
+            skipSpaces();
+            expect(',');
+            String value = string();
+            skipSpaces();
+            expect(')');
+            if (value.isEmpty()) {
+                // true even without the attribute in xpath, matches nothing in CSS
+                throw new IllegalArgumentException("empty " + operator + " value");
+            }
+            css.append('[').append(attribute).append(operator).append(quote(value)).append(caseFlag(attribute))
+                    .append(']');
+        }
+
+        /**
+         * The rest of contains(concat(' ', normalize-space(@class), ' '), ' name ')
+         */
+        private void classToken() {
+            expect('(');
+            if (!" ".equals(string())) {
+                throw new IllegalArgumentException("unsupported concat");
+            }
+            skipSpaces();
+            expect(',');
+            skipSpaces();
+            if (!keyword("normalize-space")) {
+                throw new IllegalArgumentException("unsupported concat");
+            }
+            expect('(');
+            skipSpaces();
+            expect('@');
+            if (!"class".equals(attributeName())) {
+                throw new IllegalArgumentException("unsupported concat");
+            }
+            skipSpaces();
+            expect(')');
+            skipSpaces();
+            expect(',');
+            if (!" ".equals(string())) {
+                throw new IllegalArgumentException("unsupported concat");
+            }
+            skipSpaces();
+            expect(')');
+            skipSpaces();
+            expect(',');
+            String token = string();
+            skipSpaces();
+            expect(')');
+            if (token.length() < 3 || !token.startsWith(" ") || !token.endsWith(" ")
+                    || token.trim().isEmpty() || token.trim().matches(".*\\s.*")) {
+                throw new IllegalArgumentException("unsupported class token '" + token + "'");
+            }
+            css.append('.').append(identifier(token.trim()));
+        }
+
+        /**
+         * @return the flag making CSS compare the value of attribute case-sensitively like xpath, empty if it does
+         */
+        private String caseFlag(String attribute) {
+            return CASE_INSENSITIVE_ATTRIBUTES.contains(attribute.toLowerCase(Locale.ROOT)) ? " s" : "";
+        }
+
+        private String attributeName() {
+            String name = name();
+            if (!name.matches("[A-Za-z_][A-Za-z0-9_-]*") || pos < s.length() && s.charAt(pos) == ':') {
+                throw new IllegalArgumentException("unsupported attribute name " + name);
+            }
+            return name;
+        }
+
+        private String name() {
+            int start = pos;
+            while (pos < s.length() && (Character.isLetterOrDigit(s.charAt(pos)) || s.charAt(pos) == '-'
+                    || s.charAt(pos) == '_' || s.charAt(pos) == '.')) {
+                pos++;
+            }
+            return s.substring(start, pos);
+        }
+
+        private boolean keyword(String word) {
+            skipSpaces();
+            if (s.startsWith(word, pos)) {
+                int end = pos + word.length();
+                if (end < s.length() && (Character.isLetterOrDigit(s.charAt(end)) || s.charAt(end) == '-')) {
+                    return false;
+                }
+                pos = end;
+                skipSpaces();
+                return true;
+            }
+            return false;
+        }
+
+        private String string() {
+            skipSpaces();
+            if (pos >= s.length() || s.charAt(pos) != '\'' && s.charAt(pos) != '"') {
+                throw new IllegalArgumentException("unsupported value " + rest());
+            }
+            char quote = s.charAt(pos);
+            int end = s.indexOf(quote, pos + 1);
+            if (end < 0) {
+                throw new IllegalArgumentException("unterminated string");
+            }
+            String value = s.substring(pos + 1, end);
+            pos = end + 1;
+            return value;
+        }
+
+        private boolean peek(char c) {
+            return pos < s.length() && s.charAt(pos) == c;
+        }
+
+        private void expect(char c) {
+            skipSpaces();
+            if (!peek(c)) {
+                throw new IllegalArgumentException("expected " + c + " at " + rest());
+            }
+            pos++;
+        }
+
+        private void skipSpaces() {
+            while (pos < s.length() && Character.isWhitespace(s.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        private String rest() {
+            return pos < s.length() ? "'" + s.substring(pos) + "'" : "end";
+        }
+    }
+
+    /**
+     * @return value as a quoted CSS string
+     */
+    static String quote(String value) {
+        StringBuilder sb = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c == '\n' || c == '\r' || c == '\f') {
+                sb.append('\\').append(Integer.toHexString(c)).append(' ');
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    /**
+     * @return value escaped as a CSS identifier, the way CSS.escape() does
+     */
+    static String identifier(String value) {
+        StringBuilder sb = new StringBuilder(value.length() + 8);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            boolean leadingDigit = Character.isDigit(c) && (i == 0 || i == 1 && value.charAt(0) == '-');
+            if (c == 0) {
+                sb.append('\uFFFD');
+            } else if (c < 0x20 || c == 0x7F || leadingDigit) {
+                sb.append('\\').append(Integer.toHexString(c)).append(' ');
+            } else if (i == 0 && c == '-' && value.length() == 1) {
+                sb.append("\\-");
+            } else if (c >= 0x80 || c == '-' || c == '_' || Character.isLetterOrDigit(c)) {
+                sb.append(c);
+            } else {
+                sb.append('\\').append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
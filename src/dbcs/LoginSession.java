@@ -0,0 +1,181 @@
+package dbcs;
+
+import org.openqa.selenium.*;
+
+import java.util.*;
+
+/**
+ * Logs browser sessions in, running the login flow only once and seeding later sessions with its result.<br>
+ * <p>
+ * After a full login the cookies and the local and session storage of the landing page are captured into a
+ * {@link State}. Later sessions load the seed url (the login page unless &lt;seed-url&gt; names a lighter page of the
+ * same origin), receive the captured cookies and storage and go straight to the landing page. If the landing page
+ * still shows the login form, i.e. the server rejected the seeded session, or the state is older than its ttl or
+ * than its earliest cookie expiry, the full login runs again and the state is replaced.
+ * </p>
+ * The state is shared by all workers and only kept in memory, it holds credentials and is not written to disk.
+ */
+public class LoginSession {
+    /**
+     * Cookies and web storage of a logged in page.
+     */
+    static final class State {
+        final String landingUrl;
+        final Set<Cookie> cookies;
+        final Map<?, ?> localStorage;
+        final Map<?, ?> sessionStorage;
+        final long expiresAtMillis;
+
+        State(String landingUrl, Set<Cookie> cookies, Map<?, ?> localStorage, Map<?, ?> sessionStorage,
+                long expiresAtMillis) {
+            this.landingUrl = landingUrl;
+            this.cookies = cookies;
+            this.localStorage = localStorage;
+            this.sessionStorage = sessionStorage;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+
+        boolean isExpired() {
+            return System.currentTimeMillis() >= expiresAtMillis;
+        }
+    }
+
+    private static final String CAPTURE_STORAGE_SCRIPT = "/*capture-storage*/"
+            + "function copy(storage) {"
+            + "  var result = {};"
+            + "  for (var i = 0; i < storage.length; i++) {"
+            + "    var key = storage.key(i);"
+            + "    result[key] = storage.getItem(key);"
+            + "  }"
+            + "  return result;"
+            + "}"
+            + "try { return [copy(window.localStorage), copy(window.sessionStorage)]; } catch (e) { return [{}, {}]; }";
+
+    private static final String SEED_STORAGE_SCRIPT = "/*seed-storage*/"
+            + "try {"
+            + "  for (var key in arguments[0]) { window.localStorage.setItem(key, arguments[0][key]); }"
+            + "  for (var key in arguments[1]) { window.sessionStorage.setItem(key, arguments[1][key]); }"
+            + "} catch (e) {}";
+
+    private final String loginUrl;
+    private final String seedUrl;
+    private final By loginFormLocator;
+    private final TestPlan loginPlan;
+    private final long ttlMillis;
+    private final Object loginLock = new Object();
+    private volatile State state;
+
+    /**
+     * @param loginUrl  url of the login page
+     * @param seedUrl   page of the same origin loaded to receive the cookies, null for the login page
+     * @param checkXpath element only shown on the login page, null for the xpath of the first login step
+     * @param loginPlan the compiled login operations
+     * @param ttlMillis how long a captured state is reused
+     */
+    public LoginSession(String loginUrl, String seedUrl, String checkXpath, TestPlan loginPlan, long ttlMillis) {
+        this.loginUrl = loginUrl;
+        this.seedUrl = seedUrl != null ? seedUrl : loginUrl;
+        this.loginPlan = loginPlan;
+        this.ttlMillis = ttlMillis;
+        if (checkXpath == null) {
+            for (Step step : loginPlan.getSteps()) {
+                if (step.locator != null) {
+                    checkXpath = step.xpath;
+                    break;
+                }
+            }
+        }
+        this.loginFormLocator = checkXpath != null ? LocatorRewriter.by(checkXpath) : null;
+    }
+
+    /**
+     * Log a session in, from the captured state when there is a valid one.
+     *
+     * @throws RuntimeException if a login step fails
+     */
+    public void login(AutoDriver autoDriver) {
+        State seed = state;
+        if (seed != null && !seed.isExpired() && seedFrom(autoDriver, seed)) {
+            return;
+        }
+        synchronized (loginLock) {
+            // another worker may have logged in while this one was waiting
+            State current = state;
+            if (current != null && current != seed && !current.isExpired() && seedFrom(autoDriver, current)) {
+                return;
+            }
+            fullLogin(autoDriver, seed != null);
+            state = capture(autoDriver);
+        }
+    }
+
+    /**
+     * Drop the captured state, e.g. after the test user's password was changed.
+     */
+    public void invalidate() {
+        state = null;
+    }
+
+    /**
+     * @param afterSeed whether the session was seeded before, its cookies are then dropped so the server sees a new
+     *                  visitor
+     */
+    private void fullLogin(AutoDriver autoDriver, boolean afterSeed) {
+        EventLog.info("Login", loginUrl);
+        autoDriver.open(loginUrl);
+        if (afterSeed) {
+            autoDriver.getDriver().manage().deleteAllCookies();
+            autoDriver.open(loginUrl);
+        }
+        for (Step step : loginPlan.getSteps()) {
+            try {
+                autoDriver.executeStep(step);
+            } catch (RuntimeException e) {
+                EventLog.error("Login", step, e);
+                throw e;
+            }
+        }
+    }
+
+    private State capture(AutoDriver autoDriver) {
+        WebDriver driver = autoDriver.getDriver();
+        Set<Cookie> cookies = new LinkedHashSet<>(driver.manage().getCookies());
+        List<?> storage = (List<?>) ((JavascriptExecutor) driver).executeScript(CAPTURE_STORAGE_SCRIPT);
+        long expiresAt = System.currentTimeMillis() + ttlMillis;
+        for (Cookie cookie : cookies) {
+            if (cookie.getExpiry() != null) {
+                expiresAt = Math.min(expiresAt, cookie.getExpiry().getTime());
+            }
+        }
+        Map<?, ?> local = storage != null && storage.size() == 2 ? (Map<?, ?>) storage.get(0) : new HashMap<>();
+        Map<?, ?> session = storage != null && storage.size() == 2 ? (Map<?, ?>) storage.get(1) : new HashMap<>();
+        if (EventLog.isEnabled(EventLog.Level.INFO)) {
+            EventLog.info("Login", "captured " + cookies.size() + " cookies and " + (local.size() + session.size())
+                    + " storage entries");
+        }
+        return new State(driver.getCurrentUrl(), cookies, local, session, expiresAt);
+    }
+
+    /**
+     * @return whether the seeded session was accepted by the server
+     */
+    private boolean seedFrom(AutoDriver autoDriver, State seed) {
+        WebDriver driver = autoDriver.getDriver();
+        try {
+            autoDriver.open(seedUrl);
+            for (Cookie cookie : seed.cookies) {
+                driver.manage().addCookie(cookie);
+            }
+            ((JavascriptExecutor) driver).executeScript(SEED_STORAGE_SCRIPT, seed.localStorage, seed.sessionStorage);
+            autoDriver.open(seed.landingUrl);
+        } catch (WebDriverException e) {
+            EventLog.warn("Login", "failed to seed session", e);
+            return false;
+        }
+        if (loginFormLocator != null && !driver.findElements(loginFormLocator).isEmpty()) {
+            EventLog.info("Login", "seeded session was rejected, logging in again");
+            return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,174 @@
+package dbcs;
+
+import java.util.*;
+
+/**
+ * All operation types that may appear in the name attribute of an &lt;operation&gt; tag.<br>
+ * Each type is bound to its AutoDriver handler at compile time, so executing a step costs a single virtual call
+ * instead of a reflective method lookup.
+ */
+public enum OperationType {
+    Click {
+        @Override
+        void execute(AutoDriver driver, Step step) {
+            driver.executeClick(step);
+        }
+
+        @Override
+        boolean changesPage() {
+            return true;
+        }
+    },
+    KeyboardInput {
+        @Override
+        void execute(AutoDriver driver, Step step) {
+            driver.executeKeyboardInput(step);
+        }
+    },
+    SelectDropDown {
+        @Override
+        void execute(AutoDriver driver, Step step) {
+            driver.executeSelectDropDown(step);
+        }
+
+        @Override
+        boolean changesPage() {
+            return true;
+        }
+    },
+    SelectCheckBox {
+        @Override
+        void execute(AutoDriver driver, Step step) {
+            driver.executeSelectCheckBox(step);
+        }
+
+        @Override
+        boolean changesPage() {
+            return true;
+        }
+    },
+    SelectPopupWindow {
+        @Override
+        void execute(AutoDriver driver, Step step) {
+            driver.executeSelectPopupWindow(step);
+        }
+
+        @Override
+        boolean changesPage() {
+            return true;
+        }
+    },
+    BacktoParentWindow {
+        @Override
+        void execute(AutoDriver driver, Step step) {
+            driver.executeBacktoParentWindow(step);
+        }
+
+        @Override
+        boolean changesPage() {
+            return true;
+        }
+    },
+    SelectFrame {
+        @Override
+        void execute(AutoDriver driver, Step step) {
+            driver.executeSelectFrame(step);
+        }
+
+        @Override
+        boolean changesPage() {
+            return true;
+        }
+    },
+    WaitInvisible {
+        @Override
+        void execute(AutoDriver driver, Step step) {
+            driver.executeWaitInvisible(step);
+        }
+    },
+    WaitforAppear {
+        @Override
+        void execute(AutoDriver driver, Step step) {
+            driver.executeWaitforAppear(step);
+        }
+    },
+    WaitAppearRepeatedly {
+        @Override
+        void execute(AutoDriver driver, Step step) {
+            driver.executeWaitAppearRepeatedly(step);
+        }
+    },
+    WaitDisappearRepeatedly {
+        @Override
+        void execute(AutoDriver driver, Step step) {
+            driver.executeWaitDisappearRepeatedly(step);
+        }
+    },
+    /**
+     * Marks a point a failed testcase can restart from in a fresh session, see {@link StepRecovery}
+     */
+    Checkpoint {
+        @Override
+        void execute(AutoDriver driver, Step step) {
+            driver.executeCheckpoint(step);
+        }
+    },
+    /**
+     * Internal type of a run of form steps combined by the PlanCompiler, can not be used in the config xml
+     */
+    FormBatch {
+        @Override
+        void execute(AutoDriver driver, Step step) {
+            dbcs.FormBatch.execute(driver, step);
+        }
+
+        @Override
+        boolean changesPage() {
+            return true;
+        }
+    },
+    @Deprecated
+    ClickIfAnotherElementExist {
+        @Override
+        @SuppressWarnings("deprecation")
+        void execute(AutoDriver driver, Step step) {
+            driver.executeClickIfAnotherElementExist(step);
+        }
+    };
+
+    private static final Map<String, OperationType> BY_NAME = new HashMap<>();
+
+    static {
+        for (OperationType type : values()) {
+            if (type != FormBatch) {
+                BY_NAME.put(type.name(), type);
+            }
+        }
+    }
+
+    /**
+     * Perform the operation described by step on the given driver.
+     *
+     * @param driver the driver to run on
+     * @param step   the compiled step, whose type is this constant
+     */
+    abstract void execute(AutoDriver driver, Step step);
+
+    /**
+     * @return whether the operation may navigate or start a partial page refresh, so the page must settle before
+     * the next step, see {@link PageQuiescence}
+     */
+    boolean changesPage() {
+        return false;
+    }
+
+    /**
+     * Resolve an operation name from the config xml.
+     *
+     * @param name value of the name attribute
+     * @return the matching type, or null if no such operation exists
+     */
+    public static OperationType forName(String name) {
+        return name == null ? null : BY_NAME.get(name);
+    }
+}
@@ -0,0 +1,178 @@
+package dbcs;
+
+import org.openqa.selenium.*;
+
+import java.util.*;
+
+/**
+ * Waits until a page has settled after an action, instead of sleeping for a fixed time.<br>
+ * <p>
+ * A page is quiet when the document has finished loading, no XMLHttpRequest or fetch is in flight, jQuery (which
+ * apex.server uses for partial page refreshes) has no pending request and no APEX processing indicator is shown,
+ * and all of this has held for {@link #QUIET_MILLIS}. The check runs in the browser as one async script, so a quiet
+ * page costs a single round trip. XMLHttpRequest and fetch are wrapped on the first check to count the requests in
+ * flight, requests started before that are still covered by the jQuery count.
+ * </p>
+ * A page that does not settle in time, e.g. one that polls the server continuously, is not an error: the wait just
+ * ends and the next step's own wait for its element takes over.<br>
+ * The same script marks each document it checks, so a wait also tells whether the step left the page and the cached
+ * element handles must be dropped.
+ */
+public class PageQuiescence {
+    /**
+     * How long a page must stay idle, bridges the gap between chained requests
+     */
+    static final long QUIET_MILLIS = 150;
+    /**
+     * Script errors tolerated per wait, each navigation while waiting causes one
+     */
+    private static final int MAX_SCRIPT_ERRORS = 3;
+
+    // sets fresh to whether the document was not marked yet, i.e. it was loaded since the last check
+    private static final String MARK_DOCUMENT =
+            "var fresh = !window.__dbcsDocument; window.__dbcsDocument = true;";
+
+    // calls back {quiet: true} once the page has been idle for arguments[0] ms, or {reason: the last busy reason}
+    // after arguments[1] ms, both with whether the document is new
+    private static final String QUIESCENT_SCRIPT =
+            "/*quiescent*/"
+            + "var quietMillis = arguments[0], timeout = arguments[1], done = arguments[arguments.length - 1];"
+            + MARK_DOCUMENT
+            + "var w = window;"
+            + "if (!w.__dbcsPending) {"
+            + "  var pending = w.__dbcsPending = {count: 0};"
+            + "  var send = XMLHttpRequest.prototype.send;"
+            + "  XMLHttpRequest.prototype.send = function() {"
+            + "    var ended = false;"
+            + "    function end() { if (!ended) { ended = true; pending.count--; } }"
+            + "    pending.count++;"
+            + "    this.addEventListener('loadend', end);"
+            + "    try { return send.apply(this, arguments); } catch (e) { end(); throw e; }"
+            + "  };"
+            + "  if (w.fetch) {"
+            + "    var fetch = w.fetch;"
+            + "    w.fetch = function() {"
+            + "      var ended = false;"
+            + "      function end() { if (!ended) { ended = true; pending.count--; } }"
+            + "      pending.count++;"
+            + "      try {"
+            + "        return fetch.apply(this, arguments).then(function(r) { end(); return r; },"
+            + "            function(e) { end(); throw e; });"
+            + "      } catch (e) { end(); throw e; }"
+            + "    };"
+            + "  }"
+            + "}"
+            + "function busy() {"
+            + "  if (document.readyState !== 'complete') return 'document ' + document.readyState;"
+            + "  if (w.__dbcsPending.count > 0) return w.__dbcsPending.count + ' requests pending';"
+            + "  var jq = (w.apex && w.apex.jQuery) || w.jQuery;"
+            + "  if (jq && jq.active > 0) return jq.active + ' jQuery requests pending';"
+            + "  var shown = document.querySelectorAll('.u-Processing, .apex_wait_overlay, .apex_wait_popup');"
+            + "  for (var i = 0; i < shown.length; i++) {"
+            + "    if (shown[i].getClientRects().length) return 'APEX processing indicator shown';"
+            + "  }"
+            + "  return null;"
+            + "}"
+            + "var start = Date.now(), idleSince = null;"
+            + "(function check() {"
+            + "  var reason = busy(), now = Date.now();"
+            + "  if (reason) idleSince = null; else if (idleSince === null) idleSince = now;"
+            + "  if (idleSince !== null && now - idleSince >= quietMillis) {"
+            + "    done({quiet: true, fresh: fresh}); return;"
+            + "  }"
+            + "  if (now - start >= timeout) { done({reason: reason || 'not quiet yet', fresh: fresh}); return; }"
+            + "  setTimeout(check, 50);"
+            + "})();";
+
+    private final long timeoutMillis;
+
+    /**
+     * @param timeoutMillis longest wait for the page to settle
+     */
+    public PageQuiescence(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Block until the page is quiet or the timeout has passed.<br>
+     * A navigation while waiting aborts the script, the wait is then started again on the new document. The cached
+     * handles are dropped unless a check ran and found the document it had marked before.
+     *
+     * @param driver the driver of the page
+     * @param cache  element handles resolved before the wait
+     * @return true if the page is quiet, false if it did not settle in time or there is no page to wait for, i.e. the
+     * window was closed or an alert is open
+     */
+    public boolean await(WebDriver driver, LocatorCache cache) {
+        long waitStart = RunMetrics.waitStarted();
+        long start = System.currentTimeMillis();
+        long deadline = start + timeoutMillis;
+        String reason = "not quiet yet";
+        int scriptErrors = 0;
+        boolean checked = false;
+        boolean newDocument = false;
+        try {
+            while (true) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    if (EventLog.isEnabled(EventLog.Level.WARN)) {
+                        EventLog.warn("Quiescence", "page not quiet after " + timeoutMillis + " ms: " + reason, null);
+                    }
+                    return false;
+                }
+                try {
+                    Map<?, ?> result = (Map<?, ?>) ((JavascriptExecutor) driver).executeAsyncScript(QUIESCENT_SCRIPT,
+                            QUIET_MILLIS, Math.min(remaining, AutoDriver.MAX_SCRIPT_MILLIS));
+                    checked = true;
+                    newDocument |= Boolean.TRUE.equals(result.get("fresh"));
+                    if (Boolean.TRUE.equals(result.get("quiet"))) {
+                        return true;
+                    }
+                    reason = String.valueOf(result.get("reason"));
+                } catch (JavascriptException e) {
+                    // usually the document was unloaded while waiting, check the new one
+                    newDocument = true;
+                    if (++scriptErrors >= MAX_SCRIPT_ERRORS) {
+                        EventLog.warn("Quiescence", "can not check the page", e);
+                        return false;
+                    }
+                    reason = "navigating";
+                } catch (ScriptTimeoutException e) {
+                    // the script may have marked a new document before it was cut off
+                    newDocument = true;
+                    reason = "script timed out";
+                } catch (NoSuchWindowException | UnhandledAlertException e) {
+                    // the step closed its window or opened an alert, there is no page left to wait for
+                    EventLog.debug("Quiescence", "nothing to wait for: " + e.getClass().getSimpleName());
+                    return false;
+                }
+            }
+        } finally {
+            if (newDocument || !checked) {
+                cache.clear();
+            }
+            RunMetrics.waitEnded(waitStart);
+        }
+    }
+
+    /**
+     * Drop the cached handles if the current document was not marked before, used instead of {@link #await} when
+     * waiting for quiet pages is disabled.
+     *
+     * @param driver the driver of the page
+     * @param cache  element handles resolved before the step
+     */
+    public static void checkDocument(WebDriver driver, LocatorCache cache) {
+        boolean fresh;
+        try {
+            fresh = Boolean.TRUE.equals(((JavascriptExecutor) driver).executeScript(
+                    "/*document*/" + MARK_DOCUMENT + "return fresh;"));
+        } catch (WebDriverException e) {
+            // no page to check, e.g. the window was closed or an alert is open
+            fresh = true;
+        }
+        if (fresh) {
+            cache.clear();
+        }
+    }
+}
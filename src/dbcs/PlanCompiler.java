@@ -0,0 +1,185 @@
+package dbcs;
+
+import org.apache.commons.configuration2.*;
+import org.apache.commons.configuration2.tree.*;
+
+import java.util.*;
+import java.util.regex.*;
+
+/**
+ * Turns &lt;testcase&gt; and &lt;operations&gt; config nodes into immutable {@link TestPlan}s.<br>
+ * All validation happens here, so a misspelled operation name is reported before any browser is started
+ * instead of in the middle of a run.
+ */
+public final class PlanCompiler {
+
+    private PlanCompiler() {
+    }
+
+    /**
+     * Compile a &lt;testcase&gt; node.
+     *
+     * @param testcase the xml node describing a testcase, with one or more &lt;operations&gt; children
+     * @return the compiled plan
+     * @throws IllegalArgumentException if any operation is invalid
+     */
+    public static TestPlan compile(HierarchicalConfiguration<ImmutableNode> testcase) {
+        return compile(testcase, false);
+    }
+
+    /**
+     * Compile a &lt;testcase&gt; node.
+     *
+     * @param testcase       the xml node describing a testcase, with one or more &lt;operations&gt; children
+     * @param batchFormSteps whether to combine consecutive form steps into FormBatch steps, unless the testcase
+     *                       overrides it with its batch-form-steps attribute
+     * @return the compiled plan
+     * @throws IllegalArgumentException if any operation is invalid
+     */
+    public static TestPlan compile(HierarchicalConfiguration<ImmutableNode> testcase, boolean batchFormSteps) {
+        String testName = testcase.getString("[@name]", "unknown test");
+        List<Step> steps = new ArrayList<>();
+        for (HierarchicalConfiguration<ImmutableNode> operations : testcase.configurationsAt("operations")) {
+            compileOperations(testName, operations, steps);
+        }
+        if (testcase.getBoolean("[@batch-form-steps]", batchFormSteps)) {
+            steps = batchFormSteps(steps);
+        }
+        return new TestPlan(testName, testcase.getString("[@require-vm-state]"), testcase.getString("[@group]"),
+                steps);
+    }
+
+    /**
+     * Compile a config block holding a single &lt;operations&gt; child, e.g. the &lt;login&gt; block.
+     *
+     * @param name  name used in error messages and reports
+     * @param block the parent of the &lt;operations&gt; node
+     * @return the compiled plan
+     * @throws IllegalArgumentException if any operation is invalid
+     */
+    public static TestPlan compileBlock(String name, HierarchicalConfiguration<ImmutableNode> block) {
+        List<Step> steps = new ArrayList<>();
+        for (HierarchicalConfiguration<ImmutableNode> operations : block.configurationsAt("operations")) {
+            compileOperations(name, operations, steps);
+        }
+        return new TestPlan(name, null, null, steps);
+    }
+
+    private static void compileOperations(String testName, HierarchicalConfiguration<ImmutableNode> operations,
+            List<Step> steps) {
+        int group = operations.getInt("[@group]", 0);
+        for (HierarchicalConfiguration<ImmutableNode> operation : operations.childConfigurationsAt("")) {
+            steps.add(compileStep(testName, operation, steps.size(), group));
+        }
+    }
+
+    /**
+     * Replace every run of two or more consecutive batchable form steps by a single FormBatch step.
+     */
+    private static List<Step> batchFormSteps(List<Step> steps) {
+        List<Step> result = new ArrayList<>();
+        List<Step> run = new ArrayList<>();
+        for (Step step : steps) {
+            if (FormBatch.isBatchable(step)) {
+                run.add(step);
+                continue;
+            }
+            flushRun(run, result);
+            result.add(step);
+        }
+        flushRun(run, result);
+        return result;
+    }
+
+    private static void flushRun(List<Step> run, List<Step> result) {
+        if (run.size() > 1) {
+            result.add(new Step(run));
+        } else {
+            result.addAll(run);
+        }
+        run.clear();
+    }
+
+    /**
+     * Compile a single &lt;operation&gt; node.
+     *
+     * @param testName name of the enclosing testcase, used in error messages
+     * @param operation the xml node describing an operation, must have attribute "name"
+     * @param index    position of the step in its testcase
+     * @param group    group number of the enclosing operations block
+     * @return the compiled step
+     * @throws IllegalArgumentException if the operation is invalid
+     */
+    static Step compileStep(String testName, HierarchicalConfiguration<ImmutableNode> operation, int index,
+            int group) {
+        String name = operation.getString("[@name]");
+        OperationType type = OperationType.forName(name);
+        if (type == null) {
+            throw new IllegalArgumentException("Invalid operation type: \"" + name + "\" at step #" + index
+                    + " of " + testName);
+        }
+
+        try {
+            String xpath = operation.getString("[@xpath]");
+            String value = type == OperationType.Checkpoint ? operation.getString("[@url]")
+                    : operation.getString("[@value]");
+            if (value != null && operation.getString("[@relative-path]") != null) {
+                value = ConfigManager.getBasePath() + value;
+            }
+            boolean dynamicTimeStamp = operation.getString("[@dynamic-time-stamp]") != null;
+            // file paths must be typed into file inputs
+            boolean realKeys = operation.getBoolean("[@real-keys]", false)
+                    || operation.getString("[@relative-path]") != null;
+            Integer selectIndex = operation.containsKey("[@select-index]")
+                    ? operation.getInt("[@select-index]") : null;
+            String selectText = operation.getString("[@select-text]");
+            boolean select = operation.getBoolean("[@select]", false);
+            String refreshXpath = operation.getString("[@customize-refresh-xpath]");
+            Integer waitTimeout = operation.containsKey("[@timeout]") ? operation.getInt("[@timeout]") : null;
+            boolean watchMutations = "mutation".equals(operation.getString("[@watch]"));
+            Integer retries = operation.containsKey("[@retries]") ? operation.getInt("[@retries]") : null;
+            int stepGroup = operation.getInt("[@group]", group);
+
+            String elementXpath = null;
+            String extractAttribute = null;
+            Pattern attributePattern = null;
+            // still compiled for the testcases written with it
+            @SuppressWarnings("deprecation")
+            boolean readsElement = type == OperationType.ClickIfAnotherElementExist;
+            if (readsElement) {
+                HierarchicalConfiguration<ImmutableNode> element = operation.configurationAt("element");
+                elementXpath = element.getString("[@xpath]");
+                extractAttribute = element.getString("[@extract-attribute]");
+                attributePattern = Pattern.compile(element.getString("[@attribute-regex]"));
+            }
+
+            requireAttribute(type, xpath);
+            if (type == OperationType.KeyboardInput && value == null) {
+                throw new IllegalArgumentException(type + " requires attribute \"value\"");
+            }
+            if (type == OperationType.SelectCheckBox && !operation.containsKey("[@select]")) {
+                throw new IllegalArgumentException(type + " requires attribute \"select\"");
+            }
+
+            return new Step(type, index, stepGroup, xpath, value, dynamicTimeStamp, realKeys, selectIndex, selectText,
+                    select, refreshXpath, waitTimeout, watchMutations, retries, elementXpath, extractAttribute,
+                    attributePattern);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Malformed operation " + name + " at step #" + index + " of "
+                    + testName + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static void requireAttribute(OperationType type, String xpath) {
+        switch (type) {
+            case BacktoParentWindow:
+            case SelectFrame:
+            case Checkpoint:
+                return;
+            default:
+                if (xpath == null) {
+                    throw new IllegalArgumentException(type + " requires attribute \"xpath\"");
+                }
+        }
+    }
+}
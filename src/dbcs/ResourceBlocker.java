@@ -0,0 +1,687 @@
+package dbcs;
+
+import org.apache.commons.configuration2.*;
+import org.apache.commons.configuration2.tree.*;
+import org.openqa.selenium.Proxy;
+import org.openqa.selenium.firefox.*;
+import org.openqa.selenium.json.*;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.regex.*;
+
+/**
+ * Keeps the browsers from downloading resources the functional checks never look at, e.g. images, fonts and
+ * analytics.<br>
+ * <p>
+ * Enabled by &lt;block-resources&gt; in the webdriver config:
+ * </p>
+ * <pre>
+ * &lt;block-resources proxy-host="10.0.0.5" proxy-port="0" tunnel-ports="443"&gt;
+ *     &lt;type&gt;image&lt;/type&gt;
+ *     &lt;url-pattern&gt;*google-analytics.com*&lt;/url-pattern&gt;
+ *     &lt;client&gt;node1.example.com&lt;/client&gt;
+ * &lt;/block-resources&gt;
+ * </pre>
+ * <p>
+ * Types, any of image, font, media and stylesheet, are turned off in the browser by Firefox preferences. Url
+ * patterns, where * matches anything, need a local filtering proxy the sessions are pointed to. The proxy answers
+ * a blocked http request with an empty 204 response and refuses the tunnel of a blocked https host; everything else
+ * is passed through. An https request is only seen as the host it tunnels to, so a pattern is matched against
+ * https://host/ then, while http requests are matched by their whole url and also by their type.
+ * </p>
+ * <p>
+ * The proxy counts the requests it blocked and the traffic it passed. The size of each distinct blocked url is
+ * looked up once by a HEAD request in the background to estimate the bytes saved. Resources turned off by the
+ * browser preferences never reach the proxy and are not counted.
+ * </p>
+ * The proxy listens on proxy-port, any free port by default, at proxy-host, by default localhost, which only a
+ * browser on this machine can reach. Remote sessions need a proxy-host their nodes can reach. The proxy only serves
+ * connections from this machine, the hosts of the configured hubs and the &lt;client&gt; hosts, e.g. nodes on other
+ * machines than their hub, and only tunnels to the tunnel-ports, 443 by default, so it is no open relay.
+ */
+public class ResourceBlocker {
+    private static final int IDLE_TIMEOUT_MILLIS = 60000;
+    private static final int CONNECT_TIMEOUT_MILLIS = 10000;
+    private static final int HEAD_TIMEOUT_MILLIS = 5000;
+    private static final int MAX_HEADER_LINE = 16384;
+    private static final int MAX_SIZED_URLS = 10000;
+    private static final int MAX_PENDING_HEADS = 1000;
+    private static final int TOP_URLS = 20;
+    private static final int HTTPS_PORT = 443;
+
+    private static final Map<String, String> TYPE_EXTENSIONS = new HashMap<>();
+    private static final Map<String, Map<String, Object>> TYPE_PREFERENCES = new LinkedHashMap<>();
+
+    static {
+        for (String extension : new String[]{"png", "jpg", "jpeg", "gif", "webp", "svg", "ico", "bmp", "avif"}) {
+            TYPE_EXTENSIONS.put(extension, "image");
+        }
+        for (String extension : new String[]{"woff", "woff2", "ttf", "otf", "eot"}) {
+            TYPE_EXTENSIONS.put(extension, "font");
+        }
+        for (String extension : new String[]{"mp4", "webm", "ogg", "ogv", "mp3", "wav", "m4a", "m4v"}) {
+            TYPE_EXTENSIONS.put(extension, "media");
+        }
+        TYPE_EXTENSIONS.put("css", "stylesheet");
+
+        TYPE_PREFERENCES.put("image", Collections.<String, Object>singletonMap("permissions.default.image", 2));
+        TYPE_PREFERENCES.put("font",
+                Collections.<String, Object>singletonMap("gfx.downloadable_fonts.enabled", false));
+        Map<String, Object> media = new LinkedHashMap<>();
+        media.put("media.autoplay.default", 5);
+        media.put("media.preload.default", 0);
+        TYPE_PREFERENCES.put("media", media);
+        TYPE_PREFERENCES.put("stylesheet",
+                Collections.<String, Object>singletonMap("permissions.default.stylesheet", 2));
+    }
+
+    /**
+     * Requests blocked for one url, and its size once known
+     */
+    private static final class BlockedUrl {
+        final AtomicLong requests = new AtomicLong();
+        /**
+         * Content length from the HEAD request, -1 while unknown
+         */
+        volatile long bytes = -1;
+    }
+
+    private static ResourceBlocker instance;
+    private static boolean configured;
+
+    private final Set<String> types;
+    private final List<String> patterns;
+    private final List<Pattern> compiled = new ArrayList<>();
+    private final String proxyHost;
+    private final Set<InetAddress> clients = new HashSet<>();
+    private final Set<Integer> tunnelPorts;
+    private final ServerSocket server;
+    private final ExecutorService connections;
+    private final ThreadPoolExecutor heads;
+    private volatile boolean closed;
+
+    private final AtomicLong requestsPassed = new AtomicLong();
+    private final AtomicLong bytesPassed = new AtomicLong();
+    private final AtomicLong requestsBlocked = new AtomicLong();
+    private final AtomicLong clientsRefused = new AtomicLong();
+    private final ConcurrentMap<String, AtomicLong> blockedByRule = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, BlockedUrl> blockedUrls = new ConcurrentHashMap<>();
+
+    /**
+     * @param types     resource types to turn off in the browser and to block in the proxy
+     * @param patterns  url patterns to block, * matching anything, no proxy is started if empty
+     * @param proxyHost   host the browsers reach the proxy at and it listens on, null for localhost
+     * @param proxyPort   port of the proxy, 0 for any free port
+     * @param clients     hosts besides this machine allowed to use the proxy
+     * @param tunnelPorts ports https requests may be tunneled to
+     */
+    public ResourceBlocker(Collection<String> types, List<String> patterns, String proxyHost, int proxyPort,
+            Collection<String> clients, Collection<Integer> tunnelPorts) throws IOException {
+        this.types = new LinkedHashSet<>();
+        for (String type : types) {
+            String t = type.trim().toLowerCase(Locale.ROOT);
+            if (!TYPE_PREFERENCES.containsKey(t)) {
+                throw new IllegalArgumentException("Unknown resource type " + type + ", expected one of "
+                        + TYPE_PREFERENCES.keySet());
+            }
+            this.types.add(t);
+        }
+        this.patterns = new ArrayList<>(patterns);
+        for (String pattern : patterns) {
+            compiled.add(glob(pattern.trim()));
+        }
+        this.proxyHost = proxyHost == null ? "localhost" : proxyHost;
+        this.tunnelPorts = new HashSet<>(tunnelPorts);
+        if (patterns.isEmpty()) {
+            server = null;
+            connections = null;
+            heads = null;
+            return;
+        }
+        server = new ServerSocket(proxyPort, 100,
+                proxyHost == null ? InetAddress.getLoopbackAddress() : InetAddress.getByName(proxyHost));
+        this.clients.add(server.getInetAddress());
+        for (String client : clients) {
+            try {
+                this.clients.addAll(Arrays.asList(InetAddress.getAllByName(client.trim())));
+            } catch (UnknownHostException e) {
+                System.out.println("[Warning] Resource blocking proxy client " + client + " not found:" + e.toString());
+            }
+        }
+        connections = Executors.newCachedThreadPool(daemonThreads("resource-proxy"));
+        heads = new ThreadPoolExecutor(2, 2, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(MAX_PENDING_HEADS), daemonThreads("resource-size"),
+                new ThreadPoolExecutor.DiscardPolicy());
+        Thread acceptor = daemonThreads("resource-proxy-accept").newThread(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        });
+        acceptor.start();
+        System.out.println("[ResourceBlocker] Proxy listening on " + getProxyAddress() + ", blocking " + patterns
+                + (this.types.isEmpty() ? "" : " and " + this.types));
+    }
+
+    /**
+     * @return the blocker of the webdriver config, started on first use, null if &lt;block-resources&gt; is not
+     * configured
+     */
+    public static synchronized ResourceBlocker get() {
+        if (!configured) {
+            HierarchicalConfiguration<ImmutableNode> driverConfig = ConfigManager.getConfigsByName("webdriver");
+            if (driverConfig.configurationsAt("block-resources").isEmpty()) {
+                configured = true;
+                return null;
+            }
+            HierarchicalConfiguration<ImmutableNode> config = driverConfig.configurationAt("block-resources");
+            List<String> patterns = config.getList(String.class, "url-pattern", Collections.<String>emptyList());
+            String proxyHost = config.getString("[@proxy-host]");
+            List<String> clients = new ArrayList<>(config.getList(String.class, "client",
+                    Collections.<String>emptyList()));
+            if (AutoDriver.isRemote()) {
+                if (!patterns.isEmpty() && proxyHost == null) {
+                    throw new IllegalStateException("block-resources with url patterns needs a proxy-host the"
+                            + " remote browsers can reach, localhost is the hub node itself");
+                }
+                clients.addAll(HubAllocator.configuredHosts());
+            }
+            List<Integer> tunnelPorts = new ArrayList<>();
+            for (String port : config.getString("[@tunnel-ports]", String.valueOf(HTTPS_PORT)).split(",")) {
+                tunnelPorts.add(Integer.parseInt(port.trim()));
+            }
+            try {
+                instance = new ResourceBlocker(config.getList(String.class, "type", Collections.<String>emptyList()),
+                        patterns, proxyHost, config.getInt("[@proxy-port]", 0), clients, tunnelPorts);
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to start the resource blocking proxy", e);
+            }
+            // only once it started, every session fails rather than running unblocked
+            configured = true;
+        }
+        return instance;
+    }
+
+    /**
+     * Stop the proxy, print what was blocked and write resource_blocking.json.
+     *
+     * @param reportDir the directory to write the report to
+     */
+    static synchronized void shutdownInstance(File reportDir) {
+        if (instance != null) {
+            instance.shutdown();
+            System.out.println("[ResourceBlocker] " + instance.summary());
+            try {
+                instance.writeReport(reportDir);
+            } catch (IOException e) {
+                System.out.println("[Error] Failed to write resource blocking report:" + e.toString());
+            }
+            instance = null;
+        }
+        configured = false;
+    }
+
+    /**
+     * Add the preferences turning off the blocked types and point the browser to the proxy.
+     *
+     * @return the options
+     */
+    public FirefoxOptions configure(FirefoxOptions options) {
+        for (String type : types) {
+            for (Map.Entry<String, Object> preference : TYPE_PREFERENCES.get(type).entrySet()) {
+                Object value = preference.getValue();
+                if (value instanceof Boolean) {
+                    options.addPreference(preference.getKey(), (Boolean) value);
+                } else {
+                    options.addPreference(preference.getKey(), (Integer) value);
+                }
+            }
+        }
+        if (server != null) {
+            Proxy proxy = new Proxy();
+            proxy.setHttpProxy(getProxyAddress());
+            proxy.setSslProxy(getProxyAddress());
+            options.setProxy(proxy);
+        }
+        return options;
+    }
+
+    /**
+     * @return host:port the browsers reach the proxy at, null without a proxy
+     */
+    public String getProxyAddress() {
+        return server == null ? null : proxyHost + ":" + server.getLocalPort();
+    }
+
+    private void shutdown() {
+        if (server == null) {
+            return;
+        }
+        closed = true;
+        try {
+            server.close();
+        } catch (IOException e) {
+            // closing anyway
+        }
+        connections.shutdownNow();
+        heads.shutdown();
+        try {
+            heads.awaitTermination(HEAD_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void accept() {
+        while (!closed) {
+            final Socket client;
+            try {
+                client = server.accept();
+            } catch (IOException e) {
+                if (!closed) {
+                    EventLog.warn("ResourceBlocker", "proxy stopped accepting", e);
+                }
+                return;
+            }
+            InetAddress address = client.getInetAddress();
+            if (!address.isLoopbackAddress() && !clients.contains(address)) {
+                clientsRefused.incrementAndGet();
+                EventLog.debug("ResourceBlocker", "refused connection from " + address.getHostAddress());
+                closeQuietly(client);
+                continue;
+            }
+            try {
+                connections.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(client);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                closeQuietly(client);
+            }
+        }
+    }
+
+    /**
+     * Serve the requests of one browser connection, up to the first one passed through.
+     */
+    private void serve(Socket client) {
+        try {
+            client.setSoTimeout(IDLE_TIMEOUT_MILLIS);
+            InputStream in = new BufferedInputStream(client.getInputStream());
+            OutputStream out = client.getOutputStream();
+            while (true) {
+                String requestLine = readLine(in);
+                if (requestLine == null || requestLine.isEmpty()) {
+                    return;
+                }
+                List<String> headers = new ArrayList<>();
+                for (String line = readLine(in); line != null && !line.isEmpty(); line = readLine(in)) {
+                    headers.add(line);
+                }
+                String[] parts = requestLine.split(" ");
+                if (parts.length < 3) {
+                    return;
+                }
+                if ("CONNECT".equalsIgnoreCase(parts[0])) {
+                    tunnel(parts[1], in, out);
+                    return;
+                }
+                URL url = new URL(parts[1]);
+                String rule = blockingRule(url.toString(), typeOf(url, header(headers, "Accept")));
+                if (rule == null) {
+                    forward(parts[0], url, headers, in, out);
+                    return;
+                }
+                blocked(rule, url.toString(), true);
+                discard(in, header(headers, "Content-Length"));
+                out.write("HTTP/1.1 204 No Content\r\nContent-Length: 0\r\n\r\n"
+                        .getBytes(StandardCharsets.ISO_8859_1));
+                out.flush();
+            }
+        } catch (IOException e) {
+            EventLog.debug("ResourceBlocker", "connection ended: " + e);
+        } finally {
+            closeQuietly(client);
+        }
+    }
+
+    private void tunnel(String hostPort, InputStream in, OutputStream out) throws IOException {
+        int colon = hostPort.lastIndexOf(':');
+        String host = colon < 0 ? hostPort : hostPort.substring(0, colon);
+        int port = colon < 0 ? HTTPS_PORT : Integer.parseInt(hostPort.substring(colon + 1));
+        if (!tunnelPorts.contains(port)) {
+            EventLog.debug("ResourceBlocker", "refused tunnel to " + hostPort);
+            out.write("HTTP/1.1 403 Forbidden\r\nContent-Length: 0\r\nConnection: close\r\n\r\n"
+                    .getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+            return;
+        }
+        String rule = blockingRule("https://" + host + (port == HTTPS_PORT ? "" : ":" + port) + "/", null);
+        if (rule != null) {
+            blocked(rule, "https://" + hostPort, false);
+            out.write("HTTP/1.1 403 Forbidden\r\nContent-Length: 0\r\nConnection: close\r\n\r\n"
+                    .getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+            return;
+        }
+        Socket origin = new Socket();
+        try {
+            origin.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MILLIS);
+            origin.setSoTimeout(IDLE_TIMEOUT_MILLIS);
+            requestsPassed.incrementAndGet();
+            out.write("HTTP/1.1 200 Connection Established\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+            pumpInBackground(in, origin);
+            bytesPassed.addAndGet(copy(origin.getInputStream(), out));
+        } finally {
+            closeQuietly(origin);
+        }
+    }
+
+    /**
+     * Send the request to its server over a connection of its own and relay the response, the browser connection
+     * is closed after it.
+     */
+    private void forward(String method, URL url, List<String> headers, InputStream in, OutputStream out)
+            throws IOException {
+        Socket origin = new Socket();
+        try {
+            origin.connect(new InetSocketAddress(url.getHost(), url.getPort() < 0 ? url.getDefaultPort()
+                    : url.getPort()), CONNECT_TIMEOUT_MILLIS);
+            origin.setSoTimeout(IDLE_TIMEOUT_MILLIS);
+            requestsPassed.incrementAndGet();
+            StringBuilder request = new StringBuilder(method).append(' ')
+                    .append(url.getFile().isEmpty() ? "/" : url.getFile()).append(" HTTP/1.1\r\n");
+            for (String header : headers) {
+                String name = header.substring(0, Math.max(0, header.indexOf(':'))).trim();
+                if (!"Proxy-Connection".equalsIgnoreCase(name) && !"Connection".equalsIgnoreCase(name)
+                        && !"Keep-Alive".equalsIgnoreCase(name)) {
+                    request.append(header).append("\r\n");
+                }
+            }
+            request.append("Connection: close\r\n\r\n");
+            OutputStream originOut = origin.getOutputStream();
+            originOut.write(request.toString().getBytes(StandardCharsets.ISO_8859_1));
+            String length = header(headers, "Content-Length");
+            if (length != null) {
+                copy(in, originOut, Long.parseLong(length.trim()));
+            } else if (header(headers, "Transfer-Encoding") != null) {
+                pumpInBackground(in, origin); // a chunked body, the connection is closed after this request anyway
+            }
+            originOut.flush();
+            bytesPassed.addAndGet(copy(origin.getInputStream(), out));
+        } finally {
+            closeQuietly(origin);
+        }
+    }
+
+    private void pumpInBackground(final InputStream in, final Socket origin) {
+        connections.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    copy(in, origin.getOutputStream());
+                    origin.shutdownOutput();
+                } catch (IOException e) {
+                    closeQuietly(origin);
+                }
+            }
+        });
+    }
+
+    /**
+     * @param url  the url requested, https://host/ for a tunnel
+     * @param type the resource type of an http request, null if unknown
+     * @return the rule blocking the request, its type or url pattern, null if it is allowed
+     */
+    String blockingRule(String url, String type) {
+        if (type != null && types.contains(type)) {
+            return type;
+        }
+        for (int i = 0; i < compiled.size(); i++) {
+            if (compiled.get(i).matcher(url).matches()) {
+                return patterns.get(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the resource type of an http request judged by its extension or Accept header, null if unknown
+     */
+    static String typeOf(URL url, String accept) {
+        String path = url.getPath();
+        int dot = path.lastIndexOf('.');
+        if (dot > path.lastIndexOf('/')) {
+            String type = TYPE_EXTENSIONS.get(path.substring(dot + 1).toLowerCase(Locale.ROOT));
+            if (type != null) {
+                return type;
+            }
+        }
+        if (accept != null && accept.startsWith("image/")) {
+            return "image";
+        }
+        return accept != null && accept.startsWith("text/css") ? "stylesheet" : null;
+    }
+
+    private void blocked(String rule, final String url, boolean sizable) {
+        requestsBlocked.incrementAndGet();
+        AtomicLong count = blockedByRule.get(rule);
+        if (count == null) {
+            count = blockedByRule.computeIfAbsent(rule, k -> new AtomicLong());
+        }
+        count.incrementAndGet();
+        BlockedUrl blocked = blockedUrls.get(url);
+        if (blocked == null) {
+            if (blockedUrls.size() >= MAX_SIZED_URLS) {
+                return;
+            }
+            BlockedUrl created = new BlockedUrl();
+            blocked = blockedUrls.putIfAbsent(url, created);
+            if (blocked == null) {
+                blocked = created;
+                if (sizable) {
+                    final BlockedUrl sized = created;
+                    heads.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            sized.bytes = contentLength(url);
+                        }
+                    });
+                }
+            }
+        }
+        blocked.requests.incrementAndGet();
+    }
+
+    /**
+     * @return the size of a resource from a HEAD request, -1 if its server does not tell
+     */
+    private static long contentLength(String url) {
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection(java.net.Proxy.NO_PROXY);
+            connection.setRequestMethod("HEAD");
+            connection.setConnectTimeout(HEAD_TIMEOUT_MILLIS);
+            connection.setReadTimeout(HEAD_TIMEOUT_MILLIS);
+            try {
+                return connection.getResponseCode() < 400 ? connection.getContentLengthLong() : -1;
+            } finally {
+                connection.disconnect();
+            }
+        } catch (IOException | RuntimeException e) {
+            return -1;
+        }
+    }
+
+    private String summary() {
+        long sized = 0;
+        long bytes = 0;
+        for (BlockedUrl url : blockedUrls.values()) {
+            if (url.bytes >= 0) {
+                sized++;
+                bytes += url.bytes * url.requests.get();
+            }
+        }
+        return String.format(Locale.ROOT,
+                "%d requests blocked, about %.1f MB saved (%d of %d urls sized), %d requests passed with %.1f MB",
+                requestsBlocked.get(), bytes / 1048576.0, sized, blockedUrls.size(), requestsPassed.get(),
+                bytesPassed.get() / 1048576.0)
+                + (clientsRefused.get() > 0 ? ", " + clientsRefused.get() + " connections refused" : "");
+    }
+
+    private void writeReport(File dir) throws IOException {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("types_blocked_by_browser", new ArrayList<>(types));
+        report.put("url_patterns", patterns);
+        report.put("proxy", getProxyAddress());
+        report.put("requests_passed", requestsPassed.get());
+        report.put("bytes_passed", bytesPassed.get());
+        report.put("requests_blocked", requestsBlocked.get());
+        report.put("connections_refused", clientsRefused.get());
+        Map<String, Object> byRule = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> entry : blockedByRule.entrySet()) {
+            byRule.put(entry.getKey(), entry.getValue().get());
+        }
+        report.put("requests_blocked_by_rule", byRule);
+
+        List<Map.Entry<String, BlockedUrl>> urls = new ArrayList<>(blockedUrls.entrySet());
+        long bytesSaved = 0;
+        long sized = 0;
+        for (Map.Entry<String, BlockedUrl> entry : urls) {
+            if (entry.getValue().bytes >= 0) {
+                sized++;
+                bytesSaved += entry.getValue().bytes * entry.getValue().requests.get();
+            }
+        }
+        report.put("bytes_saved_estimated", bytesSaved);
+        report.put("blocked_urls", urls.size());
+        report.put("blocked_urls_sized", sized);
+        Collections.sort(urls, new Comparator<Map.Entry<String, BlockedUrl>>() {
+            @Override
+            public int compare(Map.Entry<String, BlockedUrl> a, Map.Entry<String, BlockedUrl> b) {
+                return Long.compare(saved(b.getValue()), saved(a.getValue()));
+            }
+        });
+        List<Object> top = new ArrayList<>();
+        for (Map.Entry<String, BlockedUrl> entry : urls.subList(0, Math.min(TOP_URLS, urls.size()))) {
+            Map<String, Object> url = new LinkedHashMap<>();
+            url.put("url", entry.getKey());
+            url.put("requests", entry.getValue().requests.get());
+            url.put("bytes", entry.getValue().bytes < 0 ? null : entry.getValue().bytes);
+            top.add(url);
+        }
+        report.put("top_blocked_urls", top);
+
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(new File(dir, "resource_blocking.json")),
+                StandardCharsets.UTF_8)) {
+            out.write(new Json().toJson(report));
+        }
+    }
+
+    private static long saved(BlockedUrl url) {
+        return Math.max(0, url.bytes) * url.requests.get();
+    }
+
+    private static Pattern glob(String pattern) {
+        StringBuilder regex = new StringBuilder();
+        String[] parts = pattern.split("\\*", -1);
+        for (int i = 0; i < parts.length; i++) {
+            if (i > 0) {
+                regex.append(".*");
+            }
+            if (!parts[i].isEmpty()) {
+                regex.append(Pattern.quote(parts[i]));
+            }
+        }
+        return Pattern.compile(regex.toString(), Pattern.CASE_INSENSITIVE);
+    }
+
+    private static String header(List<String> headers, String name) {
+        for (String header : headers) {
+            int colon = header.indexOf(':');
+            if (colon > 0 && header.substring(0, colon).trim().equalsIgnoreCase(name)) {
+                return header.substring(colon + 1).trim();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return a line of a request head without its line end, null at the end of the stream
+     */
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        for (int c = in.read(); c >= 0; c = in.read()) {
+            if (c == '\n') {
+                int end = line.length();
+                return line.substring(0, end > 0 && line.charAt(end - 1) == '\r' ? end - 1 : end);
+            }
+            if (line.length() >= MAX_HEADER_LINE) {
+                throw new IOException("Request header line too long");
+            }
+            line.append((char) c);
+        }
+        return line.length() == 0 ? null : line.toString();
+    }
+
+    private static void discard(InputStream in, String contentLength) throws IOException {
+        if (contentLength != null) {
+            copy(in, new OutputStream() {
+                @Override
+                public void write(int b) {
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                }
+            }, Long.parseLong(contentLength.trim()));
+        }
+    }
+
+    private static long copy(InputStream in, OutputStream out) throws IOException {
+        return copy(in, out, Long.MAX_VALUE);
+    }
+
+    private static long copy(InputStream in, OutputStream out, long limit) throws IOException {
+        byte[] buffer = new byte[16384];
+        long total = 0;
+        while (total < limit) {
+            int n = in.read(buffer, 0, (int) Math.min(buffer.length, limit - total));
+            if (n < 0) {
+                break;
+            }
+            out.write(buffer, 0, n);
+            out.flush();
+            total += n;
+        }
+        return total;
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // nothing left to do with it
+        }
+    }
+
+    private static ThreadFactory daemonThreads(final String name) {
+        return new ThreadFactory() {
+            private final AtomicLong count = new AtomicLong();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+}
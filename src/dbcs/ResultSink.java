@@ -0,0 +1,319 @@
+package dbcs;
+
+import java.sql.*;
+import java.text.*;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Writes testcase and operation results back to the database, see result_tables.sql for the tables.<br>
+ * <p>
+ * Test threads only put rows on a queue. A background thread takes them off and inserts them with JDBC batches,
+ * when batchSize rows are waiting or flushInterval has passed since the last flush, whichever comes first, so a slow
+ * database never delays a browser step. {@link #shutdown()} writes every queued row before it returns. If the queue
+ * is full, because the database is down or far too slow, further rows are dropped and counted rather than blocking
+ * the tests. A batch the database rejects, e.g. for a value too long for its column, is written again row by row, so
+ * one bad row does not lose the others.
+ * </p>
+ * Every row carries the id of the run, so the results of one run can be selected together.
+ */
+public class ResultSink {
+    private static final int QUEUE_CAPACITY = 100000;
+    /**
+     * Longest message and xpath in UTF-8 bytes, the size of their varchar2 columns
+     */
+    private static final int MAX_MESSAGE_BYTES = 4000;
+    private static final int MAX_XPATH_BYTES = 4000;
+    private static final int MAX_WRITE_ATTEMPTS = 3;
+    /**
+     * Longest the writer sleeps before checking for shutdown
+     */
+    private static final long POLL_MILLIS = 100;
+
+    private static final String INSERT_TESTCASE = "insert into db_auto_testcase_result"
+            + " (run_id, testname, status, started_at, duration_ms, message) values (?, ?, ?, ?, ?, ?)";
+    private static final String INSERT_OPERATION = "insert into db_auto_operation_result"
+            + " (run_id, testname, test_started_at, step_index, operation, xpath, status, started_at, duration_ms,"
+            + " message) values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    public enum Status {
+        PASSED, FAILED
+    }
+
+    /**
+     * A result row, either a testcase (step index -1) or one of its operations.
+     */
+    private static final class Row {
+        final String testName;
+        final long testStartMillis;
+        final int stepIndex;
+        final String operation;
+        final String xpath;
+        final Status status;
+        final long startMillis;
+        final long durationMillis;
+        final String message;
+
+        Row(String testName, long testStartMillis, int stepIndex, String operation, String xpath, Status status,
+                long startMillis, long durationMillis, String message) {
+            this.testName = testName;
+            this.testStartMillis = testStartMillis;
+            this.stepIndex = stepIndex;
+            this.operation = operation;
+            this.xpath = xpath;
+            this.status = status;
+            this.startMillis = startMillis;
+            this.durationMillis = durationMillis;
+            this.message = message;
+        }
+
+        boolean isTestcase() {
+            return stepIndex < 0;
+        }
+    }
+
+    private final ConnectionPool connectionPool;
+    private final String runId;
+    private final int batchSize;
+    private final long flushIntervalMillis;
+    private final BlockingQueue<Row> queue = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread writer;
+    private volatile boolean shutdown;
+
+    /**
+     * Create the sink and start its writer thread.
+     *
+     * @param connectionPool      connections to the database holding the result tables
+     * @param batchSize           rows written per batch
+     * @param flushIntervalMillis longest time a row waits on the queue while the sink is idle, at least
+     *                            {@link #POLL_MILLIS}
+     */
+    public ResultSink(ConnectionPool connectionPool, int batchSize, long flushIntervalMillis) {
+        this.connectionPool = connectionPool;
+        this.runId = new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.ROOT).format(new java.util.Date()) + "-"
+                + UUID.randomUUID().toString().substring(0, 8);
+        this.batchSize = Math.max(1, batchSize);
+        this.flushIntervalMillis = Math.max(POLL_MILLIS, flushIntervalMillis);
+        this.writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "result-sink");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public String getRunId() {
+        return runId;
+    }
+
+    /**
+     * Queue the result of a finished testcase.
+     *
+     * @param startMillis wall clock time the testcase started, also identifies it in its operation rows
+     * @param message     the failure, null if it passed
+     */
+    public void testEnded(String testName, long startMillis, long durationMillis, Status status, String message) {
+        offer(new Row(testName, startMillis, -1, null, null, status, startMillis, durationMillis, message));
+    }
+
+    /**
+     * Queue the result of an executed step.
+     *
+     * @param testStartMillis wall clock time the testcase started, as passed to {@link #testEnded}
+     * @param startMillis     wall clock time the step started
+     * @param message         the failure, null if it passed
+     */
+    public void stepEnded(String testName, long testStartMillis, Step step, long startMillis, long durationMillis,
+            Status status, String message) {
+        offer(new Row(testName, testStartMillis, step.index, step.type.name(), step.xpath, status, startMillis,
+                durationMillis, message));
+    }
+
+    private void offer(Row row) {
+        if (shutdown || !queue.offer(row)) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    private void writeLoop() {
+        List<Row> batch = new ArrayList<>(batchSize);
+        long nextFlush = System.currentTimeMillis() + flushIntervalMillis;
+        while (true) {
+            try {
+                long wait = Math.max(1, Math.min(nextFlush - System.currentTimeMillis(), POLL_MILLIS));
+                Row row = batch.size() < batchSize ? queue.poll(wait, TimeUnit.MILLISECONDS) : null;
+                if (row != null) {
+                    batch.add(row);
+                }
+            } catch (InterruptedException e) {
+                // not interrupted by the sink itself, an interrupt would abort a JDBC call in progress
+            }
+            boolean stopping = shutdown;
+            if (stopping) {
+                queue.drainTo(batch);
+            } else {
+                queue.drainTo(batch, batchSize - batch.size());
+            }
+            if (batch.size() >= batchSize || System.currentTimeMillis() >= nextFlush || stopping) {
+                if (!batch.isEmpty()) {
+                    write(batch);
+                    batch.clear();
+                }
+                nextFlush = System.currentTimeMillis() + flushIntervalMillis;
+            }
+            if (stopping && queue.isEmpty()) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Insert the rows in one transaction, retrying a few times before writing them row by row.
+     */
+    private void write(List<Row> batch) {
+        for (int attempt = 1; ; attempt++) {
+            try (Connection conn = connectionPool.getConnection()) {
+                conn.setAutoCommit(false);
+                try (PreparedStatement testcases = conn.prepareStatement(INSERT_TESTCASE);
+                     PreparedStatement operations = conn.prepareStatement(INSERT_OPERATION)) {
+                    for (Row row : batch) {
+                        if (row.isTestcase()) {
+                            bindTestcase(testcases, row);
+                            testcases.addBatch();
+                        } else {
+                            bindOperation(operations, row);
+                            operations.addBatch();
+                        }
+                    }
+                    testcases.executeBatch();
+                    operations.executeBatch();
+                }
+                conn.commit();
+                written.addAndGet(batch.size());
+                return;
+            } catch (SQLException e) {
+                System.out.println("[ResultSink] Failed to write " + batch.size() + " results, attempt " + attempt
+                        + ":" + e.toString());
+                if (attempt >= MAX_WRITE_ATTEMPTS || e instanceof BatchUpdateException
+                        || e instanceof SQLDataException) {
+                    // a row the database rejects fails every retry of the batch, keep the others
+                    writeRowByRow(batch);
+                    return;
+                }
+                try {
+                    Thread.sleep(1000L * attempt);
+                } catch (InterruptedException ie) {
+                    // retry at once
+                }
+            }
+        }
+    }
+
+    /**
+     * Insert the rows one at a time, dropping only those the database rejects.
+     */
+    private void writeRowByRow(List<Row> batch) {
+        int done = 0;
+        try (Connection conn = connectionPool.getConnection()) {
+            conn.setAutoCommit(true);
+            try (PreparedStatement testcases = conn.prepareStatement(INSERT_TESTCASE);
+                 PreparedStatement operations = conn.prepareStatement(INSERT_OPERATION)) {
+                for (Row row : batch) {
+                    try {
+                        if (row.isTestcase()) {
+                            bindTestcase(testcases, row);
+                            testcases.executeUpdate();
+                        } else {
+                            bindOperation(operations, row);
+                            operations.executeUpdate();
+                        }
+                        written.incrementAndGet();
+                    } catch (SQLException e) {
+                        dropped.incrementAndGet();
+                        System.out.println("[ResultSink] Dropped result of " + row.testName
+                                + (row.isTestcase() ? "" : " step " + row.stepIndex) + ":" + e.toString());
+                    }
+                    done++;
+                }
+            }
+        } catch (SQLException e) {
+            System.out.println("[ResultSink] Failed to write results row by row:" + e.toString());
+            dropped.addAndGet(batch.size() - done);
+        }
+    }
+
+    private void bindTestcase(PreparedStatement stmt, Row row) throws SQLException {
+        stmt.setString(1, runId);
+        stmt.setString(2, row.testName);
+        stmt.setString(3, row.status.name());
+        stmt.setTimestamp(4, new Timestamp(row.startMillis));
+        stmt.setLong(5, row.durationMillis);
+        stmt.setString(6, truncate(row.message, MAX_MESSAGE_BYTES));
+    }
+
+    private void bindOperation(PreparedStatement stmt, Row row) throws SQLException {
+        stmt.setString(1, runId);
+        stmt.setString(2, row.testName);
+        stmt.setTimestamp(3, new Timestamp(row.testStartMillis));
+        stmt.setInt(4, row.stepIndex);
+        stmt.setString(5, row.operation);
+        stmt.setString(6, truncate(row.xpath, MAX_XPATH_BYTES));
+        stmt.setString(7, row.status.name());
+        stmt.setTimestamp(8, new Timestamp(row.startMillis));
+        stmt.setLong(9, row.durationMillis);
+        stmt.setString(10, truncate(row.message, MAX_MESSAGE_BYTES));
+    }
+
+    /**
+     * @return s cut to at most maxBytes in UTF-8, a varchar2 column counts bytes, without splitting a character
+     */
+    static String truncate(String s, int maxBytes) {
+        if (s == null || s.length() <= maxBytes / 3) {
+            return s; // no character takes more than 3 bytes per UTF-16 unit
+        }
+        int bytes = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            int size;
+            if (c < 0x80) {
+                size = 1;
+            } else if (c < 0x800) {
+                size = 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length()
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                size = 4;
+            } else {
+                size = 3;
+            }
+            if (bytes + size > maxBytes) {
+                return s.substring(0, i);
+            }
+            bytes += size;
+            if (size == 4) {
+                i++;
+            }
+        }
+        return s;
+    }
+
+    /**
+     * Stop accepting rows and wait until every queued row is written.
+     */
+    public void shutdown() {
+        shutdown = true;
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        System.out.println("[ResultSink] Run " + runId + ": " + written.get() + " results written"
+                + (dropped.get() > 0 ? ", " + dropped.get() + " dropped" : ""));
+    }
+}
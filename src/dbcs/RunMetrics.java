@@ -0,0 +1,208 @@
+package dbcs;
+
+import org.openqa.selenium.json.*;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Collects step and testcase latencies of a run and writes them as run_metrics.json and run_metrics.csv.<br>
+ * <p>
+ * Every step is recorded three times per operation type: total time, time spent waiting for the page (actionability
+ * polls, repeated waits, visibility waits) and the remaining action time. Step totals are also kept per locator, so
+ * slow xpaths stand out, and the lookups of the {@link LocatorCache}s are counted to show how often a handle was
+ * reused. Recording is a few atomic increments and never blocks another worker.
+ * </p>
+ */
+public final class RunMetrics {
+    private static final ConcurrentMap<String, LatencyHistogram> operations = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, LatencyHistogram> operationWaits = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, LatencyHistogram> operationActions = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, LatencyHistogram> locators = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, LatencyHistogram> testcases = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, LatencyHistogram> failures = new ConcurrentHashMap<>();
+    private static volatile Map<String, Object> schedule;
+    private static final AtomicLong locatorHits = new AtomicLong();
+    private static final AtomicLong locatorMisses = new AtomicLong();
+    private static final AtomicLong locatorsInvalidated = new AtomicLong();
+
+    // wait time accumulated by the current thread since the start of its current step
+    private static final ThreadLocal<long[]> waitNanos = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[1];
+        }
+    };
+
+    private RunMetrics() {
+    }
+
+    private static LatencyHistogram histogram(ConcurrentMap<String, LatencyHistogram> map, String key) {
+        LatencyHistogram histogram = map.get(key);
+        if (histogram == null) {
+            histogram = map.computeIfAbsent(key, k -> new LatencyHistogram());
+        }
+        return histogram;
+    }
+
+    /**
+     * Mark the start of a wait for the page.
+     *
+     * @return the value to pass to {@link #waitEnded(long)}
+     */
+    public static long waitStarted() {
+        return System.nanoTime();
+    }
+
+    public static void waitEnded(long start) {
+        waitNanos.get()[0] += System.nanoTime() - start;
+    }
+
+    /**
+     * Reset the wait time of the current thread, called when a step starts.
+     */
+    static void stepStarted() {
+        waitNanos.get()[0] = 0;
+    }
+
+    /**
+     * Record a finished step of the current thread.
+     *
+     * @param step  the step executed
+     * @param nanos time taken by the step
+     */
+    static void stepEnded(Step step, long nanos) {
+        long wait = Math.min(waitNanos.get()[0], nanos);
+        String type = step.type.name();
+        histogram(operations, type).record(nanos);
+        histogram(operationWaits, type).record(wait);
+        histogram(operationActions, type).record(nanos - wait);
+        if (step.xpath != null) {
+            histogram(locators, type + " " + step.xpath).record(nanos);
+        }
+    }
+
+    /**
+     * Record a finished testcase.
+     *
+     * @param testName name of the testcase
+     * @param nanos    time taken by the testcase
+     * @param passed   whether all steps succeeded
+     */
+    public static void testEnded(String testName, long nanos, boolean passed) {
+        histogram(passed ? testcases : failures, testName).record(nanos);
+    }
+
+    /**
+     * Count a lookup in a {@link LocatorCache}.
+     *
+     * @param hit whether a handle was cached
+     */
+    static void locatorLookup(boolean hit) {
+        (hit ? locatorHits : locatorMisses).incrementAndGet();
+    }
+
+    /**
+     * Count a cached handle dropped because it turned out to be stale or not actionable.
+     */
+    static void locatorInvalidated() {
+        locatorsInvalidated.incrementAndGet();
+    }
+
+    /**
+     * Record how long the whole run took against the estimate it was scheduled with.
+     */
+    public static void scheduleEnded(int workers, long estimatedMillis, long actualMillis) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("workers", workers);
+        result.put("estimated_makespan_ms", estimatedMillis);
+        result.put("actual_makespan_ms", actualMillis);
+        schedule = result;
+    }
+
+    /**
+     * Write run_metrics.json and run_metrics.csv.
+     *
+     * @param dir the directory to write to
+     */
+    public static void writeReport(File dir) throws IOException {
+        Map<String, Object> report = new LinkedHashMap<>();
+        Map<String, Object> ops = new TreeMap<>();
+        for (String type : operations.keySet()) {
+            Map<String, Object> op = summary(operations.get(type));
+            op.put("wait", summary(operationWaits.get(type)));
+            op.put("action", summary(operationActions.get(type)));
+            ops.put(type, op);
+        }
+        report.put("operations", ops);
+        report.put("locators", summaries(locators));
+        report.put("testcases", summaries(testcases));
+        report.put("failed-testcases", summaries(failures));
+        report.put("locator-cache", locatorCacheSummary());
+        if (schedule != null) {
+            report.put("schedule", schedule);
+        }
+
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(new File(dir, "run_metrics.json")),
+                StandardCharsets.UTF_8)) {
+            out.write(new Json().toJson(report));
+        }
+
+        try (PrintWriter out = new PrintWriter(new OutputStreamWriter(
+                new FileOutputStream(new File(dir, "run_metrics.csv")), StandardCharsets.UTF_8))) {
+            out.println("category,key,count,p50_ms,p90_ms,p99_ms,max_ms,total_ms");
+            writeCsv(out, "operation", operations);
+            writeCsv(out, "operation-wait", operationWaits);
+            writeCsv(out, "operation-action", operationActions);
+            writeCsv(out, "locator", locators);
+            writeCsv(out, "testcase", testcases);
+            writeCsv(out, "failed-testcase", failures);
+        }
+    }
+
+    private static Map<String, Object> summaries(Map<String, LatencyHistogram> histograms) {
+        Map<String, Object> result = new TreeMap<>();
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            result.put(entry.getKey(), summary(entry.getValue()));
+        }
+        return result;
+    }
+
+    private static Map<String, Object> locatorCacheSummary() {
+        long hits = locatorHits.get();
+        long lookups = hits + locatorMisses.get();
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("lookups", lookups);
+        result.put("hits", hits);
+        result.put("hit_rate", lookups > 0 ? (double) hits / lookups : null);
+        result.put("invalidated", locatorsInvalidated.get());
+        return result;
+    }
+
+    private static Map<String, Object> summary(LatencyHistogram histogram) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("count", histogram.getCount());
+        result.put("p50_ms", histogram.getPercentileMillis(0.5));
+        result.put("p90_ms", histogram.getPercentileMillis(0.9));
+        result.put("p99_ms", histogram.getPercentileMillis(0.99));
+        result.put("max_ms", histogram.getMaxMillis());
+        result.put("total_ms", histogram.getTotalMillis());
+        return result;
+    }
+
+    private static void writeCsv(PrintWriter out, String category, Map<String, LatencyHistogram> histograms) {
+        for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(histograms).entrySet()) {
+            LatencyHistogram h = entry.getValue();
+            out.println(String.format(Locale.ROOT, "%s,%s,%d,%.3f,%.3f,%.3f,%.3f,%.3f", category,
+                    csvQuote(entry.getKey()), h.getCount(), h.getPercentileMillis(0.5), h.getPercentileMillis(0.9),
+                    h.getPercentileMillis(0.99), h.getMaxMillis(), h.getTotalMillis()));
+        }
+    }
+
+    private static String csvQuote(String s) {
+        return "\"" + s.replace("\"", "\"\"") + "\"";
+    }
+}
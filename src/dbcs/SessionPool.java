@@ -0,0 +1,201 @@
+package dbcs;
+
+import org.openqa.selenium.*;
+
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+/**
+ * Pool of warm browser sessions shared by the testcase workers.<br>
+ * <p>
+ * The browsers are launched in the background as soon as the pool is created, so their start-up overlaps with each
+ * other and with compiling the plans instead of delaying each worker's first testcase. A session is handed to one
+ * testcase at a time and reset between uses ({@link AutoDriver#reset()}). A session is retired, quit and replaced
+ * after maxUses testcases, when its testcase failed, as the browser may be left in any state, or when it can not be
+ * reset.
+ * </p>
+ * Sessions that fail to launch are retried on the next {@link #acquire()}.
+ */
+public class SessionPool {
+    private final int size;
+    private final int maxUses;
+    private final long acquireTimeoutMillis;
+    private final Supplier<AutoDriver> factory;
+
+    private final BlockingQueue<AutoDriver> idle = new LinkedBlockingQueue<>();
+    private final Map<AutoDriver, Integer> uses = new ConcurrentHashMap<>();
+    /**
+     * Sessions alive or being launched
+     */
+    private final AtomicInteger live = new AtomicInteger();
+    private final AtomicLong launched = new AtomicLong();
+    private final AtomicLong retired = new AtomicLong();
+    private final ExecutorService launcher;
+    private volatile boolean shutdown;
+
+    /**
+     * Create the pool and start launching its sessions.
+     *
+     * @param size                 number of sessions kept warm, normally the number of workers
+     * @param maxUses              number of testcases a session serves before it is replaced, 0 for no limit
+     * @param acquireTimeoutMillis how long {@link #acquire()} waits for a session
+     * @param factory              creates a new browser session, e.g. new AutoDriver(isRunOnCloud)
+     */
+    public SessionPool(int size, int maxUses, long acquireTimeoutMillis, Supplier<AutoDriver> factory) {
+        this.size = size;
+        this.maxUses = maxUses;
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        this.factory = factory;
+        this.launcher = Executors.newFixedThreadPool(size, new ThreadFactory() {
+            private final AtomicLong count = new AtomicLong();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "session-launcher-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        topUp();
+    }
+
+    /**
+     * Launch sessions in the background until size sessions are alive or being launched.
+     */
+    private void topUp() {
+        while (!shutdown) {
+            int current = live.get();
+            if (current >= size) {
+                return;
+            }
+            if (live.compareAndSet(current, current + 1)) {
+                try {
+                    launcher.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            launch();
+                        }
+                    });
+                } catch (RejectedExecutionException e) { // shut down meanwhile
+                    live.decrementAndGet();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void launch() {
+        long start = System.nanoTime();
+        AutoDriver autoDriver;
+        try {
+            autoDriver = factory.get();
+        } catch (RuntimeException e) {
+            live.decrementAndGet();
+            System.out.println("[SessionPool] Failed to start a browser session: " + e.getMessage());
+            return;
+        }
+        if (shutdown) {
+            quietlyQuit(autoDriver);
+            live.decrementAndGet();
+            return;
+        }
+        launched.incrementAndGet();
+        uses.put(autoDriver, 0);
+        idle.add(autoDriver);
+        System.out.println("[SessionPool] Browser session ready in " + (System.nanoTime() - start) / 1000000 + " ms");
+    }
+
+    /**
+     * Take a warm session for a testcase, waiting for one to be launched or released if none is idle.
+     *
+     * @return a reset session, to be given back with {@link #release(AutoDriver, boolean)}
+     * @throws TimeoutException if no session became available within the acquire timeout
+     */
+    public AutoDriver acquire() {
+        long deadline = System.currentTimeMillis() + acquireTimeoutMillis;
+        try {
+            while (!shutdown) {
+                AutoDriver autoDriver = idle.poll(1, TimeUnit.SECONDS);
+                if (autoDriver != null) {
+                    return autoDriver;
+                }
+                if (System.currentTimeMillis() > deadline) {
+                    break;
+                }
+                topUp(); // replace sessions that failed to launch
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        throw new TimeoutException("No browser session available within " + acquireTimeoutMillis + " ms");
+    }
+
+    /**
+     * Give a session back after a testcase.
+     *
+     * @param autoDriver the session from {@link #acquire()}
+     * @param failed     whether the testcase failed, the session is then replaced instead of reused
+     */
+    public void release(AutoDriver autoDriver, boolean failed) {
+        Integer count = uses.get(autoDriver);
+        int used = count == null ? 1 : count + 1;
+        if (shutdown || failed || (maxUses > 0 && used >= maxUses)) {
+            retire(autoDriver);
+            return;
+        }
+        try {
+            autoDriver.reset();
+        } catch (WebDriverException e) {
+            System.out.println("[SessionPool] Failed to reset browser session: " + e.getMessage());
+            retire(autoDriver);
+            return;
+        }
+        uses.put(autoDriver, used);
+        idle.add(autoDriver);
+    }
+
+    private void retire(AutoDriver autoDriver) {
+        uses.remove(autoDriver);
+        retired.incrementAndGet();
+        quietlyQuit(autoDriver);
+        live.decrementAndGet();
+        topUp();
+    }
+
+    private static void quietlyQuit(AutoDriver autoDriver) {
+        try {
+            autoDriver.quit();
+        } catch (WebDriverException e) {
+            System.out.println("[SessionPool] Failed to quit browser session: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Quit every idle session and stop launching new ones, sessions still in use are quit when released.
+     */
+    public void shutdown() {
+        shutdown = true;
+        launcher.shutdown();
+        try {
+            launcher.awaitTermination(1, TimeUnit.MINUTES); // let running launches finish so they are quit too
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        AutoDriver autoDriver;
+        while ((autoDriver = idle.poll()) != null) {
+            uses.remove(autoDriver);
+            quietlyQuit(autoDriver);
+            live.decrementAndGet();
+        }
+        System.out.println("[SessionPool] Sessions launched: " + launched.get() + ", retired: " + retired.get());
+    }
+}
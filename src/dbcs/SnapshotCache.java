@@ -0,0 +1,115 @@
+package dbcs;
+
+import org.apache.commons.configuration2.*;
+import org.apache.commons.configuration2.ex.*;
+import org.apache.commons.configuration2.io.*;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.zip.*;
+
+/**
+ * Local, gzip compressed copy of the test configuration last loaded from the database.<br>
+ * The first line of the file holds the fingerprint of the database rows it was built from, the rest is the
+ * config document itself. An unchanged suite is loaded from this file without transferring any CLOB.
+ */
+class SnapshotCache {
+    private final File file;
+
+    /**
+     * @param file location of the snapshot, need not exist yet
+     */
+    SnapshotCache(File file) {
+        this.file = file;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * @return true if a snapshot exists and is younger than maxAgeMillis
+     */
+    boolean isFresh(long maxAgeMillis) {
+        return file.isFile() && System.currentTimeMillis() - file.lastModified() < maxAgeMillis;
+    }
+
+    /**
+     * @return fingerprint stored in the snapshot, or null if there is no readable snapshot
+     */
+    String readFingerprint() {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (BufferedReader reader = open()) {
+            return reader.readLine();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the configuration stored in the snapshot
+     */
+    XMLConfiguration load() throws IOException, ConfigurationException {
+        try (BufferedReader reader = open()) {
+            reader.readLine(); // skip fingerprint
+            XMLConfiguration xmlConfig = new XMLConfiguration();
+            new FileHandler(xmlConfig).load(reader);
+            return xmlConfig;
+        }
+    }
+
+    private BufferedReader open() throws IOException {
+        return new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(new FileInputStream(file)), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Open a writer for a new snapshot. The document is written to a temporary file which only replaces the current
+     * snapshot on {@link SnapshotWriter#commit()}, so an interrupted load never leaves a truncated snapshot.
+     *
+     * @param fingerprint fingerprint of the rows being written
+     * @return writer for the config document
+     */
+    SnapshotWriter openWriter(String fingerprint) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new GZIPOutputStream(new FileOutputStream(temp)), StandardCharsets.UTF_8));
+        writer.write(fingerprint);
+        writer.write('\n');
+        return new SnapshotWriter(writer, temp);
+    }
+
+    /**
+     * Writer of a pending snapshot. Closing it without committing discards the snapshot.
+     */
+    class SnapshotWriter extends FilterWriter {
+        private final File temp;
+        private boolean closed;
+
+        private SnapshotWriter(Writer out, File temp) {
+            super(out);
+            this.temp = temp;
+        }
+
+        /**
+         * Finish the snapshot and make it the current one.
+         */
+        void commit() throws IOException {
+            super.close();
+            closed = true;
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                super.close();
+                temp.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,670 @@
+package dbcs;
+
+import com.sun.net.httpserver.*;
+import org.apache.commons.configuration2.*;
+import org.apache.commons.configuration2.io.*;
+import org.openqa.selenium.json.*;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * In-process stand-in for a Selenium hub, speaking the W3C WebDriver HTTP protocol over a {@link FakePage}.<br>
+ * <p>
+ * Point AutoDriver at it with -Ddbcs.hub=http://localhost:PORT/wd/hub (or &lt;hub&gt; in the webdriver config) to
+ * run the operation engine, parallel workers and wait logic without any browser or network. Every command can be
+ * delayed to model a real browser: a default delay for all commands plus per command overrides, keyed by the command
+ * path with ids removed, e.g. "url", "refresh", "element", "element/click", "execute/sync", and "session" for
+ * starting a browser.
+ * </p>
+ * Usage: java dbcs.StandInServer --config test_list.xml [--port 4444] [--delay ms] [--delay-url ms]
+ * [--change-after refreshes] [--max-sessions n]
+ */
+public class StandInServer {
+    static final String ELEMENT_KEY = "element-6066-11e4-a52e-4f735466cecf";
+
+    // 1x1 transparent png
+    private static final String SCREENSHOT =
+            "iVBORw0KGgoAAAANSUhEUgAAAAEAAAABCAQAAAC1HAwCAAAAC0lEQVR42mNkYAAAAAYAAjCB0C8AAAAASUVORK5CYII=";
+    private static final Json JSON = new Json();
+
+    private final FakePage page;
+    private final long defaultDelayMillis;
+    private final Map<String, Long> delays;
+    private final int maxSessions;
+    private final ConcurrentMap<String, FakePage.Session> sessions = new ConcurrentHashMap<>();
+    private final AtomicLong sessionIds = new AtomicLong();
+    private final AtomicLong commandCount = new AtomicLong();
+    private HttpServer server;
+
+    /**
+     * @param page               the fake page served to every session
+     * @param defaultDelayMillis delay of every command without an override
+     * @param delays             per command delays in milliseconds
+     * @param maxSessions        concurrent sessions accepted, further session requests fail like on a full grid
+     */
+    public StandInServer(FakePage page, long defaultDelayMillis, Map<String, Long> delays, int maxSessions) {
+        this.page = page;
+        this.defaultDelayMillis = defaultDelayMillis;
+        this.delays = new HashMap<>(delays);
+        this.maxSessions = maxSessions;
+    }
+
+    /**
+     * Start serving on the given port, 0 for any free port.
+     *
+     * @return the port listened on
+     */
+    public int start(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 1024);
+        server.setExecutor(Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicLong count = new AtomicLong();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "stand-in-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        }));
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                serve(exchange);
+            }
+        });
+        server.start();
+        return server.getAddress().getPort();
+    }
+
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+            ((ExecutorService) server.getExecutor()).shutdownNow();
+        }
+    }
+
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    public long getCommandCount() {
+        return commandCount.get();
+    }
+
+    /**
+     * Error answered to the client as a W3C error object.
+     */
+    private static class WebDriverError extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        final int status;
+        final String error;
+
+        WebDriverError(int status, String error, String message) {
+            super(message);
+            this.status = status;
+            this.error = error;
+        }
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        int status = 200;
+        Object value;
+        try {
+            String body = readBody(exchange.getRequestBody());
+            Map<?, ?> params = body.trim().isEmpty() ? Collections.emptyMap() : JSON.toType(body, Json.MAP_TYPE);
+            value = dispatch(exchange.getRequestMethod(), exchange.getRequestURI().getPath(), params);
+        } catch (WebDriverError e) {
+            status = e.status;
+            value = errorValue(e.error, e.getMessage());
+        } catch (RuntimeException e) {
+            status = 500;
+            value = errorValue("unknown error", String.valueOf(e));
+        }
+        byte[] response = JSON.toJson(Collections.singletonMap("value", value)).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, response.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(response);
+        }
+    }
+
+    private static Map<String, Object> errorValue(String error, String message) {
+        Map<String, Object> value = new LinkedHashMap<>();
+        value.put("error", error);
+        value.put("message", message);
+        value.put("stacktrace", "");
+        return value;
+    }
+
+    private static String readBody(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            out.write(buffer, 0, n);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private Object dispatch(String method, String path, Map<?, ?> params) throws WebDriverError {
+        int statusAt = path.indexOf("/status");
+        int sessionAt = path.indexOf("/session");
+        if (statusAt >= 0 && (sessionAt < 0 || statusAt < sessionAt)) {
+            Map<String, Object> status = new LinkedHashMap<>();
+            status.put("ready", sessions.size() < maxSessions);
+            status.put("message", sessions.size() + "/" + maxSessions + " sessions");
+            return status;
+        }
+        if (sessionAt < 0) {
+            throw new WebDriverError(404, "unknown command", method + " " + path);
+        }
+        List<String> segments = new ArrayList<>();
+        for (String segment : path.substring(sessionAt + "/session".length()).split("/")) {
+            if (!segment.isEmpty()) {
+                segments.add(segment);
+            }
+        }
+        if (segments.isEmpty()) {
+            if ("POST".equals(method)) {
+                delay("session"); // browser start-up
+                return newSession(params);
+            }
+            throw new WebDriverError(404, "unknown command", method + " " + path);
+        }
+
+        FakePage.Session session = sessions.get(segments.get(0));
+        if (session == null) {
+            throw new WebDriverError(404, "invalid session id", segments.get(0));
+        }
+        if (segments.size() == 1 && "DELETE".equals(method)) {
+            sessions.remove(session.id);
+            return null;
+        }
+
+        // command key: the path after the session id, without element ids
+        String elementRef = null;
+        StringBuilder command = new StringBuilder();
+        for (int i = 1; i < segments.size(); i++) {
+            String previous = segments.get(i - 1);
+            if (i == 2 && "element".equals(previous)) {
+                elementRef = segments.get(i);
+                continue;
+            }
+            if (i == 2 && "cookie".equals(previous)) {
+                continue;
+            }
+            if (command.length() > 0) {
+                command.append('/');
+            }
+            command.append(segments.get(i));
+        }
+        String key = command.toString();
+        commandCount.incrementAndGet();
+        delay(key);
+        synchronized (session) {
+            return execute(session, method, key, elementRef, segments, params);
+        }
+    }
+
+    private void delay(String command) {
+        Long millis = delays.get(command);
+        long delay = millis != null ? millis : defaultDelayMillis;
+        if (delay > 0) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private Object newSession(Map<?, ?> params) throws WebDriverError {
+        checkCapabilities(params.get("capabilities"));
+        synchronized (sessions) {
+            if (sessions.size() >= maxSessions) {
+                throw new WebDriverError(500, "session not created", "All " + maxSessions + " sessions are in use");
+            }
+            String id = "stand-in-" + sessionIds.incrementAndGet();
+            sessions.put(id, page.new Session(id));
+            Map<String, Object> capabilities = new LinkedHashMap<>();
+            capabilities.put("browserName", "firefox");
+            capabilities.put("browserVersion", "stand-in");
+            capabilities.put("platformName", "any");
+            Map<String, Object> value = new LinkedHashMap<>();
+            value.put("sessionId", id);
+            value.put("capabilities", capabilities);
+            return value;
+        }
+    }
+
+    /**
+     * Reject the capabilities geckodriver would reject: an unknown page load strategy or a browser other than
+     * Firefox.
+     */
+    private static void checkCapabilities(Object capabilities) throws WebDriverError {
+        if (!(capabilities instanceof Map)) {
+            return;
+        }
+        List<Object> requested = new ArrayList<>();
+        requested.add(((Map<?, ?>) capabilities).get("alwaysMatch"));
+        Object firstMatch = ((Map<?, ?>) capabilities).get("firstMatch");
+        if (firstMatch instanceof List) {
+            requested.addAll((List<?>) firstMatch);
+        }
+        for (Object entry : requested) {
+            if (!(entry instanceof Map)) {
+                continue;
+            }
+            Object pageLoadStrategy = ((Map<?, ?>) entry).get("pageLoadStrategy");
+            if (pageLoadStrategy != null && !Arrays.asList("none", "eager", "normal").contains(pageLoadStrategy)) {
+                throw new WebDriverError(400, "invalid argument", "Unknown page load strategy " + pageLoadStrategy);
+            }
+            Object browserName = ((Map<?, ?>) entry).get("browserName");
+            if (browserName != null && !"firefox".equals(browserName)) {
+                throw new WebDriverError(500, "session not created", "Unable to find a matching set of capabilities");
+            }
+        }
+    }
+
+    private Object execute(FakePage.Session session, String method, String command, String elementRef,
+            List<String> segments, Map<?, ?> params) throws WebDriverError {
+        switch (method + " " + command) {
+            case "POST url":
+                session.url = String.valueOf(params.get("url"));
+                session.refreshes = 0;
+                session.documentMarked = false;
+                return null;
+            case "GET url":
+                return session.url;
+            case "POST refresh":
+            case "POST back":
+            case "POST forward":
+                session.refresh();
+                return null;
+            case "GET title":
+                return session.title();
+            case "GET source":
+                return pageSource(session);
+            case "GET window":
+                return session.window;
+            case "GET window/handles":
+                return session.windowHandles();
+            case "POST window":
+                String handle = String.valueOf(params.get("handle"));
+                if (!session.windowHandles().contains(handle)) {
+                    throw new WebDriverError(404, "no such window", handle);
+                }
+                session.window = handle;
+                return null;
+            case "DELETE window":
+                session.window = "main";
+                return session.windowHandles();
+            case "POST window/maximize":
+            case "POST window/rect":
+            case "GET window/rect":
+                return rect(0, 0, 1280, 1024);
+            case "POST frame":
+            case "POST frame/parent":
+            case "POST timeouts":
+            case "POST actions":
+            case "DELETE actions":
+                return null;
+            case "POST element":
+                return findElements(session, params, null, true);
+            case "POST elements":
+                return findElements(session, params, null, false);
+            case "POST element/element":
+                return findElements(session, params, resolve(session, elementRef), true);
+            case "POST element/elements":
+                return findElements(session, params, resolve(session, elementRef), false);
+            case "POST element/click":
+                click(session, resolve(session, elementRef));
+                return null;
+            case "POST element/clear":
+                session.values.put(resolve(session, elementRef)[0], "");
+                return null;
+            case "POST element/value":
+                int[] input = resolve(session, elementRef);
+                String current = session.values.get(input[0]);
+                session.values.put(input[0], (current == null ? "" : current) + params.get("text"));
+                return null;
+            case "GET element/selected":
+                return isSelected(session, resolve(session, elementRef));
+            case "GET element/enabled":
+            case "GET element/displayed":
+                resolve(session, elementRef);
+                return true;
+            case "GET element/name":
+                int[] named = resolve(session, elementRef);
+                return named[1] >= 0 ? "option" : page.get(named[0]).tagName();
+            case "GET element/text":
+                int[] texted = resolve(session, elementRef);
+                return named(texted);
+            case "GET element/rect":
+                resolve(session, elementRef);
+                return rect(10, 10, 100, 20);
+            case "POST execute/sync":
+                return executeScript(session, params, false);
+            case "POST execute/async":
+                return executeScript(session, params, true);
+            case "GET cookie":
+                return new ArrayList<>(session.cookies.values());
+            case "POST cookie":
+                Map<?, ?> cookie = (Map<?, ?>) params.get("cookie");
+                Map<String, Object> stored = new LinkedHashMap<>();
+                for (Map.Entry<?, ?> entry : cookie.entrySet()) {
+                    stored.put(String.valueOf(entry.getKey()), entry.getValue());
+                }
+                session.cookies.put(String.valueOf(cookie.get("name")), stored);
+                return null;
+            case "DELETE cookie":
+                if (segments.size() > 2 && "cookie".equals(segments.get(segments.size() - 2))) {
+                    session.cookies.remove(segments.get(segments.size() - 1));
+                } else {
+                    session.cookies.clear();
+                }
+                return null;
+            case "GET screenshot":
+            case "GET element/screenshot":
+                return SCREENSHOT;
+            case "POST log":
+                return Collections.emptyList();
+            default:
+                if (command.startsWith("element/attribute/") || command.startsWith("element/property/")) {
+                    return attribute(session, resolve(session, elementRef),
+                            command.substring(command.lastIndexOf('/') + 1));
+                }
+                if (command.startsWith("element/css/")) {
+                    resolve(session, elementRef);
+                    return "";
+                }
+                throw new WebDriverError(404, "unknown command", method + " " + command);
+        }
+    }
+
+    private static Map<String, Object> rect(int x, int y, int width, int height) {
+        Map<String, Object> rect = new LinkedHashMap<>();
+        rect.put("x", x);
+        rect.put("y", y);
+        rect.put("width", width);
+        rect.put("height", height);
+        return rect;
+    }
+
+    private String named(int[] element) {
+        FakePage.Spec spec = page.get(element[0]);
+        return element[1] >= 0 ? spec.options.get(element[1]) : "";
+    }
+
+    private int[] resolve(FakePage.Session session, String reference) throws WebDriverError {
+        int[] element = reference == null ? null : session.resolve(reference);
+        if (element == null) {
+            throw new WebDriverError(404, "stale element reference", "Element " + reference
+                    + " is no longer attached to the DOM");
+        }
+        return element;
+    }
+
+    private Object findElements(FakePage.Session session, Map<?, ?> params, int[] parent, boolean single)
+            throws WebDriverError {
+        String using = String.valueOf(params.get("using"));
+        String value = String.valueOf(params.get("value"));
+        List<Object> found = new ArrayList<>();
+        if (parent != null) {
+            FakePage.Spec spec = page.get(parent[0]);
+            if (spec.kind == FakePage.Kind.SELECT && value.contains("option")) {
+                // Select asks for all options, or for those with a visible text: .//option[normalize-space(.) = "x"]
+                boolean byText = value.contains("=");
+                for (int i = 0; i < spec.options.size(); i++) {
+                    String text = spec.options.get(i);
+                    if (!byText || value.contains("\"" + text + "\"") || value.contains("'" + text + "'")) {
+                        found.add(reference(session, spec, i));
+                    }
+                }
+            }
+        } else {
+            FakePage.Spec spec = "xpath".equals(using) ? page.find(value)
+                    : "css selector".equals(using) ? page.findByCss(value) : null;
+            if (spec != null && session.isPresent(spec)) {
+                found.add(reference(session, spec, -1));
+            }
+        }
+        if (!single) {
+            return found;
+        }
+        if (found.isEmpty()) {
+            throw new WebDriverError(404, "no such element", "Unable to locate element: " + value);
+        }
+        return found.get(0);
+    }
+
+    private static Map<String, Object> reference(FakePage.Session session, FakePage.Spec spec, int option) {
+        return Collections.<String, Object>singletonMap(ELEMENT_KEY, session.reference(spec, option));
+    }
+
+    private void click(FakePage.Session session, int[] element) {
+        FakePage.Spec spec = page.get(element[0]);
+        if (element[1] >= 0) {
+            session.selectedOptions.put(element[0], element[1]);
+        } else if (spec.kind == FakePage.Kind.CHECKBOX) {
+            if (!session.checked.remove(element[0])) {
+                session.checked.add(element[0]);
+            }
+        } else if (spec.refreshes) {
+            session.refresh();
+        }
+        if (page.isLoginSubmit(spec)) {
+            Map<String, Object> cookie = new LinkedHashMap<>();
+            cookie.put("name", FakePage.SESSION_COOKIE);
+            cookie.put("value", session.id);
+            cookie.put("path", "/");
+            cookie.put("domain", "localhost");
+            session.cookies.put(FakePage.SESSION_COOKIE, cookie);
+        }
+    }
+
+    private boolean isSelected(FakePage.Session session, int[] element) {
+        if (element[1] >= 0) {
+            Integer selected = session.selectedOptions.get(element[0]);
+            return selected == null ? element[1] == 0 : selected == element[1];
+        }
+        return session.checked.contains(element[0]);
+    }
+
+    private Object attribute(FakePage.Session session, int[] element, String name) {
+        FakePage.Spec spec = page.get(element[0]);
+        switch (name) {
+            case "index":
+                return element[1] >= 0 ? String.valueOf(element[1]) : null;
+            case "value":
+                return element[1] >= 0 ? spec.options.get(element[1]) : session.values.get(element[0]);
+            case "checked":
+            case "selected":
+                return isSelected(session, element) ? "true" : null;
+            case "type":
+                return spec.kind == FakePage.Kind.CHECKBOX ? "checkbox"
+                        : spec.kind == FakePage.Kind.FILE_INPUT ? "file" : "text";
+            case "class":
+                return "stand-in";
+            default:
+                return null;
+        }
+    }
+
+    private int[] elementArgument(FakePage.Session session, Object arg) {
+        if (arg instanceof Map && ((Map<?, ?>) arg).containsKey(ELEMENT_KEY)) {
+            return session.resolve(String.valueOf(((Map<?, ?>) arg).get(ELEMENT_KEY)));
+        }
+        if (arg instanceof String) {
+            FakePage.Spec spec = page.find((String) arg);
+            if (spec != null && session.isPresent(spec)) {
+                return new int[]{spec.index, -1};
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Answer the scripts sent by AutoDriver, recognised by their marker comment, and the selenium atoms used for
+     * isDisplayed and getAttribute.
+     */
+    private Object executeScript(FakePage.Session session, Map<?, ?> params, boolean async) throws WebDriverError {
+        String script = String.valueOf(params.get("script"));
+        List<?> args = params.get("args") instanceof List ? (List<?>) params.get("args") : Collections.emptyList();
+
+        if (script.startsWith("/*actionable*/")) {
+            int[] element = elementArgument(session, args.get(0));
+            if (element == null) {
+                if (args.get(0) instanceof Map) {
+                    throw new WebDriverError(404, "stale element reference", "Element is no longer attached");
+                }
+                return "absent";
+            }
+            return reference(session, page.get(element[0]), -1);
+        }
+        if (script.startsWith("/*fill-form*/")) {
+            List<Object> results = new ArrayList<>();
+            for (Object field : (List<?>) args.get(0)) {
+                List<?> triple = (List<?>) field;
+                int[] element = elementArgument(session, triple.get(0));
+                if (element == null) {
+                    results.add("absent");
+                    break;
+                }
+                FakePage.Spec spec = page.get(element[0]);
+                String kind = String.valueOf(triple.get(1));
+                String value = String.valueOf(triple.get(2));
+                if ("text".equals(kind) && spec.kind == FakePage.Kind.FILE_INPUT) {
+                    results.add("needs keystrokes");
+                    break;
+                }
+                if ("index".equals(kind)) {
+                    session.selectedOptions.put(element[0], Integer.parseInt(value));
+                } else if ("text-option".equals(kind)) {
+                    session.selectedOptions.put(element[0], spec.options.indexOf(value));
+                } else if ("check".equals(kind)) {
+                    if (Boolean.parseBoolean(value)) {
+                        session.checked.add(element[0]);
+                    } else {
+                        session.checked.remove(element[0]);
+                    }
+                } else {
+                    session.values.put(element[0], value);
+                }
+                results.add("ok");
+            }
+            return results;
+        }
+        if (script.startsWith("/*quiescent*/") || script.startsWith("/*document*/")) {
+            boolean fresh = !session.documentMarked;
+            session.documentMarked = true;
+            if (script.startsWith("/*document*/")) {
+                return fresh;
+            }
+            Map<String, Object> result = new HashMap<>();
+            result.put("quiet", true); // the fake page has no requests of its own
+            result.put("fresh", fresh);
+            return result;
+        }
+        if (script.contains("document.documentElement.outerHTML")) {
+            return pageSource(session); // how a W3C client asks for the page source
+        }
+        if (script.startsWith("/*server-timing*/")) {
+            return Collections.emptyList(); // nor a server to time
+        }
+        if (script.startsWith("/*watch-condition*/")) {
+            FakePage.Spec spec = page.find(String.valueOf(args.get(0)));
+            boolean present = spec != null && session.isPresent(spec);
+            if (present == Boolean.TRUE.equals(args.get(1))) {
+                return true;
+            }
+            // nothing changes on the fake page until the next refresh, let the observer time out
+            long timeout = args.get(2) instanceof Number ? ((Number) args.get(2)).longValue() : 0;
+            try {
+                Thread.sleep(Math.min(timeout, 60000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return false;
+        }
+        if (!args.isEmpty() && args.get(0) instanceof Map && ((Map<?, ?>) args.get(0)).containsKey(ELEMENT_KEY)) {
+            int[] element = elementArgument(session, args.get(0));
+            if (element == null) {
+                throw new WebDriverError(404, "stale element reference", "Element is no longer attached");
+            }
+            if (args.size() == 2 && args.get(1) instanceof String) {
+                return attribute(session, element, (String) args.get(1)); // getAttribute atom
+            }
+            return true; // isDisplayed atom
+        }
+        return null;
+    }
+
+    private String pageSource(FakePage.Session session) {
+        StringBuilder html = new StringBuilder("<html><head><title>").append(session.title())
+                .append("</title></head><body>\n");
+        for (int i = 0; i < page.size(); i++) {
+            FakePage.Spec spec = page.get(i);
+            if (session.isPresent(spec)) {
+                html.append("<").append(spec.tagName()).append(" data-xpath=\"")
+                        .append(spec.xpath.replace("&", "&amp;").replace("\"", "&quot;")).append("\"/>\n");
+            }
+        }
+        return html.append("</body></html>").toString();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = 4444;
+        String configPath = null;
+        long delay = 0;
+        int changeAfter = 2;
+        int maxSessions = Integer.MAX_VALUE;
+        Map<String, Long> delays = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String name = args[i];
+            String value = args[i + 1];
+            if ("--port".equals(name)) {
+                port = Integer.parseInt(value);
+            } else if ("--config".equals(name)) {
+                configPath = value;
+            } else if ("--delay".equals(name)) {
+                delay = Long.parseLong(value);
+            } else if ("--change-after".equals(name)) {
+                changeAfter = Integer.parseInt(value);
+            } else if ("--max-sessions".equals(name)) {
+                maxSessions = Integer.parseInt(value);
+            } else if (name.startsWith("--delay-")) {
+                delays.put(name.substring("--delay-".length()), Long.parseLong(value));
+            } else {
+                System.out.println("[Error] Unknown option " + name);
+                System.exit(1);
+            }
+        }
+        if (configPath == null) {
+            System.out.println("Usage: StandInServer --config test_list.xml|snapshot.gz [--port 4444] [--delay ms]"
+                    + " [--delay-<command> ms] [--change-after refreshes] [--max-sessions n]");
+            System.exit(1);
+        }
+
+        HierarchicalConfiguration<?> config;
+        if (configPath.endsWith(".gz")) {
+            config = new SnapshotCache(new File(configPath)).load();
+        } else {
+            XMLConfiguration xmlConfig = new XMLConfiguration();
+            new FileHandler(xmlConfig).load(new File(configPath));
+            config = xmlConfig;
+        }
+        @SuppressWarnings("unchecked")
+        FakePage page = new FakePage((HierarchicalConfiguration<org.apache.commons.configuration2.tree.ImmutableNode>)
+                config, changeAfter);
+        int bound = new StandInServer(page, delay, delays, maxSessions).start(port);
+        System.out.println("Stand-in WebDriver listening on http://localhost:" + bound + "/wd/hub with "
+                + page.size() + " elements");
+    }
+}
@@ -0,0 +1,134 @@
+package dbcs;
+
+import org.openqa.selenium.*;
+
+import java.util.*;
+import java.util.regex.*;
+
+/**
+ * Immutable, pre-parsed form of a single &lt;operation&gt; node.<br>
+ * All attributes are read from the config tree once by {@link PlanCompiler}, so executing a step never touches
+ * the HierarchicalConfiguration again.
+ */
+public final class Step {
+    final OperationType type;
+    /**
+     * Position of the step in its testcase, starting at 0
+     */
+    final int index;
+    /**
+     * Group number of the enclosing operations block, 0 when applied to all groups
+     */
+    final int group;
+
+    final String xpath;
+    final By locator;
+    final String value;
+    final boolean dynamicTimeStamp;
+    /**
+     * Whether the input needs real keystrokes and must never be filled in by script
+     */
+    final boolean realKeys;
+    final Integer selectIndex;
+    final String selectText;
+    final boolean select;
+    final String refreshXpath;
+    /**
+     * Deadline of repeated waits in seconds, null to use the configured default
+     */
+    final Integer waitTimeout;
+    /**
+     * Whether repeated waits watch the DOM with a MutationObserver between refreshes
+     */
+    final boolean watchMutations;
+    /**
+     * Retries of a transient failure, null to use the configured default
+     */
+    final Integer retries;
+
+    /**
+     * Steps filled in together, only used by FormBatch steps
+     */
+    final List<Step> batch;
+
+    // only used by the deprecated ClickIfAnotherElementExist operation
+    final String elementXpath;
+    final String extractAttribute;
+    final Pattern attributePattern;
+
+    Step(OperationType type, int index, int group, String xpath, String value, boolean dynamicTimeStamp,
+            boolean realKeys, Integer selectIndex, String selectText, boolean select, String refreshXpath,
+            Integer waitTimeout, boolean watchMutations, Integer retries, String elementXpath,
+            String extractAttribute, Pattern attributePattern) {
+        this.type = type;
+        this.index = index;
+        this.group = group;
+        this.xpath = xpath;
+        this.locator = xpath == null || xpath.isEmpty() ? null : LocatorRewriter.by(xpath);
+        this.value = value;
+        this.dynamicTimeStamp = dynamicTimeStamp;
+        this.realKeys = realKeys;
+        this.selectIndex = selectIndex;
+        this.selectText = selectText;
+        this.select = select;
+        this.refreshXpath = refreshXpath;
+        this.waitTimeout = waitTimeout;
+        this.watchMutations = watchMutations;
+        this.retries = retries;
+        this.elementXpath = elementXpath;
+        this.extractAttribute = extractAttribute;
+        this.attributePattern = attributePattern;
+        this.batch = Collections.emptyList();
+    }
+
+    /**
+     * Create a FormBatch step running the given steps.
+     */
+    Step(List<Step> batch) {
+        this.type = OperationType.FormBatch;
+        this.index = batch.get(0).index;
+        this.group = batch.get(0).group;
+        this.xpath = null;
+        this.locator = null;
+        this.value = null;
+        this.dynamicTimeStamp = false;
+        this.realKeys = false;
+        this.selectIndex = null;
+        this.selectText = null;
+        this.select = false;
+        this.refreshXpath = null;
+        this.waitTimeout = null;
+        this.watchMutations = false;
+        this.retries = maxRetries(batch);
+        this.elementXpath = null;
+        this.extractAttribute = null;
+        this.attributePattern = null;
+        this.batch = Collections.unmodifiableList(new ArrayList<>(batch));
+    }
+
+    private static Integer maxRetries(List<Step> steps) {
+        Integer max = null;
+        for (Step step : steps) {
+            if (step.retries != null && (max == null || step.retries > max)) {
+                max = step.retries;
+            }
+        }
+        return max;
+    }
+
+    public OperationType getType() {
+        return type;
+    }
+
+    public String getXpath() {
+        return xpath;
+    }
+
+    @Override
+    public String toString() {
+        if (type == OperationType.FormBatch) {
+            return "#" + index + " " + type + " of " + batch.size();
+        }
+        return "#" + index + " " + type + (xpath == null ? "" : " " + xpath);
+    }
+}
@@ -0,0 +1,128 @@
+package dbcs;
+
+import org.openqa.selenium.*;
+import org.openqa.selenium.interactions.*;
+import org.openqa.selenium.remote.*;
+
+/**
+ * Recovers from step failures without replaying the whole testcase.<br>
+ * <p>
+ * A failure is classified by {@link #classify(Throwable)}. A transient failure, e.g. a stale element or a click
+ * intercepted by an overlay, is retried in place after the page has settled, up to the retry budget of the step (the
+ * retries attribute of the operation, or &lt;step-retries&gt;). A step that already waited to its own deadline is
+ * not retried in place, that would only repeat the whole wait. When the budget is spent, a wait expired, or the
+ * browser session itself is lost, the testcase can restart in a fresh session from its last passed Checkpoint
+ * operation, at most &lt;max-restarts&gt; times. Fatal failures, e.g. an invalid xpath, fail the testcase at once.
+ * </p>
+ */
+public class StepRecovery {
+    public enum Failure {
+        /**
+         * May succeed when tried again on the same page
+         */
+        TRANSIENT,
+        /**
+         * The step waited to its own deadline, trying it again on the same page would only repeat the wait
+         */
+        EXPIRED,
+        /**
+         * The browser session is gone, only a fresh session can continue
+         */
+        SESSION_LOST,
+        /**
+         * Will fail again however often it is tried
+         */
+        FATAL
+    }
+
+    private static final long RETRY_DELAY_MILLIS = 500;
+
+    private final int defaultRetries;
+    private final int maxRestarts;
+
+    /**
+     * @param defaultRetries retries of a step whose operation sets none
+     * @param maxRestarts    restarts from a checkpoint allowed per testcase
+     */
+    public StepRecovery(int defaultRetries, int maxRestarts) {
+        this.defaultRetries = defaultRetries;
+        this.maxRestarts = maxRestarts;
+    }
+
+    public int getMaxRestarts() {
+        return maxRestarts;
+    }
+
+    /**
+     * @return the kind of a step failure
+     */
+    public static Failure classify(Throwable e) {
+        if (e instanceof InvalidSelectorException) {
+            // a NoSuchElementException, but no retry will make the xpath valid
+            return Failure.FATAL;
+        }
+        if (e instanceof NoSuchWindowException) {
+            // the window was closed or switched away from, the session is fine but the step has no page to act on
+            return Failure.FATAL;
+        }
+        if (e instanceof NoSuchSessionException || e instanceof UnreachableBrowserException
+                || e instanceof SessionNotCreatedException) {
+            return Failure.SESSION_LOST;
+        }
+        if (e instanceof StaleElementReferenceException || e instanceof ElementNotInteractableException
+                || e instanceof ElementNotVisibleException || e instanceof ElementNotSelectableException
+                || e instanceof MoveTargetOutOfBoundsException || e instanceof NoSuchElementException) {
+            // ElementClickInterceptedException is an ElementNotInteractableException
+            return Failure.TRANSIENT;
+        }
+        if (e instanceof TimeoutException || e instanceof ScriptTimeoutException) {
+            return Failure.EXPIRED;
+        }
+        return Failure.FATAL;
+    }
+
+    /**
+     * Execute a step, retrying it in place on transient failures.
+     *
+     * @throws RuntimeException the last failure, if the step failed for good
+     */
+    public void execute(AutoDriver driver, Step step) {
+        int retries = step.retries != null ? step.retries : defaultRetries(step);
+        for (int attempt = 0; ; attempt++) {
+            try {
+                driver.executeStep(step);
+                return;
+            } catch (RuntimeException e) {
+                if (attempt >= retries || classify(e) != Failure.TRANSIENT) {
+                    throw e;
+                }
+                EventLog.warn("Retry", step, e);
+                sleep(RETRY_DELAY_MILLIS * (attempt + 1));
+                // look every element up again on the settled page
+                driver.getLocatorCache().clear();
+                driver.awaitQuietPage();
+            }
+        }
+    }
+
+    private int defaultRetries(Step step) {
+        switch (step.type) {
+            case WaitforAppear:
+            case WaitInvisible:
+            case WaitAppearRepeatedly:
+            case WaitDisappearRepeatedly:
+                return 0; // nothing to do but wait, which they already did until their own deadline
+            default:
+                return defaultRetries;
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new WebDriverException("Interrupted while waiting to retry", e);
+        }
+    }
+}
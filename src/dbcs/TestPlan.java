@@ -0,0 +1,63 @@
+package dbcs;
+
+import java.util.*;
+
+/**
+ * Immutable, compiled form of a &lt;testcase&gt; (or of the login block): the ordered list of steps to execute.
+ */
+public final class TestPlan {
+    private final String testName;
+    private final String requireVmState;
+    private final String group;
+    private final List<Step> steps;
+
+    TestPlan(String testName, String requireVmState, String group, List<Step> steps) {
+        this.testName = testName;
+        this.requireVmState = requireVmState;
+        this.group = group;
+        this.steps = Collections.unmodifiableList(new ArrayList<>(steps));
+    }
+
+    public String getTestName() {
+        return testName;
+    }
+
+    /**
+     * @return the require-vm-state attribute of the testcase, or null if not specified
+     */
+    public String getRequireVmState() {
+        return requireVmState;
+    }
+
+    /**
+     * @return the group attribute of the testcase, or null if not specified
+     */
+    public String getGroup() {
+        return group;
+    }
+
+    /**
+     * Keys of the shared resources this test needs exclusively when tests run in parallel.
+     *
+     * @return lock keys, empty if the test may run alongside any other test
+     */
+    public Set<String> getLockKeys() {
+        Set<String> keys = new HashSet<>();
+        if (requireVmState != null) {
+            keys.add("vm-state:" + requireVmState);
+        }
+        if (group != null) {
+            keys.add("group:" + group);
+        }
+        return keys;
+    }
+
+    public List<Step> getSteps() {
+        return steps;
+    }
+
+    @Override
+    public String toString() {
+        return testName;
+    }
+}
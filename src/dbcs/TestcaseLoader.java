@@ -0,0 +1,253 @@
+package dbcs;
+
+import org.apache.commons.configuration2.*;
+import org.apache.commons.configuration2.ex.*;
+import org.apache.commons.configuration2.io.*;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.security.*;
+import java.sql.*;
+import java.util.*;
+import java.util.regex.*;
+
+/**
+ * Reads the test configuration stored in the db_auto_testcase table.<br>
+ * The step CLOBs of all selected rows, concatenated in id order, form the whole config document. The selected rows are
+ * the frame rows ({@link #FRAME_IDS}), the rows without a testname, the rows whose testname is exactly one of the
+ * names in the test_to_run row and the rows named after a part of the selection markup, e.g. "test-to-run", all
+ * queried with bind parameters.<br>
+ * The last two replace the old filter '&lt;selection&gt;' like '%'||testname||'%', which Oracle also matched for a
+ * NULL testname, without pulling in testcases whose name is only part of a selected one.
+ */
+class TestcaseLoader {
+    /**
+     * Rows fetched per round trip when loading testcases
+     */
+    private static final int FETCH_SIZE = 50;
+    /**
+     * Bind parameters per IN list, Oracle rejects longer lists
+     */
+    private static final int MAX_IN_LIST = 1000;
+    private static final String PRODUCT = "apex";
+    private static final String VERSION = "5.2";
+    private static final String SELECTION_ROW = "test_to_run";
+    /**
+     * Rows always loaded: the document head, the test selection and the document tail
+     */
+    private static final long[] FRAME_IDS = {1, 2, 999999};
+    private static final Pattern TEST_NAME = Pattern.compile("<test>\\s*([^<]+?)\\s*</test>");
+
+    private final Connection conn;
+    /**
+     * Distinct testnames of the product rows, read once
+     */
+    private List<String> rowNames;
+
+    /**
+     * @param conn an open connection to a database holding the db_auto_testcase table
+     */
+    TestcaseLoader(Connection conn) {
+        this.conn = conn;
+    }
+
+    /**
+     * @return the names of tests to run, as stored in the step of the test_to_run row
+     */
+    String fetchSelection() throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("select step from db_auto_testcase where testname=?")) {
+            stmt.setString(1, SELECTION_ROW);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (!rs.next()) {
+                    throw new SQLException("No " + SELECTION_ROW + " row in db_auto_testcase");
+                }
+                return rs.getString("step");
+            }
+        }
+    }
+
+    /**
+     * @param selection the test selection returned by {@link #fetchSelection()}
+     * @param rowNames  the testnames in the table
+     * @return the test_to_run row, the distinct &lt;test&gt; names of the selection and the names in rowNames that
+     * are part of the selection markup outside the &lt;test&gt; names
+     */
+    static List<String> selectedNames(String selection, Collection<String> rowNames) {
+        Set<String> names = new LinkedHashSet<>();
+        names.add(SELECTION_ROW);
+        if (selection != null) {
+            Matcher matcher = TEST_NAME.matcher(selection);
+            while (matcher.find()) {
+                names.add(matcher.group(1));
+            }
+            String markup = TEST_NAME.matcher(selection).replaceAll("<test></test>");
+            for (String name : rowNames) {
+                if (name != null && !name.isEmpty() && markup.contains(name)) {
+                    names.add(name);
+                }
+            }
+        }
+        return new ArrayList<>(names);
+    }
+
+    private List<String> selectedNames(String selection) throws SQLException {
+        if (rowNames == null) {
+            rowNames = new ArrayList<>();
+            try (PreparedStatement stmt = conn.prepareStatement("select distinct testname from db_auto_testcase"
+                    + " where product=? and version=? and testname is not null")) {
+                stmt.setString(1, PRODUCT);
+                stmt.setString(2, VERSION);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        rowNames.add(rs.getString(1));
+                    }
+                }
+            }
+        }
+        return selectedNames(selection, rowNames);
+    }
+
+    /**
+     * @return the where clause selecting the frame rows, the unnamed rows and the named rows, with one bind
+     * parameter per name
+     */
+    private static String whereClause(int nameCount) {
+        StringBuilder sb = new StringBuilder(" where product=? and version=? and (id in (");
+        for (int i = 0; i < FRAME_IDS.length; i++) {
+            sb.append(i == 0 ? "?" : ",?");
+        }
+        sb.append(") or testname is null");
+        for (int i = 0; i < nameCount; i++) {
+            if (i % MAX_IN_LIST == 0) {
+                sb.append(i == 0 ? " or testname in (?" : ") or testname in (?");
+            } else {
+                sb.append(",?");
+            }
+        }
+        if (nameCount > 0) {
+            sb.append(')');
+        }
+        return sb.append(") ").toString();
+    }
+
+    private PreparedStatement prepare(String columns, List<String> names) throws SQLException {
+        PreparedStatement stmt = conn.prepareStatement("select " + columns + " from db_auto_testcase"
+                + whereClause(names.size()) + "order by id");
+        int index = 1;
+        stmt.setString(index++, PRODUCT);
+        stmt.setString(index++, VERSION);
+        for (long id : FRAME_IDS) {
+            stmt.setLong(index++, id);
+        }
+        for (String name : names) {
+            stmt.setString(index++, name);
+        }
+        stmt.setFetchSize(FETCH_SIZE);
+        return stmt;
+    }
+
+    /**
+     * Compute a fingerprint of the rows that make up the config without transferring any CLOB content, the database
+     * hashes the content of each row. It changes whenever a row is added, removed or edited.
+     *
+     * @param selection the test selection returned by {@link #fetchSelection()}
+     * @return hex encoded fingerprint, null if the database can not hash the rows, the rows must be loaded then
+     */
+    String fingerprint(String selection) throws SQLException {
+        String hash = contentHash();
+        if (hash == null) {
+            return null;
+        }
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        digest.update(selection.getBytes(StandardCharsets.UTF_8));
+        try (PreparedStatement stmt = prepare("id, " + hash + " hash", selectedNames(selection));
+             ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                digest.update((rs.getLong("id") + ":").getBytes(StandardCharsets.UTF_8));
+                byte[] rowHash = rs.getBytes("hash");
+                if (rowHash != null) {
+                    digest.update(rowHash);
+                }
+                digest.update((byte) ';');
+            }
+        } catch (SQLException e) {
+            // e.g. no execute privilege on dbms_crypto
+            System.out.println("[Warning] The database can not hash the testcases, loading them: " + e);
+            return null;
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * @return the SQL expression hashing the step CLOB of a row in this database, null if there is none
+     */
+    private String contentHash() throws SQLException {
+        String product = conn.getMetaData().getDatabaseProductName();
+        if (product.startsWith("Oracle")) {
+            return "dbms_crypto.hash(step, 3)"; // SHA-1 of the whole CLOB
+        }
+        if (product.startsWith("H2")) {
+            return "hash('SHA256', stringtoutf8(step), 1)";
+        }
+        return null;
+    }
+
+    /**
+     * Stream the selected rows into a new configuration.
+     *
+     * @param selection the test selection returned by {@link #fetchSelection()}
+     * @param copy      if not null, receives a copy of the whole document as it is parsed
+     * @return the parsed configuration
+     */
+    XMLConfiguration load(String selection, Writer copy) throws SQLException, ConfigurationException {
+        try (PreparedStatement stmt = prepare("id,testname,step", selectedNames(selection));
+             ResultSet rs = stmt.executeQuery();
+             Reader reader = copy == null ? new ClobSequenceReader(rs, "step")
+                     : new TeeReader(new ClobSequenceReader(rs, "step"), copy)) {
+            XMLConfiguration xmlConfig = new XMLConfiguration();
+            new FileHandler(xmlConfig).load(reader);
+            return xmlConfig;
+        } catch (IOException e) {
+            throw new SQLException("Failed to read testcases", e);
+        }
+    }
+
+    /**
+     * Copies everything read from a reader to a writer.
+     */
+    private static class TeeReader extends FilterReader {
+        private final Writer copy;
+
+        TeeReader(Reader in, Writer copy) {
+            super(in);
+            this.copy = copy;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int c = super.read();
+            if (c >= 0) {
+                copy.write(c);
+            }
+            return c;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            int n = super.read(cbuf, off, len);
+            if (n > 0) {
+                copy.write(cbuf, off, n);
+            }
+            return n;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package dbcs;
+
+import org.apache.commons.configuration2.*;
+import org.apache.commons.configuration2.tree.*;
+
+import java.util.*;
+
+/**
+ * The testcases selected in &lt;test-to-run&gt;, resolved to their config nodes but not compiled.<br>
+ * <p>
+ * The plan a testcase runs is compiled when it is about to run ({@link Testcase#compile()}) and dropped when it is
+ * done, so at most one plan per worker is held at a time rather than one per testcase. The data provider rows hold
+ * {@link Testcase} handles, which only refer to the already loaded config tree, so the first testcase starts without
+ * compiling the others and an invalid operation fails only its own testcase. {@link #validate()} compiles every plan
+ * up front instead, to reject a config before any browser is started.
+ * </p>
+ */
+public class TestcaseSource implements Iterable<TestcaseSource.Testcase> {
+    /**
+     * A selected testcase, compiled on demand.
+     */
+    public static final class Testcase {
+        private final String testName;
+        private final HierarchicalConfiguration<ImmutableNode> node;
+        private final boolean batchFormSteps;
+
+        Testcase(String testName, HierarchicalConfiguration<ImmutableNode> node, boolean batchFormSteps) {
+            this.testName = testName;
+            this.node = node;
+            this.batchFormSteps = batchFormSteps;
+        }
+
+        public String getTestName() {
+            return testName;
+        }
+
+        /**
+         * @return a freshly compiled plan, not kept by the testcase
+         * @throws IllegalArgumentException if any operation is invalid
+         */
+        public TestPlan compile() {
+            return PlanCompiler.compile(node, batchFormSteps);
+        }
+
+        @Override
+        public String toString() {
+            return testName;
+        }
+    }
+
+    private final List<Testcase> testcases = new ArrayList<>();
+
+    /**
+     * Resolve the selected testcases through a name index of the &lt;testcases&gt; children. A name listed twice, or
+     * shared by two testcases, runs each time.
+     *
+     * @param testcaseRoot   the &lt;testcases&gt; node
+     * @param testNames      the &lt;test&gt; entries of &lt;test-to-run&gt;
+     * @param batchFormSteps whether to batch form steps when compiling
+     */
+    public TestcaseSource(HierarchicalConfiguration<ImmutableNode> testcaseRoot, List<Object> testNames,
+            boolean batchFormSteps) {
+        Map<String, List<HierarchicalConfiguration<ImmutableNode>>> testsByName = new HashMap<>();
+        for (HierarchicalConfiguration<ImmutableNode> test : testcaseRoot.childConfigurationsAt("")) {
+            String name = test.getString("[@name]", "unknown test");
+            List<HierarchicalConfiguration<ImmutableNode>> named = testsByName.get(name);
+            if (named == null) {
+                named = new ArrayList<>(1);
+                testsByName.put(name, named);
+            }
+            named.add(test);
+        }
+        for (Object testName : testNames) {
+            List<HierarchicalConfiguration<ImmutableNode>> named = testsByName.get(String.valueOf(testName));
+            if (named == null) {
+                continue;
+            }
+            for (HierarchicalConfiguration<ImmutableNode> test : named) {
+                testcases.add(new Testcase(String.valueOf(testName), test, batchFormSteps));
+            }
+        }
+    }
+
+    /**
+     * Compile every selected testcase once and discard the plans, so invalid operations are rejected before any
+     * browser is started.
+     *
+     * @throws IllegalArgumentException naming the first invalid operation
+     */
+    public void validate() {
+        for (Testcase testcase : testcases) {
+            testcase.compile();
+        }
+    }
+
+    /**
+     * Reorder the testcases, e.g. longest first. The sort is stable, equal testcases keep their order.
+     */
+    public void sort(final Comparator<String> byName) {
+        Collections.sort(testcases, new Comparator<Testcase>() {
+            @Override
+            public int compare(Testcase a, Testcase b) {
+                return byName.compare(a.testName, b.testName);
+            }
+        });
+    }
+
+    /**
+     * @return names of the selected testcases, in run order
+     */
+    public List<String> getTestNames() {
+        List<String> names = new ArrayList<>(testcases.size());
+        for (Testcase testcase : testcases) {
+            names.add(testcase.testName);
+        }
+        return names;
+    }
+
+    public int size() {
+        return testcases.size();
+    }
+
+    @Override
+    public Iterator<Testcase> iterator() {
+        return Collections.unmodifiableList(testcases).iterator();
+    }
+
+    /**
+     * @return data provider rows {test name, {@link Testcase}}, created as they are consumed
+     */
+    public Iterator<Object[]> rows() {
+        final Iterator<Testcase> iterator = iterator();
+        return new Iterator<Object[]>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public Object[] next() {
+                Testcase testcase = iterator.next();
+                return new Object[]{testcase.testName, testcase};
+            }
+        };
+    }
+}
@@ -0,0 +1,66 @@
+package dbcs;
+
+import org.openqa.selenium.remote.*;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Command executor reporting every command a session sends to {@link CommandTrace}, with its timing.<br>
+ * Wraps the executor of a RemoteWebDriver, i.e. an HttpCommandExecutor for a hub session or the driver service
+ * executor of a local Firefox, see {@link #wrap(CommandExecutor)}.
+ */
+public class TracingCommandExecutor implements CommandExecutor {
+    private static final int MAX_DETAIL_LENGTH = 200;
+
+    private final CommandExecutor delegate;
+
+    public TracingCommandExecutor(CommandExecutor delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * @return the executor traced if tracing is enabled, else the executor itself
+     */
+    static CommandExecutor wrap(CommandExecutor executor) {
+        return CommandTrace.isEnabled() && !(executor instanceof TracingCommandExecutor)
+                ? new TracingCommandExecutor(executor) : executor;
+    }
+
+    @Override
+    public Response execute(Command command) throws IOException {
+        long start = System.nanoTime();
+        String error = "exception";
+        try {
+            Response response = delegate.execute(command);
+            Integer status = response == null ? null : response.getStatus();
+            error = status == null || status == 0 ? null : response.getState();
+            return response;
+        } finally {
+            CommandTrace.command(command.getName(), detail(command), start, System.nanoTime() - start, error);
+        }
+    }
+
+    /**
+     * @return the locator of a find command or the leading marker comment of a script, e.g. /*quiescent*&#47;
+     */
+    private static String detail(Command command) {
+        Map<String, ?> parameters = command.getParameters();
+        if (parameters == null) {
+            return null;
+        }
+        Object script = parameters.get("script");
+        if (script != null) {
+            String s = script.toString();
+            int end = s.startsWith("/*") ? s.indexOf("*/") : -1;
+            return end > 0 ? s.substring(0, end + 2) : null;
+        }
+        Object using = parameters.get("using");
+        Object value = parameters.get("value");
+        if (using != null && value != null) {
+            String s = using + ": " + value;
+            return s.length() <= MAX_DETAIL_LENGTH ? s : s.substring(0, MAX_DETAIL_LENGTH);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,37 @@
+package dbcs;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+
+/**
+ * Serializes testcases that operate on the same VM state when tests run in parallel.<br>
+ * Every testcase holds the locks for its require-vm-state and its optional group attribute while it runs,
+ * so two tests needing the same VM never run at the same time, while unrelated tests proceed concurrently.
+ */
+public class VmStateLocks {
+    private final ConcurrentMap<String, ReentrantLock> locks = new ConcurrentHashMap<>();
+
+    /**
+     * Block until all locks needed by the plan are held.<br>
+     * Locks are always taken in key order, so tests sharing several keys can not deadlock.
+     *
+     * @param plan the plan about to run
+     * @return the locks acquired, to be passed to {@link #release(List)}
+     */
+    public List<ReentrantLock> acquire(TestPlan plan) {
+        List<ReentrantLock> held = new ArrayList<>();
+        for (String key : new TreeSet<>(plan.getLockKeys())) {
+            ReentrantLock lock = locks.computeIfAbsent(key, k -> new ReentrantLock(true));
+            lock.lock();
+            held.add(lock);
+        }
+        return held;
+    }
+
+    public void release(List<ReentrantLock> held) {
+        for (int i = held.size() - 1; i >= 0; i--) {
+            held.get(i).unlock();
+        }
+    }
+}
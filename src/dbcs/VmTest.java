@@ -1,4 +1,4 @@
-package seleniumtest;
+package dbcs;
 
 import org.testng.annotations.Test;
 
@@ -6,10 +6,15 @@ import org.apache.commons.configuration2.*;
 import org.apache.commons.configuration2.tree.*;
 import org.apache.commons.exec.*;
 import org.openqa.selenium.*;
+import org.testng.*;
 import org.testng.annotations.*;
 
 import java.lang.reflect.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+import java.util.function.*;
 import java.sql.* ;
 import java.io.*;
 
@@ -33,161 +38,380 @@ import org.apache.commons.configuration2.ex.ConfigurationException;
 
 public class VmTest {
     /**
-     * The threadDriverPool is a over-design for multi-threading testing environment.
-     * The test-cases are originally designed to run in parallel using the parallel feature of testNG. <br>
-     * However, since now we are only invoking a single test method and testNG does not support running single test
-     * method in parallel, no multi-threading bothers now.<br>
-     * It's kept here for potential future use.
+     * Number of testcases a browser session serves before it is replaced, 0 for no limit
      */
-    // Use ThreadLocal to provide unique driver instances for each thread when testing in a multi-thread
-    // environment, since the WebDriver itself is not thread-safe
-    private ThreadLocal<AutoDriver> threadDriverPool = new ThreadLocal<>();
+    private static final int DEFAULT_SESSION_MAX_USES = 20;
 
     /**
-     * Bean class to encapsulate information about a testcase from xml config
+     * Seconds a testcase waits for a free browser session
      */
-    private static class TestCase {
-        String testName;
-        List<HierarchicalConfiguration<ImmutableNode>> procedure;
+    private static final int DEFAULT_SESSION_ACQUIRE_TIMEOUT = 600;
 
-        public TestCase(String testName,
-                List<HierarchicalConfiguration<ImmutableNode>> procedure) {
-	        System.out.println("..........testCase constructure..........");
-            this.testName = testName;
-            this.procedure = procedure;
-        }
-        /**
-         * @return Test Object information array in a list, each test object array 
-         */
-        ArrayList<Object[]> toObjectArrays() {
-            ArrayList<Object[]> result = new ArrayList<>();
-            result.add(new Object[]{testName, procedure});
-            return result;
-        }
-    }
+    /**
+     * Seconds a captured login is reused for seeding new sessions
+     */
+    private static final int DEFAULT_LOGIN_STATE_TTL = 1800;
+
+    /**
+     * Result rows written to the database per batch
+     */
+    private static final int DEFAULT_RESULT_BATCH_SIZE = 100;
+
+    /**
+     * Seconds a result waits before it is written to the database
+     */
+    private static final int DEFAULT_RESULT_FLUSH_INTERVAL = 5;
+
+    /**
+     * Retries of a step failing with a transient error, used when &lt;step-retries&gt; is not configured
+     */
+    private static final int DEFAULT_STEP_RETRIES = 2;
+
+    /**
+     * Restarts from a checkpoint per testcase, used when &lt;max-restarts&gt; is not configured
+     */
+    private static final int DEFAULT_MAX_RESTARTS = 1;
+
+    /**
+     * Megabytes of failure evidence kept, used when &lt;failure-store-size&gt; is not configured
+     */
+    private static final int DEFAULT_FAILURE_STORE_SIZE = 500;
+
+    /**
+     * Failures waiting to be written before new evidence is dropped, used when &lt;failure-queue-size&gt; is not
+     * configured
+     */
+    private static final int DEFAULT_FAILURE_QUEUE_SIZE = 8;
+
+    /**
+     * Testcases are run in parallel by the testNG data provider threads, the number of workers is set by
+     * data-provider-thread-count in testng.xml.<br>
+     * Each testcase borrows a warm browser from the pool for its run, the WebDriver itself is not thread-safe so a
+     * session is only ever used by one testcase at a time.
+     */
+    private SessionPool sessionPool;
+
+    /**
+     * Runs the login flow once and seeds the other sessions with its cookies and storage
+     */
+    private LoginSession loginSession;
+
+    /**
+     * Keeps tests needing the same VM state from running at the same time
+     */
+    private final VmStateLocks stateLocks = new VmStateLocks();
+
+    /**
+     * Tests selected in &lt;test-to-run&gt;, longest first, compiled one at a time as they run
+     */
+    private TestcaseSource testcases;
+
+    /**
+     * Past durations of the testcases, to start the longest ones first
+     */
+    private DurationHistory durationHistory;
+
+    /**
+     * Writes the testcase and operation results to the database, null when offline or disabled by
+     * &lt;record-results&gt;
+     */
+    private ResultSink resultSink;
+
+    /**
+     * Retries failed steps and restarts failed testcases from their last checkpoint
+     */
+    private StepRecovery recovery;
+
+    /**
+     * Keeps a screenshot, the page source and the browser log of failed steps, null when disabled by
+     * &lt;capture-failures&gt;
+     */
+    private FailureCapture failureCapture;
+
+    private int workers;
+    private long estimatedMakespanMillis;
+    private final AtomicLong firstStartNanos = new AtomicLong();
+    private final AtomicLong lastEndNanos = new AtomicLong();
 
     /**
      * Dynamically determine which tests needs to be run from xml config and pass related params to main test method.<br>
      * Only tests under &lt;test-to-run&gt; tag and tests that pass the environment check will be run
      *
-     * @return return Objects describing tests to run
+     * @return rows {test name, {@link TestcaseSource.Testcase}}, the plan is compiled when the test runs
      */
-    @DataProvider(name = "testcaseData")
-    public Object[][] testcaseData() {
+    @DataProvider(name = "testcaseData", parallel = true)
+    public Iterator<Object[]> testcaseData() {
     	System.out.println("..........dataprovider..........");
-    	
-        HierarchicalConfiguration<ImmutableNode> testConfigRoot = ConfigManager.getConfigsByName("testcases");
-        List<HierarchicalConfiguration<ImmutableNode>> tests = testConfigRoot.childConfigurationsAt("");
-        
-        ArrayList<TestCase> testInfoPool = new ArrayList<>(); // Hold information to all tests
-        // encapsulate xml data into testcase objects
-        for (HierarchicalConfiguration<ImmutableNode> test :
-                tests) {
-        	String groupName = test.getString("[@name]", "unknown test");
-            testInfoPool.add(new TestCase(groupName,test.childConfigurationsAt(""))) ;
-        }
+        return testcases.rows();
+    }
 
+    /**
+     * Resolve every test listed under &lt;test-to-run&gt;. Their operations are only checked up front if
+     * &lt;validate-testcases&gt; is true, otherwise each testcase is checked when it runs. The plans are not kept.
+     *
+     * @return the selected tests in &lt;test-to-run&gt; order
+     */
+    private static TestcaseSource selectTestcases() {
         HierarchicalConfiguration<ImmutableNode> testsToRun = ConfigManager.getConfigsByName("test-to-run");
-        List<Object> testNames = testsToRun.getList("test");
-
-        ArrayList<Object[]> resultInfoPool = new ArrayList<>();
+        TestcaseSource selected = new TestcaseSource(ConfigManager.getConfigsByName("testcases"),
+                testsToRun.getList("test"), ConfigManager.getBoolean("batch-form-steps", false));
+        if (ConfigManager.getBoolean("validate-testcases", false)) {
+            selected.validate();
+        }
         System.out.println("[testcaseData] The following tests will be run: ");
-        for (Object testName : testNames) {
-            for (TestCase test : testInfoPool) {
-                if (testName.equals(test.testName)) {
-                    System.out.println(test.testName);
-                    resultInfoPool.addAll(test.toObjectArrays());
-                }
-            }
+        for (String testName : selected.getTestNames()) {
+            System.out.println(testName);
         }
-        // can not directly cast the list like
-        // <code>(Object[][])testInfoPool.toArray()</code>
-        Object[][] result = new Object[resultInfoPool.size()][2];
-        for (int i = 0; i < resultInfoPool.size(); i++) {
-            result[i] = resultInfoPool.get(i);
+        return selected;
+    }
+
+    /**
+     * Order the tests longest first by their past durations, unless &lt;order-by-duration&gt; is false.
+     */
+    private void schedule() {
+        durationHistory = new DurationHistory(new File(System.getProperty("dbcs.durations",
+                ConfigManager.getBasePath() + "test_durations.properties")));
+        durationHistory.load();
+        if (ConfigManager.getBoolean("order-by-duration", true)) {
+            testcases.sort(durationHistory.longestFirst());
         }
-        return result;
+        estimatedMakespanMillis = durationHistory.estimateMakespan(testcases.getTestNames(), workers);
+        System.out.println("[Schedule] Estimated makespan " + estimatedMakespanMillis / 1000 + " s on " + workers
+                + " workers");
     }
 
-    @BeforeClass // Create a new running context for each test
-    public void OpenURL() {
-        // Base wait time for server to respond to tests in other languages
+    @BeforeClass // Compile all tests, then start the browsers in the background
+    public void OpenURL(ITestContext context) {
+        LocatorRewriter.setEnabled(ConfigManager.getBoolean("rewrite-locators", true));
         try {
-            Thread.sleep(100);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+            testcases = selectTestcases();
+            loginSession = createLoginSession("login");
+        } catch (IllegalArgumentException e) {
+            System.out.println("[Error] " + e.getMessage());
+            System.out.println("Please check the operations specified in config xml");
+            System.exit(0);
         }
 
-        OpenURLandLogin(false, "login") ;
-    }
+        workers = context.getSuite().getXmlSuite().getDataProviderThreadCount();
+        schedule();
+        recovery = new StepRecovery(ConfigManager.getInt("step-retries", DEFAULT_STEP_RETRIES),
+                ConfigManager.getInt("max-restarts", DEFAULT_MAX_RESTARTS));
+        if (ConfigManager.getBoolean("capture-failures", true)) {
+            File store = new File(System.getProperty("dbcs.failure.dir", new File(System.getProperty(
+                    "dbcs.report.dir", ConfigManager.getBasePath()), "failure_store").getPath()));
+            failureCapture = new FailureCapture(store,
+                    ConfigManager.getInt("failure-store-size", DEFAULT_FAILURE_STORE_SIZE) * 1048576L,
+                    ConfigManager.getInt("failure-queue-size", DEFAULT_FAILURE_QUEUE_SIZE));
+        }
 
+        if (ConfigManager.getConnectionPool() != null && ConfigManager.getBoolean("record-results", true)) {
+            resultSink = new ResultSink(ConfigManager.getConnectionPool(),
+                    ConfigManager.getInt("result-batch-size", DEFAULT_RESULT_BATCH_SIZE),
+                    ConfigManager.getInt("result-flush-interval", DEFAULT_RESULT_FLUSH_INTERVAL) * 1000L);
+            System.out.println("[ResultSink] Recording results as run " + resultSink.getRunId());
+        }
+
+        // one browser per worker unless configured otherwise
+        final boolean isRunOnCloud = AutoDriver.isRemote();
+        sessionPool = new SessionPool(ConfigManager.getInt("session-pool-size", workers),
+                ConfigManager.getInt("session-max-uses", DEFAULT_SESSION_MAX_USES),
+                ConfigManager.getInt("session-acquire-timeout", DEFAULT_SESSION_ACQUIRE_TIMEOUT) * 1000L,
+                new Supplier<AutoDriver>() {
+                    @Override
+                    public AutoDriver get() {
+                        return new AutoDriver(isRunOnCloud);
+                    }
+                });
+    }
 
-    private void OpenURLandLogin(boolean isRunOnCloud, String configName) {
-    	System.out.println("..........Open URL and get driver........"); 
-        threadDriverPool.set(new AutoDriver(isRunOnCloud)); // bind to thread
+    private static LoginSession createLoginSession(String configName) {
         HierarchicalConfiguration<ImmutableNode> loginConfig = ConfigManager.getConfigsByName(configName);
-        
-        String url = loginConfig.getString("url");
-
-        threadDriverPool.get().getDriver().get(url); // open login page
-        /*
-        List<HierarchicalConfiguration<ImmutableNode>> operations = loginConfig.childConfigurationsAt("operations");
-        for (HierarchicalConfiguration<ImmutableNode> operation :
-                operations) {
-            try {
-                threadDriverPool.get().executeOperation(operation);
-            } catch (InvocationTargetException e) {
-                System.err.println("[Fatal] Problem encountered in login process");
-                return;
-            }
-        }*/
+        TestPlan loginPlan = PlanCompiler.compileBlock(configName, loginConfig);
+        return new LoginSession(loginConfig.getString("url"), loginConfig.getString("seed-url"),
+                loginConfig.getString("check-xpath"), loginPlan,
+                loginConfig.getInt("state-ttl", DEFAULT_LOGIN_STATE_TTL) * 1000L);
+    }
+
+    private void OpenURLandLogin(AutoDriver autoDriver) {
+        EventLog.debug("Open URL and login", null);
+        loginSession.login(autoDriver);
     }
     
     /**
-     * Close the browser after each testcase is finished.<br>
-     * Before closing the browser, wait a short time for the last action on website to take effect, e.g. for a click
-     * to resolve and redirect to another page.
+     * Quit all browser sessions after all testcases are finished.<br>
+     * There is no need to wait for the last action on the website to take effect, each testcase already waited for
+     * its page to settle after its last page changing step.
      */
     @AfterClass
     public void closeBrowser() {
+        if (sessionPool != null) {
+            sessionPool.shutdown();
+        }
+        HubAllocator.shutdownInstance();
+        ResourceBlocker.shutdownInstance(new File(System.getProperty("dbcs.report.dir", ConfigManager.getBasePath())));
+        if (resultSink != null) {
+            resultSink.shutdown();
+        }
+        if (failureCapture != null) {
+            failureCapture.shutdown();
+        }
+        if (ConfigManager.getConnectionPool() != null) {
+            ConfigManager.getConnectionPool().close();
+        }
+
+        long actualMillis = (lastEndNanos.get() - firstStartNanos.get()) / 1000000;
+        System.out.println("[Schedule] Makespan " + actualMillis / 1000 + " s, estimated "
+                + estimatedMakespanMillis / 1000 + " s");
+        RunMetrics.scheduleEnded(workers, estimatedMakespanMillis, actualMillis);
         try {
-            // wait for the last operation to take effect
-            Thread.sleep(2000);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+            durationHistory.save();
+        } catch (IOException e) {
+            System.out.println("[Error] Failed to save testcase durations:" + e.toString());
+        }
+    }
+
+    /**
+     * Write the latency report of the run, to the directory given by the dbcs.report.dir system property or to the
+     * base path.
+     */
+    @AfterSuite(alwaysRun = true)
+    public void writeMetrics() {
+        File dir = new File(System.getProperty("dbcs.report.dir", ConfigManager.getBasePath()));
+        try {
+            RunMetrics.writeReport(dir);
+            CommandTrace.writeReport(dir);
+            System.out.println("[Metrics] Report written to " + dir);
+            EventLog.sync();
+        } catch (IOException e) {
+            System.out.println("[Error] Failed to write metrics report:" + e.toString());
         }
-        threadDriverPool.get().getDriver().close();
     }
 
     /**
      * Generic Test Method.
-     * Will be invoked by different test names from testcaseData Method.
+     * Will be invoked by different test names from testcaseData Method.<br>
+     * Failed steps are retried and a failed testcase restarts from its last checkpoint, see {@link StepRecovery}.
      *
      * @param testName    Read from xml testcase tag's name attribute
-     * @param procedure   the set of operations
+     * @param testcase    the testcase to compile and run
+     * @throws IllegalArgumentException if an operation of the testcase is invalid, the testcase is recorded as failed
      */
     @Test(dataProvider = "testcaseData", alwaysRun = true)
-    public void runTest(String testName, 
-                         List<HierarchicalConfiguration<ImmutableNode>> procedure) {
-        String testInfoString = testName ;
-        System.out.println("[Run Test] " + testInfoString);
-        for (HierarchicalConfiguration<ImmutableNode> operations : procedure) {
-            // only execute the operations when the operations group is marked the correct group number
-            // or the operations is by default applied to all group(default case group number shall be 0)
-
-            for (HierarchicalConfiguration<ImmutableNode> operation :
-                    operations.childConfigurationsAt("")) {
-                int operationGroupNumber = operation.getInt("[@group]", 0);                  
+    public void runTest(String testName, TestcaseSource.Testcase testcase) {
+        EventLog.setTestcase(testName);
+        CommandTrace.testStarted(testName);
+        TestPlan plan;
+        try {
+            plan = testcase.compile(); // dropped when the test returns
+        } catch (IllegalArgumentException e) {
+            rejectTestcase(testName, e);
+            throw e;
+        }
+        List<ReentrantLock> held = stateLocks.acquire(plan);
+        long start = System.nanoTime();
+        long startMillis = System.currentTimeMillis();
+        firstStartNanos.compareAndSet(0, start);
+        boolean passed = false;
+        String failure = null;
+        AutoDriver autoDriver = null;
+        try {
+            autoDriver = sessionPool.acquire();
+            long runStart = System.nanoTime(); // waiting for a free session is not part of the test's duration
+            OpenURLandLogin(autoDriver);
+            EventLog.setStep(-1); // the login steps are done
+            EventLog.info("Run Test", null);
+            List<Step> steps = plan.getSteps();
+            int checkpoint = -1; // index of the last passed checkpoint
+            String checkpointUrl = null;
+            int restarts = 0;
+            for (int i = 0; i < steps.size(); i++) {
+                Step step = steps.get(i);
+                long stepStartMillis = System.currentTimeMillis();
+                long stepStart = System.nanoTime();
                 try {
-                    threadDriverPool.get().executeOperation(operation);
-                } catch (InvocationTargetException e) {
-                    System.err.println("[Fatal] problem encountered in " + testInfoString);
-                    System.err.println("TestFailed!");
-                    return;
+                    recovery.execute(autoDriver, step);
+                    recordStep(testName, startMillis, step, stepStartMillis, stepStart, null);
+                } catch (RuntimeException e) {
+                    failure = String.valueOf(e);
+                    recordStep(testName, startMillis, step, stepStartMillis, stepStart, failure);
+                    captureFailure(autoDriver, testName, step, e);
+                    if (checkpointUrl == null || restarts >= recovery.getMaxRestarts()
+                            || StepRecovery.classify(e) == StepRecovery.Failure.FATAL) {
+                        EventLog.error("TestFailed", step, e);
+                        return;
+                    }
+                    restarts++;
+                    EventLog.warn("Restart", "from checkpoint #" + steps.get(checkpoint).index + " in a new session",
+                            e);
+                    AutoDriver failed = autoDriver;
+                    autoDriver = null;
+                    sessionPool.release(failed, true);
+                    autoDriver = sessionPool.acquire();
+                    OpenURLandLogin(autoDriver);
+                    EventLog.setStep(-1);
+                    autoDriver.open(checkpointUrl);
+                    i = checkpoint; // continue after the checkpoint
+                    failure = null;
+                    continue;
+                }
+                if (step.type == OperationType.Checkpoint) {
+                    checkpoint = i;
+                    checkpointUrl = autoDriver.getCheckpointUrl();
                 }
             }
-            System.out.println("[Test Passed] " + testInfoString);
+            passed = true;
+            durationHistory.record(testName, (System.nanoTime() - runStart) / 1000000);
+            EventLog.info("Test Passed", null);
+        } catch (RuntimeException e) {
+            failure = String.valueOf(e);
+            EventLog.error("TestFailed", "session or login failed", e);
+            captureFailure(autoDriver, testName, null, e);
+        } finally {
+            EventLog.setStep(-1);
+            if (autoDriver != null) {
+                sessionPool.release(autoDriver, !passed);
+            }
+            long end = System.nanoTime();
+            RunMetrics.testEnded(testName, end - start, passed);
+            CommandTrace.testEnded(passed);
+            if (resultSink != null) {
+                resultSink.testEnded(testName, startMillis, (end - start) / 1000000,
+                        passed ? ResultSink.Status.PASSED : ResultSink.Status.FAILED, failure);
+            }
+            for (long last = lastEndNanos.get(); end > last && !lastEndNanos.compareAndSet(last, end); ) {
+                last = lastEndNanos.get();
+            }
+            stateLocks.release(held);
+            EventLog.setTestcase(null);
         }
     }
-}
 
+    /**
+     * Record a testcase whose operations do not compile as failed without running it.
+     */
+    private void rejectTestcase(String testName, IllegalArgumentException e) {
+        EventLog.error("TestFailed", "invalid testcase", e);
+        RunMetrics.testEnded(testName, 0, false);
+        CommandTrace.testEnded(false);
+        if (resultSink != null) {
+            resultSink.testEnded(testName, System.currentTimeMillis(), 0, ResultSink.Status.FAILED,
+                    String.valueOf(e));
+        }
+        EventLog.setTestcase(null);
+    }
+
+    private void captureFailure(AutoDriver autoDriver, String testName, Step step, RuntimeException e) {
+        if (failureCapture != null && autoDriver != null) {
+            failureCapture.capture(autoDriver, testName, step, e);
+        }
+    }
+
+    private void recordStep(String testName, long testStartMillis, Step step, long stepStartMillis, long stepStart,
+            String failure) {
+        if (resultSink != null) {
+            resultSink.stepEnded(testName, testStartMillis, step, stepStartMillis,
+                    (System.nanoTime() - stepStart) / 1000000,
+                    failure == null ? ResultSink.Status.PASSED : ResultSink.Status.FAILED, failure);
+        }
+    }
+}
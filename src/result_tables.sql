@@ -0,0 +1,31 @@
+-- Tables receiving the results of the test runs, written by dbcs.ResultSink.
+-- A testcase row is identified by (run_id, testname, started_at), its operation rows carry the same values in
+-- (run_id, testname, test_started_at).
+-- The text columns count characters, but a varchar2 holds at most 4000 bytes whatever its semantics, so the sink
+-- cuts message and xpath to 4000 UTF-8 bytes.
+
+create table db_auto_testcase_result (
+    run_id       varchar2(64 char)    not null,
+    testname     varchar2(200 char)   not null,
+    status       varchar2(10 char)    not null,
+    started_at   timestamp            not null,
+    duration_ms  number(12)           not null,
+    message      varchar2(4000 char)
+);
+
+create index db_auto_testcase_result_ix on db_auto_testcase_result (run_id, testname);
+
+create table db_auto_operation_result (
+    run_id           varchar2(64 char)    not null,
+    testname         varchar2(200 char)   not null,
+    test_started_at  timestamp            not null,
+    step_index       number(6)            not null,
+    operation        varchar2(64 char)    not null,
+    xpath            varchar2(4000 char),
+    status           varchar2(10 char)    not null,
+    started_at       timestamp            not null,
+    duration_ms      number(12)           not null,
+    message          varchar2(4000 char)
+);
+
+create index db_auto_operation_result_ix on db_auto_operation_result (run_id, testname, test_started_at);
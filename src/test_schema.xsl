@@ -17,6 +17,7 @@
                                     <xs:enumeration value="WaitInvisible"/>
                                     <xs:enumeration value="SelectCheckBox"/>
                                     <xs:enumeration value="ClickIfAnotherElementExist"/>
+                                    <xs:enumeration value="Checkpoint"/>
                                 </xs:restriction>
                             </xs:simpleType>
                         </xs:attribute>
@@ -31,9 +32,21 @@
                         </xs:attribute>
                         <xs:attribute name="select-index" type="xs:unsignedInt" use="optional"/>
                         <xs:attribute name="customize-refresh-xpath" type="xs:string" use="optional"/>
+                        <xs:attribute name="timeout" type="xs:unsignedInt" use="optional"/>
+                        <xs:attribute name="watch" use="optional">
+                            <xs:simpleType>
+                                <xs:restriction base="xs:string">
+                                    <xs:enumeration value="poll"/>
+                                    <xs:enumeration value="mutation"/>
+                                </xs:restriction>
+                            </xs:simpleType>
+                        </xs:attribute>
                         <xs:attribute name="dynamic-time-stamp" type="xs:boolean" use="optional"/>
                         <xs:attribute name="select" type="xs:boolean" use="optional"/>
 			<xs:attribute name="relative-path" type="xs:boolean" use="optional"/>
+                        <xs:attribute name="real-keys" type="xs:boolean" use="optional"/>
+                        <xs:attribute name="retries" type="xs:unsignedInt" use="optional"/>
+                        <xs:attribute name="url" type="xs:anyURI" use="optional"/>
                         <xs:anyAttribute/>
                     </xs:complexType>
                 </xs:element>
@@ -68,6 +81,8 @@
                     </xs:restriction>
                 </xs:simpleType>
             </xs:attribute>
+            <xs:attribute name="group" type="xs:string" use="optional"/>
+            <xs:attribute name="batch-form-steps" type="xs:boolean" use="optional"/>
             <xs:attribute name="group-count" use="optional">
                 <xs:simpleType>
                     <xs:restriction base="xs:int">
@@ -84,6 +99,26 @@
                 <xs:element name="max-vm-per-page" type="xs:unsignedInt"/>
                 <xs:element name="language-to-run" type="xs:unsignedInt"/>
                 <xs:element name="wait-refresh-interval" type="xs:unsignedInt"/>
+                <xs:element name="wait-repeatedly-timeout" type="xs:unsignedInt" minOccurs="0"/>
+                <xs:element name="batch-form-steps" type="xs:boolean" minOccurs="0"/>
+                <xs:element name="rewrite-locators" type="xs:boolean" minOccurs="0"/>
+                <xs:element name="order-by-duration" type="xs:boolean" minOccurs="0"/>
+                <xs:element name="validate-testcases" type="xs:boolean" minOccurs="0"/>
+                <xs:element name="session-pool-size" type="xs:unsignedInt" minOccurs="0"/>
+                <xs:element name="session-max-uses" type="xs:unsignedInt" minOccurs="0"/>
+                <xs:element name="session-acquire-timeout" type="xs:unsignedInt" minOccurs="0"/>
+                <xs:element name="session-create-timeout" type="xs:unsignedInt" minOccurs="0"/>
+                <xs:element name="record-results" type="xs:boolean" minOccurs="0"/>
+                <xs:element name="wait-for-quiet-page" type="xs:boolean" minOccurs="0"/>
+                <xs:element name="step-retries" type="xs:unsignedInt" minOccurs="0"/>
+                <xs:element name="max-restarts" type="xs:unsignedInt" minOccurs="0"/>
+                <xs:element name="capture-failures" type="xs:boolean" minOccurs="0"/>
+                <xs:element name="failure-store-size" type="xs:unsignedInt" minOccurs="0"/>
+                <xs:element name="failure-queue-size" type="xs:unsignedInt" minOccurs="0"/>
+                <xs:element name="quiet-page-timeout" type="xs:unsignedInt" minOccurs="0"/>
+                <xs:element name="wait-appear-timeout" type="xs:unsignedInt" minOccurs="0"/>
+                <xs:element name="result-batch-size" type="xs:unsignedInt" minOccurs="0"/>
+                <xs:element name="result-flush-interval" type="xs:unsignedInt" minOccurs="0"/>
                 <xs:element name="use-simple-wait" type="xs:boolean"/>
                 <xs:element name="simple-wait-time" type="xs:unsignedInt"/>
                 <xs:element name="test-to-run">
@@ -98,6 +133,43 @@
                     <xs:complexType>
                         <xs:all>
                             <xs:element name="name" type="xs:string"/>
+                            <xs:element name="hub" type="xs:anyURI" minOccurs="0"/>
+                            <xs:element name="hubs" minOccurs="0">
+                                <xs:complexType>
+                                    <xs:sequence>
+                                        <xs:element name="hub" maxOccurs="unbounded">
+                                            <xs:complexType>
+                                                <xs:attribute name="url" type="xs:anyURI" use="required"/>
+                                                <xs:attribute name="capacity" type="xs:unsignedInt"/>
+                                            </xs:complexType>
+                                        </xs:element>
+                                    </xs:sequence>
+                                </xs:complexType>
+                            </xs:element>
+                            <xs:element name="remote" type="xs:boolean" minOccurs="0"/>
+                            <xs:element name="block-resources" minOccurs="0">
+                                <xs:complexType>
+                                    <xs:sequence>
+                                        <xs:element name="type" minOccurs="0" maxOccurs="unbounded">
+                                            <xs:simpleType>
+                                                <xs:restriction base="xs:string">
+                                                    <xs:enumeration value="image"/>
+                                                    <xs:enumeration value="font"/>
+                                                    <xs:enumeration value="media"/>
+                                                    <xs:enumeration value="stylesheet"/>
+                                                </xs:restriction>
+                                            </xs:simpleType>
+                                        </xs:element>
+                                        <xs:element name="url-pattern" type="xs:string" minOccurs="0"
+                                                    maxOccurs="unbounded"/>
+                                        <xs:element name="client" type="xs:string" minOccurs="0"
+                                                    maxOccurs="unbounded"/>
+                                    </xs:sequence>
+                                    <xs:attribute name="proxy-host" type="xs:string"/>
+                                    <xs:attribute name="proxy-port" type="xs:unsignedShort"/>
+                                    <xs:attribute name="tunnel-ports" type="xs:string"/>
+                                </xs:complexType>
+                            </xs:element>
                             <xs:element name="specs">
                                 <xs:complexType>
                                     <xs:sequence>
@@ -114,6 +186,9 @@
                         <xs:all>
                             <xs:element ref="url"/>
                             <xs:element ref="operations"/>
+                            <xs:element name="seed-url" type="xs:string" minOccurs="0"/>
+                            <xs:element name="check-xpath" type="xs:string" minOccurs="0"/>
+                            <xs:element name="state-ttl" type="xs:unsignedInt" minOccurs="0"/>
                         </xs:all>
                     </xs:complexType>
                 </xs:element>